@@ -4,27 +4,49 @@ import android.animation.AnimatorInflater;
 import android.animation.AnimatorSet;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.BitmapRegionDecoder;
 import android.hardware.Camera;
+import android.util.Log;
 import android.view.View;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.ViewModelProviders;
 
 import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.BarcodeScannerProcessor;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.InventoryCounter;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.MlKitTileDetector;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.TiledDecoder;
+import com.github.hachimann.mlkit_barcode_scanning.camera.Camera1FrameSource;
+import com.github.hachimann.mlkit_barcode_scanning.camera.Camera2FrameSource;
 import com.github.hachimann.mlkit_barcode_scanning.camera.CameraSource;
 import com.github.hachimann.mlkit_barcode_scanning.camera.CameraSourcePreview;
+import com.github.hachimann.mlkit_barcode_scanning.camera.DetectionCascade;
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameQualityGate;
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameSource;
 import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
+import com.github.hachimann.mlkit_barcode_scanning.camera.PreviewBufferStats;
+import com.github.hachimann.mlkit_barcode_scanning.camera.StageMetrics;
 import com.github.hachimann.mlkit_barcode_scanning.camera.WorkflowModel;
 import com.google.android.material.chip.Chip;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BarcodeScan {
+    private static final String TAG = "BarcodeScan";
+
     private final Context context;
 
     private CameraSource cameraSource;
+    private BarcodeScannerProcessor barcodeScannerProcessor;
     private WorkflowModel workflowModel;
     private WorkflowModel.WorkflowState currentWorkflowState;
 
@@ -34,11 +56,24 @@ public class BarcodeScan {
     private AnimatorSet promptChipAnimator;
     private BarcodeResultListener barcodeResultListener;
     private BarcodeStringResultListener barcodeStringResultListener;
+    private MultiBarcodeResultListener multiBarcodeResultListener;
+    private FastPathBarcodeResultListener fastPathBarcodeResultListener;
 
     private final int resIdPoint;
     private final int resIdCloser;
     private final int resIdSearching;
 
+    private final boolean useCamera2;
+    private final int minPreviewBufferCount;
+    private final int maxPreviewBufferCount;
+
+    @Nullable
+    private final InventoryCounter inventoryCounter;
+
+    // Created with the first picture scan and released with the camera source.
+    private TiledDecoder tiledDecoder;
+    private ExecutorService pictureExecutor;
+
     private BarcodeScan(Builder builder) {
         this.context = builder.context;
         this.preview = builder.preview;
@@ -50,11 +85,28 @@ public class BarcodeScan {
         this.resIdCloser = builder.resIdCloser;
         this.resIdSearching = builder.resIdSearching;
 
+        this.useCamera2 = builder.useCamera2;
+        this.minPreviewBufferCount = builder.minPreviewBufferCount;
+        this.maxPreviewBufferCount = builder.maxPreviewBufferCount;
+        this.inventoryCounter = PreferenceUtils.shouldCountInventory()
+                ? new InventoryCounter(PreferenceUtils.shouldDeduplicateInventorySpatially())
+                : null;
+
         apply();
     }
 
     private void setCameraSource() {
-        cameraSource = new CameraSource((Activity) context, graphicOverlay);
+        Activity activity = (Activity) context;
+        FrameSource frameSource = useCamera2
+                ? new Camera2FrameSource(activity, graphicOverlay)
+                : new Camera1FrameSource(activity, graphicOverlay);
+        // The given counts already cover a pending frame and the one being detected on. The
+        // staged pipeline may hold one more in its hand-off, and every detection slot beyond the
+        // first holds another.
+        int extraBuffers = Math.max(1, PreferenceUtils.getPipelineDepth());
+        frameSource.setPreviewBufferCount(minPreviewBufferCount + extraBuffers,
+                maxPreviewBufferCount + extraBuffers);
+        cameraSource = new CameraSource(activity, graphicOverlay, frameSource);
     }
 
     private void apply() {
@@ -75,6 +127,10 @@ public class BarcodeScan {
             barcodeResultListener = (BarcodeResultListener) context;
         if (context instanceof BarcodeStringResultListener)
             barcodeStringResultListener = (BarcodeStringResultListener) context;
+        if (context instanceof MultiBarcodeResultListener)
+            multiBarcodeResultListener = (MultiBarcodeResultListener) context;
+        if (context instanceof FastPathBarcodeResultListener)
+            fastPathBarcodeResultListener = (FastPathBarcodeResultListener) context;
 
         setUpWorkflowModel();
     }
@@ -106,8 +162,14 @@ public class BarcodeScan {
             throw new Exception("CameraSourcePreview is NULL");
         workflowModel.markCameraFrozen();
         currentWorkflowState = WorkflowModel.WorkflowState.NOT_STARTED;
-        cameraSource.setFrameProcessor(new BarcodeScannerProcessor(graphicOverlay,
-                workflowModel));
+        barcodeScannerProcessor = new BarcodeScannerProcessor(graphicOverlay, workflowModel);
+        if (PreferenceUtils.shouldTorchWhenDark())
+            // Called on the processing thread, while the camera source is released on the main
+            // thread.
+            barcodeScannerProcessor.setUnderexposureListener(() ->
+                    ((Activity) context).runOnUiThread(() -> enableFlash(true)));
+        barcodeScannerProcessor.setInventoryCounter(inventoryCounter);
+        cameraSource.setFrameProcessor(barcodeScannerProcessor);
         workflowModel.setWorkflowState(WorkflowModel.WorkflowState.DETECTING);
     }
 
@@ -116,6 +178,212 @@ public class BarcodeScan {
             cameraSource.release();
             cameraSource = null;
         }
+        if (pictureExecutor != null) {
+            pictureExecutor.shutdownNow();
+            pictureExecutor = null;
+        }
+        if (tiledDecoder != null) {
+            tiledDecoder.close();
+            tiledDecoder = null;
+        }
+    }
+
+    /**
+     * Takes a full resolution picture and decodes every barcode in it, for dense label sheets and
+     * codes too small to read in the preview. The picture is split into overlapping tiles that
+     * are decoded in parallel on all cores. Results are delivered on the main thread; an empty
+     * list if decoding failed. Nothing is delivered if the camera source is released before the
+     * picture is taken.
+     *
+     * @return false if the camera isn't running or can't take pictures
+     */
+    public boolean scanPicture(@NonNull PictureBarcodeResultListener listener) {
+        if (cameraSource == null)
+            return false;
+        CameraSource source = cameraSource;
+        return source.getFrameSource().capturePicture(jpeg -> {
+            // The picture arrives on the main thread, possibly after stopCameraSource().
+            if (cameraSource != source)
+                return;
+            if (pictureExecutor == null) {
+                pictureExecutor = Executors.newSingleThreadExecutor();
+                tiledDecoder = new TiledDecoder(TiledDecoder.DEFAULT_TILE_SIZE,
+                        TiledDecoder.DEFAULT_OVERLAP, Runtime.getRuntime().availableProcessors(),
+                        MlKitTileDetector::new);
+            }
+            TiledDecoder decoder = tiledDecoder;
+            pictureExecutor.execute(() -> {
+                List<DecodedBarcode> barcodes = decodePicture(decoder, jpeg);
+                ((Activity) context).runOnUiThread(
+                        () -> listener.onPictureBarcodeResult(barcodes));
+            });
+        });
+    }
+
+    // The overload without isShareable only exists from API 31.
+    @SuppressWarnings("deprecation")
+    private static List<DecodedBarcode> decodePicture(TiledDecoder decoder, byte[] jpeg) {
+        BitmapRegionDecoder regionDecoder = null;
+        try {
+            // Only the region of each tile is decoded, never the whole picture at once.
+            regionDecoder = BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, false);
+            return decoder.decode(regionDecoder);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to decode picture.", e);
+            return Collections.emptyList();
+        } finally {
+            if (regionDecoder != null)
+                regionDecoder.recycle();
+        }
+    }
+
+    /**
+     * Returns the current occupancy of the preview buffer pool, or null if the camera source has
+     * been released.
+     */
+    @Nullable
+    public PreviewBufferStats getPreviewBufferStats() {
+        if (cameraSource == null)
+            return null;
+        return cameraSource.getFrameSource().getPreviewBufferStats();
+    }
+
+    /**
+     * Returns the hit rate of each crop level, from the reticle area to the whole frame, or null
+     * if the crop doesn't adapt or scanning hasn't started.
+     */
+    @Nullable
+    public float[] getCropHitRates() {
+        if (barcodeScannerProcessor == null)
+            return null;
+        return barcodeScannerProcessor.getRegionHitRates();
+    }
+
+    /**
+     * Returns the per-level counters of the detection cascade, or null if the cascade is off or
+     * scanning hasn't started.
+     */
+    @Nullable
+    public DetectionCascade getDetectionCascade() {
+        if (barcodeScannerProcessor == null)
+            return null;
+        return barcodeScannerProcessor.getDetectionCascade();
+    }
+
+    /**
+     * Returns the drop counters of the frame quality gate, or null if poor frames aren't dropped
+     * or scanning hasn't started.
+     */
+    @Nullable
+    public FrameQualityGate getFrameQualityGate() {
+        if (barcodeScannerProcessor == null)
+            return null;
+        return barcodeScannerProcessor.getFrameQualityGate();
+    }
+
+    /**
+     * Returns the number of frames that skipped detection because the localiser found nothing
+     * barcode-like in them.
+     */
+    public long getSkippedEmptyFrameCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getSkippedEmptyFrameCount();
+    }
+
+    /**
+     * Returns the number of frames read by the fast-path decoder without running the detector.
+     */
+    public long getFastPathDecodeCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getFastPathDecodeCount();
+    }
+
+    /**
+     * Returns the average time it took enough frames to agree on an accepted barcode.
+     */
+    public float getAverageAcceptanceLatencyMillis() {
+        if (barcodeScannerProcessor == null)
+            return 0f;
+        return barcodeScannerProcessor.getAverageAcceptanceLatencyMillis();
+    }
+
+    /**
+     * Returns the number of repeated reads suppressed in continuous scanning mode.
+     */
+    public long getSuppressedDuplicateCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getSuppressedDuplicateCount();
+    }
+
+    /**
+     * Returns the running per-value counts of inventory counting, or null if it is off. Counts are
+     * kept across camera restarts until {@link InventoryCounter#clear()} is called.
+     */
+    @Nullable
+    public InventoryCounter getInventoryCounter() {
+        return inventoryCounter;
+    }
+
+    /**
+     * Returns the number of barcodes currently tracked.
+     */
+    public int getTrackedBarcodeCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getTrackedBarcodeCount();
+    }
+
+    /**
+     * Returns the number of frames whose results were published.
+     */
+    public long getPublishedFrameCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getPublishedFrameCount();
+    }
+
+    /**
+     * Returns the number of frames whose results were dropped because a newer frame detected in
+     * parallel had already been published.
+     */
+    public long getOutOfOrderDropCount() {
+        if (barcodeScannerProcessor == null)
+            return 0;
+        return barcodeScannerProcessor.getOutOfOrderDropCount();
+    }
+
+    /**
+     * Returns the average time from a frame starting detection to its results being published.
+     */
+    public float getAverageFrameLatencyMillis() {
+        if (barcodeScannerProcessor == null)
+            return 0f;
+        return barcodeScannerProcessor.getAverageFrameLatencyMillis();
+    }
+
+    /**
+     * Returns the latency and occupancy of the preprocessing stage, which prepares the next frame
+     * while the previous one is detected on, or null if scanning hasn't started.
+     */
+    @Nullable
+    public StageMetrics getPreprocessingMetrics() {
+        if (barcodeScannerProcessor == null)
+            return null;
+        return barcodeScannerProcessor.getPreprocessingMetrics();
+    }
+
+    /**
+     * Returns the latency and occupancy of the detection stage, or null if scanning hasn't
+     * started.
+     */
+    @Nullable
+    public StageMetrics getDetectionMetrics() {
+        if (barcodeScannerProcessor == null)
+            return null;
+        return barcodeScannerProcessor.getDetectionMetrics();
     }
 
     @SuppressWarnings("deprecation")
@@ -183,9 +451,26 @@ public class BarcodeScan {
                     barcodeStringResultListener.onBarcodeStringResult(barcode.getRawValue());
             }
         });
+
+        workflowModel.getDetectedBarcodes().observe((LifecycleOwner) context, barcodes -> {
+            if (barcodes != null && multiBarcodeResultListener != null)
+                multiBarcodeResultListener.onMultiBarcodeResult(barcodes);
+        });
+
+        workflowModel.getFastPathBarcode().observe((LifecycleOwner) context, barcode -> {
+            if (barcode != null) {
+                if (fastPathBarcodeResultListener != null)
+                    fastPathBarcodeResultListener.onFastPathBarcodeResult(barcode);
+                if (barcodeStringResultListener != null)
+                    barcodeStringResultListener.onBarcodeStringResult(barcode.getRawValue());
+            }
+        });
     }
 
     public static class Builder {
+        private static final long DEFAULT_DUPLICATE_TIMEOUT_MILLIS = 3000;
+        private static final int DEFAULT_MAX_REMEMBERED_VALUES = 256;
+
         private final Context context;
         private final CameraSourcePreview preview;
         private GraphicOverlay graphicOverlay;
@@ -194,6 +479,9 @@ public class BarcodeScan {
         private int resIdPoint;
         private int resIdCloser;
         private int resIdSearching;
+        private boolean useCamera2;
+        private int minPreviewBufferCount = FrameSource.DEFAULT_PREVIEW_BUFFER_COUNT;
+        private int maxPreviewBufferCount = FrameSource.DEFAULT_PREVIEW_BUFFER_COUNT;
 
         public Builder(Context context, CameraSourcePreview preview) {
             this.context = context;
@@ -240,6 +528,204 @@ public class BarcodeScan {
             return this;
         }
 
+        /**
+         * Runs detection on the area under the reticle only, instead of the whole preview frame.
+         * Bounding boxes of the reported barcodes are then relative to that area.
+         */
+        public Builder setCropToReticle(boolean cropToReticle) {
+            PreferenceUtils.setCropToReticle(cropToReticle);
+            return this;
+        }
+
+        /**
+         * Runs detection on the area under the reticle, widening it step by step to the whole
+         * frame after the given number of frames without a barcode. Once a barcode is found, the
+         * smallest area containing it is used again.
+         */
+        public Builder setAdaptiveCropToReticle(int missesBeforeWidening) {
+            PreferenceUtils.setCropToReticle(true);
+            PreferenceUtils.setCropWideningMisses(missesBeforeWidening);
+            return this;
+        }
+
+        /**
+         * Runs detection at a lower resolution than the preview, which stays sharp on screen.
+         * Frames are shrunk by the largest whole factor that keeps them at least this large.
+         */
+        public Builder setDetectionResolution(int width, int height) {
+            PreferenceUtils.setDetectionResolution(width, height);
+            return this;
+        }
+
+        /**
+         * Detects on a resolution pyramid with the given number of levels, each half the size of
+         * the next. Frames are tried at the lowest level first and at higher ones only while
+         * nothing with large enough modules is found, so large codes decode at a fraction of the
+         * cost and small ones still get full resolution.
+         */
+        public Builder setDetectionCascade(int levelCount) {
+            PreferenceUtils.setDetectionCascadeLevels(levelCount);
+            return this;
+        }
+
+        /**
+         * Skips detection while the camera looks at an unchanged scene without a barcode, which
+         * saves power on devices that scan all day. Detection is still forced about once a second.
+         */
+        public Builder setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+            PreferenceUtils.setSkipUnchangedFrames(skipUnchangedFrames);
+            return this;
+        }
+
+        /**
+         * Drops frames that are too blurry, too dark or overexposed before detection, e.g. while
+         * the autofocus is hunting.
+         */
+        public Builder setDropPoorFrames(boolean dropPoorFrames) {
+            PreferenceUtils.setDropPoorFrames(dropPoorFrames);
+            return this;
+        }
+
+        /**
+         * Turns on the torch when frames stay too dark for about a second. Requires poor frames to
+         * be dropped, see {@link #setDropPoorFrames(boolean)}.
+         */
+        public Builder setTorchWhenDark(boolean torchWhenDark) {
+            PreferenceUtils.setTorchWhenDark(torchWhenDark);
+            return this;
+        }
+
+        /**
+         * Looks for bar- and QR-like structure before running the detector. Frames without any skip
+         * detection, which is most frames while walking a warehouse aisle, and other frames are
+         * only detected on around what was found.
+         */
+        public Builder setLocalizeBarcodes(boolean localizeBarcodes) {
+            PreferenceUtils.setLocalizeBarcodes(localizeBarcodes);
+            return this;
+        }
+
+        /**
+         * Tries to read EAN-13, UPC-A and Code 128 barcodes under the centre of the reticle with a
+         * lightweight scanline decoder first, and only runs the ML Kit detector when that fails.
+         * Barcodes read this way don't come from ML Kit; they reach a {@link
+         * FastPathBarcodeResultListener} and a {@link BarcodeStringResultListener}, but not a
+         * {@link BarcodeResultListener}. Has no effect in multi-barcode mode.
+         */
+        public Builder setFastPathDecoding(boolean fastPathDecoding) {
+            PreferenceUtils.setFastPathDecoding(fastPathDecoding);
+            return this;
+        }
+
+        /**
+         * Tracks barcodes from frame to frame: detection only looks where tracked barcodes are
+         * expected next, and their overlay stays in place through missed frames. A track is
+         * dropped after the given number of detections in a row without it; 0 turns tracking off.
+         */
+        public Builder setTrackBarcodes(int maxMissedFrames) {
+            PreferenceUtils.setTrackingMaxMisses(maxMissedFrames);
+            return this;
+        }
+
+        /**
+         * Only accepts a barcode once its value was read in the given number of the most recent
+         * frames, which keeps one-off misreads of damaged labels from becoming results. Formats
+         * with a check digit or error correction can be accepted after a single read instead.
+         * A required count of 0 accepts the first read.
+         */
+        public Builder setConsensus(int requiredReads, int windowFrames,
+                                    boolean acceptCheckedFormatsAtOnce) {
+            PreferenceUtils.setConsensus(requiredReads, windowFrames, acceptCheckedFormatsAtOnce);
+            return this;
+        }
+
+        /**
+         * Keeps the preview and the detector running after a barcode is found, for conveyor and
+         * pick-to-cart workflows. Each value is delivered once; repeats are suppressed until the
+         * value has been out of view for {@value #DEFAULT_DUPLICATE_TIMEOUT_MILLIS} ms.
+         */
+        public Builder setContinuousScanning(boolean continuousScanning) {
+            return setContinuousScanning(continuousScanning, DEFAULT_DUPLICATE_TIMEOUT_MILLIS,
+                    DEFAULT_MAX_REMEMBERED_VALUES);
+        }
+
+        /**
+         * Like {@link #setContinuousScanning(boolean)}, with the time a value has to be out of
+         * view before it is delivered again and the number of recent values remembered.
+         */
+        public Builder setContinuousScanning(boolean continuousScanning,
+                                             long duplicateTimeoutMillis,
+                                             int maxRememberedValues) {
+            PreferenceUtils.setContinuousScanning(continuousScanning, duplicateTimeoutMillis,
+                    maxRememberedValues);
+            return this;
+        }
+
+        /**
+         * Counts every barcode seen in the preview per value and format, for stock-taking. With
+         * spatial de-duplication, a label that stays in view is counted once rather than on every
+         * frame; without it, every read is counted. Usually combined with continuous scanning.
+         */
+        public Builder setInventoryCounting(boolean countInventory,
+                                            boolean spatialDeduplication) {
+            PreferenceUtils.setInventoryCounting(countInventory, spatialDeduplication);
+            return this;
+        }
+
+        /**
+         * Returns every barcode in the frame instead of only the one under the reticle, so a
+         * label sheet or a shelf edge can be scanned in one pass. Each barcode is drawn with an
+         * ID that stays the same while it stays in view, and the whole list is delivered to
+         * {@link MultiBarcodeResultListener} after every detection. The preview keeps running.
+         */
+        public Builder setMultiBarcodeMode(boolean multiBarcodeMode) {
+            PreferenceUtils.setMultiBarcodeMode(multiBarcodeMode);
+            return this;
+        }
+
+        /**
+         * Detects on up to the given number of frames at the same time, each with a scanner client
+         * of its own, to keep the detector busy while results are delivered. Results are still
+         * delivered in frame order: late results of an older frame are dropped. Each extra frame in
+         * flight takes a preview buffer on top of the count set with {@link
+         * #setPreviewBufferCount(int)}. Defaults to 1.
+         */
+        public Builder setPipelineDepth(int pipelineDepth) {
+            PreferenceUtils.setPipelineDepth(pipelineDepth);
+            return this;
+        }
+
+        /**
+         * Reads frames through the Camera2 API instead of the deprecated Camera API. Camera2 frames
+         * are passed to the detector without being copied.
+         */
+        public Builder setUseCamera2(boolean useCamera2) {
+            this.useCamera2 = useCamera2;
+            return this;
+        }
+
+        /**
+         * Sets a fixed number of preview buffers shared with the camera. More buffers let the camera
+         * keep running while detection is slow, at the cost of one preview frame of memory each.
+         * The processor adds one buffer for the frame waiting between preparation and detection,
+         * and one for each frame in flight beyond the first, see {@link #setPipelineDepth(int)}.
+         */
+        public Builder setPreviewBufferCount(int previewBufferCount) {
+            return setPreviewBufferCount(previewBufferCount, previewBufferCount);
+        }
+
+        /**
+         * Lets the number of preview buffers adapt between the given counts: the pool grows while
+         * the camera runs out of buffers with the detector idle, and shrinks while buffers stay
+         * unused. Only the Camera API adapts at runtime; Camera2 uses the largest count. Both counts
+         * are raised by the buffers the processor adds, like {@link #setPreviewBufferCount(int)}.
+         */
+        public Builder setPreviewBufferCount(int minPreviewBufferCount, int maxPreviewBufferCount) {
+            this.minPreviewBufferCount = minPreviewBufferCount;
+            this.maxPreviewBufferCount = maxPreviewBufferCount;
+            return this;
+        }
+
         public BarcodeScan build() throws Exception {
             BarcodeScan barcodeScan = new BarcodeScan(this);
             validateUserObject(barcodeScan);
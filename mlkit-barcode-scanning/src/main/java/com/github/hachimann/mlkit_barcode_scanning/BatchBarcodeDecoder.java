@@ -0,0 +1,346 @@
+package com.github.hachimann.mlkit_barcode_scanning;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.LumaConverter;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.MlKitTileDetector;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.TileDetector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes barcodes in stored images, outside of the camera flow.
+ *
+ * <p>Images are decoded on a fixed number of workers. Every worker keeps its own detector and
+ * pixel buffer for the whole life of the decoder, so neither scanner clients nor buffers are
+ * created per image. A memory budget limits the pixels in flight: an image only starts decoding
+ * once its pixels fit in the budget next to the images already being decoded, so large photos are
+ * decoded fewer at a time. An image larger than the whole budget is decoded on its own. Idle
+ * workers keep their buffers only up to an equal share of the budget; a buffer grown beyond that
+ * for a large image is dropped once the image is done, so idle buffers stay within the budget.
+ *
+ * <p>Results are streamed to a {@link BatchListener} on the worker threads as each image
+ * completes, in no particular order.
+ */
+public final class BatchBarcodeDecoder {
+
+    /**
+     * An image to decode. Only its size is read up front; pixels are read once a worker is free.
+     */
+    public interface ImageSource {
+        int getWidth() throws IOException;
+
+        int getHeight() throws IOException;
+
+        /**
+         * Returns the bytes held while the image is read, on top of its luma.
+         */
+        default long getExtraBytes() throws IOException {
+            return 0;
+        }
+
+        /**
+         * Writes the luma of the image to the first {@code width * height} bytes of {@code out}.
+         *
+         * @param pixels scratch space of at least one row of pixels
+         */
+        void readLuma(@NonNull byte[] out, @NonNull int[] pixels) throws IOException;
+    }
+
+    /**
+     * Receives the results of a batch on the worker threads.
+     */
+    public interface BatchListener {
+        void onImageDecoded(int index, @NonNull List<DecodedBarcode> barcodes);
+
+        void onImageFailed(int index, @NonNull Exception e);
+
+        /**
+         * Called once after the last image, or after the remaining images were skipped because
+         * the batch was cancelled.
+         */
+        void onBatchFinished(boolean cancelled);
+    }
+
+    /**
+     * A running batch.
+     */
+    public static final class Batch {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled;
+
+        /**
+         * Skips the images that haven't started yet. Images being decoded still complete.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Blocks until the batch is finished.
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+    }
+
+    private static final class Worker {
+        final TileDetector detector;
+        byte[] buffer = new byte[0];
+        int[] pixels = new int[0];
+        int chromaStart = -1;
+
+        Worker(TileDetector detector) {
+            this.detector = detector;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final List<Worker> workers = new ArrayList<>();
+    private final long memoryBudget;
+    // The largest buffer an idle worker keeps.
+    private final long retainedBufferBytes;
+    private long bytesInFlight;
+
+    /**
+     * Creates a decoder with an ML Kit scanner client per worker.
+     */
+    public BatchBarcodeDecoder(int parallelism, long memoryBudgetBytes) {
+        this(parallelism, memoryBudgetBytes, MlKitTileDetector::new);
+    }
+
+    public BatchBarcodeDecoder(int parallelism, long memoryBudgetBytes,
+                               @NonNull TileDetector.Factory detectorFactory) {
+        if (parallelism < 1 || memoryBudgetBytes < 1) {
+            throw new IllegalArgumentException("Invalid batch decoder: " + parallelism
+                    + " workers, " + memoryBudgetBytes + " bytes");
+        }
+        memoryBudget = memoryBudgetBytes;
+        retainedBufferBytes = memoryBudgetBytes / parallelism;
+        executor = Executors.newFixedThreadPool(parallelism);
+        idleWorkers = new ArrayBlockingQueue<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            Worker worker = new Worker(detectorFactory.create());
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Starts decoding the images and returns right away.
+     */
+    @NonNull
+    public Batch decode(@NonNull List<? extends ImageSource> sources,
+                        @NonNull BatchListener listener) {
+        final Batch batch = new Batch();
+        if (sources.isEmpty()) {
+            batch.done.countDown();
+            listener.onBatchFinished(false);
+            return batch;
+        }
+        final AtomicInteger remaining = new AtomicInteger(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            final ImageSource source = sources.get(i);
+            executor.execute(() -> {
+                try {
+                    if (!batch.cancelled) {
+                        decodeImage(index, source, batch, listener);
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        listener.onBatchFinished(batch.cancelled);
+                        batch.done.countDown();
+                    }
+                }
+            });
+        }
+        return batch;
+    }
+
+    /**
+     * Returns the bytes of the images currently being decoded.
+     */
+    public synchronized long getBytesInFlight() {
+        return bytesInFlight;
+    }
+
+    /**
+     * Stops the workers and closes their detectors. Running batches don't finish.
+     */
+    public void close() {
+        executor.shutdownNow();
+        for (Worker worker : workers) {
+            worker.detector.close();
+        }
+    }
+
+    private void decodeImage(int index, ImageSource source, Batch batch,
+                             BatchListener listener) {
+        long acquired = 0;
+        Worker worker = null;
+        try {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int lumaSize = width * height;
+            long bytes = lumaSize * 3L / 2 + source.getExtraBytes();
+            acquire(bytes);
+            acquired = bytes;
+            if (batch.cancelled) {
+                return;
+            }
+            worker = idleWorkers.take();
+            if (worker.buffer.length < lumaSize * 3 / 2) {
+                worker.buffer = new byte[lumaSize * 3 / 2];
+                worker.chromaStart = -1;
+            }
+            if (worker.pixels.length < width) {
+                worker.pixels = new int[width];
+            }
+            source.readLuma(worker.buffer, worker.pixels);
+            if (worker.chromaStart != lumaSize) {
+                Arrays.fill(worker.buffer, lumaSize, lumaSize * 3 / 2, (byte) 128);
+                worker.chromaStart = lumaSize;
+            }
+            List<DecodedBarcode> barcodes = worker.detector.detect(worker.buffer, width, height);
+            listener.onImageDecoded(index, barcodes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.onImageFailed(index, e);
+        } catch (Exception e) {
+            listener.onImageFailed(index, e);
+        } finally {
+            if (worker != null) {
+                if (worker.buffer.length > retainedBufferBytes) {
+                    worker.buffer = new byte[0];
+                    worker.chromaStart = -1;
+                }
+                idleWorkers.add(worker);
+            }
+            release(acquired);
+        }
+    }
+
+    /**
+     * Waits until the given bytes fit in the budget. An image larger than the budget waits until
+     * nothing else is in flight.
+     */
+    private synchronized void acquire(long bytes) throws InterruptedException {
+        while (bytesInFlight > 0 && bytes > memoryBudget - bytesInFlight) {
+            wait();
+        }
+        bytesInFlight += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        bytesInFlight -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Wraps an NV21 image, or any image whose first {@code width * height} bytes are luma.
+     */
+    @NonNull
+    public static ImageSource fromNv21(@NonNull final byte[] nv21, final int width,
+                                       final int height) {
+        return new ImageSource() {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public void readLuma(@NonNull byte[] out, @NonNull int[] pixels) {
+                System.arraycopy(nv21, 0, out, 0, width * height);
+            }
+        };
+    }
+
+    /**
+     * Reads an image file, e.g. a JPEG photo. Only the header is read until a worker picks the
+     * image up; the bitmap is then decoded, converted to luma and recycled.
+     */
+    @NonNull
+    public static ImageSource fromFile(@NonNull final String path) {
+        return new ImageSource() {
+            private BitmapFactory.Options bounds;
+
+            @Override
+            public int getWidth() throws IOException {
+                return readBounds().outWidth;
+            }
+
+            @Override
+            public int getHeight() throws IOException {
+                return readBounds().outHeight;
+            }
+
+            @Override
+            public long getExtraBytes() throws IOException {
+                // The bitmap is decoded as RGB_565.
+                return 2L * readBounds().outWidth * readBounds().outHeight;
+            }
+
+            @Override
+            public void readLuma(@NonNull byte[] out, @NonNull int[] pixels) throws IOException {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+                if (bitmap == null) {
+                    throw new IOException("Cannot decode image: " + path);
+                }
+                try {
+                    int width = bitmap.getWidth();
+                    for (int y = 0; y < bitmap.getHeight(); y++) {
+                        LumaConverter.readRow(bitmap, 0, y, width, pixels, out, y * width);
+                    }
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+
+            private synchronized BitmapFactory.Options readBounds() throws IOException {
+                if (bounds == null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inJustDecodeBounds = true;
+                    BitmapFactory.decodeFile(path, options);
+                    if (options.outWidth <= 0 || options.outHeight <= 0) {
+                        throw new IOException("Cannot read image size: " + path);
+                    }
+                    bounds = options;
+                }
+                return bounds;
+            }
+        };
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.hachimann.mlkit_barcode_scanning;
+
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+
+public interface FastPathBarcodeResultListener {
+    void onFastPathBarcodeResult(DecodedBarcode barcode);
+}
@@ -0,0 +1,9 @@
+package com.github.hachimann.mlkit_barcode_scanning;
+
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.TrackedBarcode;
+
+import java.util.List;
+
+public interface MultiBarcodeResultListener {
+    void onMultiBarcodeResult(List<TrackedBarcode> barcodes);
+}
@@ -0,0 +1,9 @@
+package com.github.hachimann.mlkit_barcode_scanning;
+
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+
+import java.util.List;
+
+public interface PictureBarcodeResultListener {
+    void onPictureBarcodeResult(List<DecodedBarcode> barcodes);
+}
@@ -2,6 +2,7 @@ package com.github.hachimann.mlkit_barcode_scanning;
 
 import android.graphics.RectF;
 
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameMetadata;
 import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
 import com.google.mlkit.vision.barcode.common.Barcode;
 
@@ -11,6 +12,27 @@ public class PreferenceUtils {
     private static int barcodeReticleHeight = 30;
     private static int minimumBarcodeWidth = 50;
     private static boolean delayLoadingBarcodeResult = false;
+    private static boolean cropToReticle = false;
+    private static int cropWideningMisses = 0;
+    private static int detectionWidth = 0;
+    private static int detectionHeight = 0;
+    private static int detectionCascadeLevels = 0;
+    private static boolean skipUnchangedFrames = false;
+    private static boolean dropPoorFrames = false;
+    private static boolean torchWhenDark = false;
+    private static boolean localizeBarcodes = false;
+    private static boolean fastPathDecoding = false;
+    private static int trackingMaxMisses = 0;
+    private static int consensusRequiredReads = 0;
+    private static int consensusWindowFrames = 0;
+    private static boolean acceptCheckedFormatsAtOnce = false;
+    private static boolean scanContinuously = false;
+    private static long duplicateTimeoutMillis = 0;
+    private static int maxRememberedValues = 0;
+    private static boolean countInventory = false;
+    private static boolean deduplicateInventorySpatially = false;
+    private static boolean multiBarcodeMode = false;
+    private static int pipelineDepth = 1;
 
     public static void setEnableBarcodeSizeCheck(boolean enableBarcodeSizeCheck) {
         PreferenceUtils.enableBarcodeSizeCheck = enableBarcodeSizeCheck;
@@ -32,12 +54,75 @@ public class PreferenceUtils {
         PreferenceUtils.delayLoadingBarcodeResult = delayLoadingBarcodeResult;
     }
 
-    public static Float getProgressToMeetBarcodeSizeRequirement(GraphicOverlay overlay, Barcode barcode) {
+    public static void setDetectionResolution(int detectionWidth, int detectionHeight) {
+        PreferenceUtils.detectionWidth = detectionWidth;
+        PreferenceUtils.detectionHeight = detectionHeight;
+    }
+
+    public static void setDetectionCascadeLevels(int detectionCascadeLevels) {
+        PreferenceUtils.detectionCascadeLevels = detectionCascadeLevels;
+    }
+
+    public static void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+        PreferenceUtils.skipUnchangedFrames = skipUnchangedFrames;
+    }
+
+    public static void setDropPoorFrames(boolean dropPoorFrames) {
+        PreferenceUtils.dropPoorFrames = dropPoorFrames;
+    }
+
+    public static void setTorchWhenDark(boolean torchWhenDark) {
+        PreferenceUtils.torchWhenDark = torchWhenDark;
+    }
+
+    public static void setLocalizeBarcodes(boolean localizeBarcodes) {
+        PreferenceUtils.localizeBarcodes = localizeBarcodes;
+    }
+
+    public static void setFastPathDecoding(boolean fastPathDecoding) {
+        PreferenceUtils.fastPathDecoding = fastPathDecoding;
+    }
+
+    public static void setTrackingMaxMisses(int trackingMaxMisses) {
+        PreferenceUtils.trackingMaxMisses = trackingMaxMisses;
+    }
+
+    public static void setConsensus(int requiredReads, int windowFrames,
+                                    boolean acceptCheckedFormatsAtOnce) {
+        PreferenceUtils.consensusRequiredReads = requiredReads;
+        PreferenceUtils.consensusWindowFrames = windowFrames;
+        PreferenceUtils.acceptCheckedFormatsAtOnce = acceptCheckedFormatsAtOnce;
+    }
+
+    public static void setContinuousScanning(boolean scanContinuously, long duplicateTimeoutMillis,
+                                             int maxRememberedValues) {
+        PreferenceUtils.scanContinuously = scanContinuously;
+        PreferenceUtils.duplicateTimeoutMillis = duplicateTimeoutMillis;
+        PreferenceUtils.maxRememberedValues = maxRememberedValues;
+    }
+
+    public static void setInventoryCounting(boolean countInventory,
+                                            boolean deduplicateInventorySpatially) {
+        PreferenceUtils.countInventory = countInventory;
+        PreferenceUtils.deduplicateInventorySpatially = deduplicateInventorySpatially;
+    }
+
+    public static void setMultiBarcodeMode(boolean multiBarcodeMode) {
+        PreferenceUtils.multiBarcodeMode = multiBarcodeMode;
+    }
+
+    public static void setPipelineDepth(int pipelineDepth) {
+        PreferenceUtils.pipelineDepth = pipelineDepth;
+    }
+
+    public static float getProgressToMeetBarcodeSizeRequirement(GraphicOverlay overlay,
+                                                                Barcode barcode,
+                                                                FrameMetadata frameMetadata) {
         if (enableBarcodeSizeCheck) {
-            float reticleBoxWidth = getBarcodeReticleBox(overlay).width();
+            float reticleBoxWidth = (float) overlay.getWidth() * barcodeReticleWidth / 100;
             float barcodeWidth_ = 0f;
             if (barcode.getBoundingBox() != null)
-                barcodeWidth_ = (float) (barcode.getBoundingBox().width() * 1.0);
+                barcodeWidth_ = barcode.getBoundingBox().width() / frameMetadata.getScale();
             float barcodeWidth = overlay.translateX(barcodeWidth_);
             float requiredWidth = reticleBoxWidth * minimumBarcodeWidth / 100;
             return Math.min(barcodeWidth / requiredWidth, 1f);
@@ -46,14 +131,31 @@ public class PreferenceUtils {
         }
     }
 
+    public static void setCropToReticle(boolean cropToReticle) {
+        PreferenceUtils.cropToReticle = cropToReticle;
+    }
+
+    public static void setCropWideningMisses(int cropWideningMisses) {
+        PreferenceUtils.cropWideningMisses = cropWideningMisses;
+    }
+
     public static RectF getBarcodeReticleBox(GraphicOverlay overlay) {
+        RectF box = new RectF();
+        getBarcodeReticleBox(overlay, box);
+        return box;
+    }
+
+    /**
+     * Writes the reticle box to {@code out} instead of allocating one.
+     */
+    public static void getBarcodeReticleBox(GraphicOverlay overlay, RectF out) {
         float overlayWidth = (float) overlay.getWidth();
         float overlayHeight = (float) overlay.getHeight();
         float boxWidth = overlayWidth * barcodeReticleWidth / 100;
         float boxHeight = overlayHeight * barcodeReticleHeight / 100;
         float cx = overlayWidth / 2;
         float cy = overlayHeight / 2;
-        return new RectF(
+        out.set(
                 cx - boxWidth / 2,
                 cy - boxHeight / 2,
                 cx + boxWidth / 2,
@@ -64,4 +166,88 @@ public class PreferenceUtils {
     public static boolean shouldDelayLoadingBarcodeResult() {
         return delayLoadingBarcodeResult;
     }
+
+    public static boolean shouldCropToReticle() {
+        return cropToReticle;
+    }
+
+    public static int getCropWideningMisses() {
+        return cropWideningMisses;
+    }
+
+    public static int getDetectionWidth() {
+        return detectionWidth;
+    }
+
+    public static int getDetectionHeight() {
+        return detectionHeight;
+    }
+
+    public static int getDetectionCascadeLevels() {
+        return detectionCascadeLevels;
+    }
+
+    public static boolean shouldSkipUnchangedFrames() {
+        return skipUnchangedFrames;
+    }
+
+    public static boolean shouldDropPoorFrames() {
+        return dropPoorFrames;
+    }
+
+    public static boolean shouldTorchWhenDark() {
+        return torchWhenDark;
+    }
+
+    public static boolean shouldLocalizeBarcodes() {
+        return localizeBarcodes;
+    }
+
+    public static boolean shouldUseFastPathDecoding() {
+        return fastPathDecoding;
+    }
+
+    public static int getTrackingMaxMisses() {
+        return trackingMaxMisses;
+    }
+
+    public static int getConsensusRequiredReads() {
+        return consensusRequiredReads;
+    }
+
+    public static int getConsensusWindowFrames() {
+        return consensusWindowFrames;
+    }
+
+    public static boolean shouldAcceptCheckedFormatsAtOnce() {
+        return acceptCheckedFormatsAtOnce;
+    }
+
+    public static boolean shouldScanContinuously() {
+        return scanContinuously;
+    }
+
+    public static long getDuplicateTimeoutMillis() {
+        return duplicateTimeoutMillis;
+    }
+
+    public static int getMaxRememberedValues() {
+        return maxRememberedValues;
+    }
+
+    public static boolean shouldCountInventory() {
+        return countInventory;
+    }
+
+    public static boolean shouldDeduplicateInventorySpatially() {
+        return deduplicateInventorySpatially;
+    }
+
+    public static boolean shouldScanMultipleBarcodes() {
+        return multiBarcodeMode;
+    }
+
+    public static int getPipelineDepth() {
+        return pipelineDepth;
+    }
 }
@@ -29,6 +29,7 @@ public class ScopedExecutor implements Executor {
 
     private final Executor executor;
     private final AtomicBoolean shutdown = new AtomicBoolean();
+    private final Executor unwrapped = this::executeUnwrapped;
 
     public ScopedExecutor(@NonNull Executor executor) {
         this.executor = executor;
@@ -50,6 +51,28 @@ public class ScopedExecutor implements Executor {
                 });
     }
 
+    /**
+     * Returns an executor that drops runnables submitted after {@link #shutdown}, like this one,
+     * but passes them on unwrapped, so nothing is allocated per runnable. Runnables submitted
+     * before shutdown may still start afterwards, so they must check {@link #isShutdown()}
+     * themselves.
+     */
+    @NonNull
+    public Executor withoutWrapping() {
+        return unwrapped;
+    }
+
+    private void executeUnwrapped(@NonNull Runnable command) {
+        if (shutdown.get()) {
+            return;
+        }
+        executor.execute(command);
+    }
+
+    public boolean isShutdown() {
+        return shutdown.get();
+    }
+
     /**
      * After this method is called, no runnables that have been submitted or are subsequently
      * submitted will start to execute, turning this executor into a no-op.
@@ -4,41 +4,70 @@ import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getPro
 
 import android.graphics.Canvas;
 import android.graphics.Path;
+import android.graphics.RectF;
 
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameMetadata;
 import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
 import com.google.mlkit.vision.barcode.common.Barcode;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public final class BarcodeConfirmingGraphic extends BarcodeGraphicBase {
-    private final Barcode barcode;
+    @Nullable
+    private Barcode barcode;
+    @Nullable
+    private FrameMetadata frameMetadata;
 
-    public BarcodeConfirmingGraphic(@NotNull GraphicOverlay overlay, @NotNull Barcode barcode) {
+    public BarcodeConfirmingGraphic(@NotNull GraphicOverlay overlay, @NotNull Barcode barcode,
+                                    @NotNull FrameMetadata frameMetadata) {
         super(overlay);
         this.barcode = barcode;
+        this.frameMetadata = frameMetadata;
+    }
+
+    /**
+     * Creates a graphic without a barcode, to be retained and given one with {@link #update}.
+     */
+    BarcodeConfirmingGraphic(@NotNull GraphicOverlay overlay, @NotNull BarcodeGraphicStyle style) {
+        super(overlay, style);
+    }
+
+    /**
+     * Shows the progress of another barcode, on the main thread, or just the box if there is no
+     * ML Kit barcode to measure.
+     */
+    void update(@Nullable Barcode barcode, @Nullable FrameMetadata frameMetadata) {
+        this.barcode = barcode;
+        this.frameMetadata = frameMetadata;
     }
 
     public void draw(@NotNull Canvas canvas) {
         super.draw(canvas);
+        if (barcode == null || frameMetadata == null) {
+            return;
+        }
 
         // Draws a highlighted path to indicate the current progress to meet size requirement.
-        float sizeProgress = getProgressToMeetBarcodeSizeRequirement(overlay, barcode);
-        Path path = new Path();
+        float sizeProgress = getProgressToMeetBarcodeSizeRequirement(overlay, barcode,
+                frameMetadata);
+        RectF box = getBoxRect();
+        Path path = resetPath();
         if (sizeProgress > 0.95F) {
             // To have a completed path with all corners rounded.
-            path.moveTo(getBoxRect().left, getBoxRect().top);
-            path.lineTo(getBoxRect().right, getBoxRect().top);
-            path.lineTo(getBoxRect().right, getBoxRect().bottom);
-            path.lineTo(getBoxRect().left, getBoxRect().bottom);
+            path.moveTo(box.left, box.top);
+            path.lineTo(box.right, box.top);
+            path.lineTo(box.right, box.bottom);
+            path.lineTo(box.left, box.bottom);
             path.close();
         } else {
-            path.moveTo(getBoxRect().left, getBoxRect().top + getBoxRect().height() * sizeProgress);
-            path.lineTo(getBoxRect().left, getBoxRect().top);
-            path.lineTo(getBoxRect().left + getBoxRect().width() * sizeProgress, getBoxRect().top);
+            path.moveTo(box.left, box.top + box.height() * sizeProgress);
+            path.lineTo(box.left, box.top);
+            path.lineTo(box.left + box.width() * sizeProgress, box.top);
 
-            path.moveTo(getBoxRect().right, getBoxRect().bottom - getBoxRect().height() * sizeProgress);
-            path.lineTo(getBoxRect().right, getBoxRect().bottom);
-            path.lineTo(getBoxRect().right - getBoxRect().width() * sizeProgress, getBoxRect().bottom);
+            path.moveTo(box.right, box.bottom - box.height() * sizeProgress);
+            path.lineTo(box.right, box.bottom);
+            path.lineTo(box.right - box.width() * sizeProgress, box.bottom);
         }
         canvas.drawPath(path, getPathPaint());
     }
@@ -0,0 +1,121 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+/**
+ * Holds a barcode back until enough recent frames agree on its value, so a single misread of a
+ * damaged label doesn't become a result.
+ *
+ * <p>The value read in each of the last N frames is kept in a fixed ring, with null for frames
+ * without one. A value is accepted once it fills K slots of the ring, or at once for formats whose
+ * check digit or error correction already guards against misreads, if that is enabled. The time
+ * from the oldest agreeing frame to acceptance is recorded as the acceptance latency.
+ */
+final class BarcodeConsensus {
+
+    private final int requiredReads;
+    private final boolean acceptCheckedFormats;
+
+    private final String[] values;
+    private final int[] formats;
+    private final long[] timestamps;
+    private int next;
+
+    private long acceptedCount;
+    private long totalLatencyNanos;
+    private long lastLatencyNanos;
+
+    /**
+     * @param requiredReads        frames out of the window that have to agree
+     * @param windowFrames         number of recent frames considered
+     * @param acceptCheckedFormats whether formats with a check digit or error correction are
+     *                             accepted after a single read
+     */
+    BarcodeConsensus(int requiredReads, int windowFrames, boolean acceptCheckedFormats) {
+        if (requiredReads < 1 || windowFrames < requiredReads) {
+            throw new IllegalArgumentException(
+                    "Invalid consensus: " + requiredReads + " of " + windowFrames);
+        }
+        this.requiredReads = requiredReads;
+        this.acceptCheckedFormats = acceptCheckedFormats;
+        values = new String[windowFrames];
+        formats = new int[windowFrames];
+        timestamps = new long[windowFrames];
+    }
+
+    /**
+     * Records the value read in a frame, or null if the frame had none, and returns whether that
+     * value is accepted.
+     */
+    synchronized boolean onFrame(@Nullable String rawValue, int format, long timestampNanos) {
+        values[next] = rawValue;
+        formats[next] = format;
+        timestamps[next] = timestampNanos;
+        next = (next + 1) % values.length;
+        if (rawValue == null) {
+            return false;
+        }
+
+        int reads = 0;
+        long firstRead = timestampNanos;
+        for (int i = 0; i < values.length; i++) {
+            if (formats[i] == format && rawValue.equals(values[i])) {
+                reads++;
+                firstRead = Math.min(firstRead, timestamps[i]);
+            }
+        }
+        if (reads < requiredReads && !(acceptCheckedFormats && isChecked(format))) {
+            return false;
+        }
+        acceptedCount++;
+        lastLatencyNanos = timestampNanos - firstRead;
+        totalLatencyNanos += lastLatencyNanos;
+        return true;
+    }
+
+    /**
+     * Forgets the recent frames, e.g. after a value was accepted and scanning starts over.
+     */
+    synchronized void reset() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+    }
+
+    synchronized long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    synchronized float getLastLatencyMillis() {
+        return lastLatencyNanos / 1e6f;
+    }
+
+    /**
+     * Returns the average acceptance latency, or 0 if nothing has been accepted yet.
+     */
+    synchronized float getAverageLatencyMillis() {
+        return acceptedCount == 0 ? 0f : totalLatencyNanos / 1e6f / acceptedCount;
+    }
+
+    /**
+     * Returns whether the format carries a mandatory check digit, checksum or error correction.
+     */
+    static boolean isChecked(int format) {
+        switch (format) {
+            case Barcode.FORMAT_EAN_13:
+            case Barcode.FORMAT_EAN_8:
+            case Barcode.FORMAT_UPC_A:
+            case Barcode.FORMAT_UPC_E:
+            case Barcode.FORMAT_CODE_128:
+            case Barcode.FORMAT_QR_CODE:
+            case Barcode.FORMAT_DATA_MATRIX:
+            case Barcode.FORMAT_AZTEC:
+            case Barcode.FORMAT_PDF417:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
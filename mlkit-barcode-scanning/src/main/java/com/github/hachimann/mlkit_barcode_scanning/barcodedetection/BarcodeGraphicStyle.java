@@ -0,0 +1,93 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getBarcodeReticleBox;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.CornerPathEffect;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import com.github.hachimann.mlkit_barcode_scanning.R;
+import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
+
+/**
+ * Paints and geometry shared by the reticle graphics of one overlay.
+ *
+ * <p>Everything is created once. The reticle box is only computed again when the overlay changes
+ * size, so switching between graphics or drawing them allocates nothing. Only used on the main
+ * thread.
+ */
+final class BarcodeGraphicStyle {
+
+    final Paint boxPaint;
+    final Paint scrimPaint;
+    final Paint eraserPaint;
+    final Paint pathPaint;
+    final float boxCornerRadius;
+
+    private final GraphicOverlay overlay;
+    private final RectF boxRect = new RectF();
+    private int boxOverlayWidth = -1;
+    private int boxOverlayHeight = -1;
+
+    // Built anew by every draw that needs a path.
+    private final Path path = new Path();
+
+    BarcodeGraphicStyle(@NonNull GraphicOverlay overlay) {
+        this.overlay = overlay;
+        Context context = overlay.getContext();
+
+        boxPaint = new Paint();
+        boxPaint.setColor(ContextCompat.getColor(context, R.color.barcode_reticle_stroke));
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth((float) context.getResources().getDimensionPixelOffset(
+                R.dimen.barcode_reticle_stroke_width));
+
+        scrimPaint = new Paint();
+        scrimPaint.setColor(ContextCompat.getColor(context, R.color.barcode_reticle_background));
+
+        eraserPaint = new Paint();
+        eraserPaint.setStrokeWidth(boxPaint.getStrokeWidth());
+        eraserPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+
+        boxCornerRadius = (float) context.getResources().getDimensionPixelOffset(
+                R.dimen.barcode_reticle_corner_radius);
+
+        pathPaint = new Paint();
+        pathPaint.setColor(Color.WHITE);
+        pathPaint.setStyle(Paint.Style.STROKE);
+        pathPaint.setStrokeWidth(boxPaint.getStrokeWidth());
+        pathPaint.setPathEffect(new CornerPathEffect(boxCornerRadius));
+    }
+
+    /**
+     * Returns the reticle box for the current size of the overlay.
+     */
+    @NonNull
+    RectF getBoxRect() {
+        int width = overlay.getWidth();
+        int height = overlay.getHeight();
+        if (width != boxOverlayWidth || height != boxOverlayHeight) {
+            getBarcodeReticleBox(overlay, boxRect);
+            boxOverlayWidth = width;
+            boxOverlayHeight = height;
+        }
+        return boxRect;
+    }
+
+    /**
+     * Returns the shared path, emptied.
+     */
+    @NonNull
+    Path resetPath() {
+        path.reset();
+        return path;
+    }
+}
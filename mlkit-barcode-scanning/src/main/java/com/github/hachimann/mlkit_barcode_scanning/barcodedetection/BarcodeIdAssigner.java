@@ -0,0 +1,113 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Gives every barcode in view an ID that stays the same from one detection to the next.
+ *
+ * <p>A barcode keeps the ID of the closest barcode with the same value and format from the last
+ * detections, as long as its centre lies within that barcode's box widened by half its size on
+ * every side. Two labels carrying the same value therefore keep separate IDs. An ID is kept for
+ * {@value #MAX_MISSES} detections the barcode is missing from, so a single missed frame doesn't
+ * renumber it. Boxes are fractions of the upright preview; entries are held in flat arrays, so
+ * assigning IDs allocates nothing.
+ */
+final class BarcodeIdAssigner {
+
+    static final int MAX_ENTRIES = 64;
+
+    static final int MAX_MISSES = 5;
+
+    private final String[] values = new String[MAX_ENTRIES];
+    private final int[] formats = new int[MAX_ENTRIES];
+    private final int[] ids = new int[MAX_ENTRIES];
+    private final float[] boxes = new float[MAX_ENTRIES * 4];
+    private final int[] misses = new int[MAX_ENTRIES];
+    private final boolean[] seen = new boolean[MAX_ENTRIES];
+    private int entryCount;
+    private int nextId = 1;
+
+    /**
+     * Starts a detection. Call {@link #assign} for every barcode found and {@link #endUpdate()}
+     * afterwards.
+     */
+    void beginUpdate() {
+        for (int i = 0; i < entryCount; i++) {
+            seen[i] = false;
+        }
+    }
+
+    /**
+     * Returns the ID of a barcode found by the current detection.
+     */
+    int assign(@NonNull String rawValue, int format, float left, float top, float right,
+               float bottom) {
+        float centerX = (left + right) / 2;
+        float centerY = (top + bottom) / 2;
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < entryCount; i++) {
+            if (seen[i] || formats[i] != format || !rawValue.equals(values[i])) {
+                continue;
+            }
+            int box = i * 4;
+            float width = boxes[box + 2] - boxes[box];
+            float height = boxes[box + 3] - boxes[box + 1];
+            if (centerX < boxes[box] - width / 2 || centerX > boxes[box + 2] + width / 2
+                    || centerY < boxes[box + 1] - height / 2
+                    || centerY > boxes[box + 3] + height / 2) {
+                continue;
+            }
+            float dx = centerX - (boxes[box] + boxes[box + 2]) / 2;
+            float dy = centerY - (boxes[box + 1] + boxes[box + 3]) / 2;
+            float distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        if (best < 0) {
+            if (entryCount == MAX_ENTRIES) {
+                // Too many barcodes to remember; this one is numbered afresh every time.
+                return nextId++;
+            }
+            best = entryCount++;
+            values[best] = rawValue;
+            formats[best] = format;
+            ids[best] = nextId++;
+        }
+        int box = best * 4;
+        boxes[box] = left;
+        boxes[box + 1] = top;
+        boxes[box + 2] = right;
+        boxes[box + 3] = bottom;
+        misses[best] = 0;
+        seen[best] = true;
+        return ids[best];
+    }
+
+    /**
+     * Finishes a detection, forgetting barcodes that have been missing for too long.
+     */
+    void endUpdate() {
+        for (int i = 0; i < entryCount; ) {
+            if (seen[i] || ++misses[i] <= MAX_MISSES) {
+                i++;
+                continue;
+            }
+            // Move the last entry into the expired one's place.
+            int last = --entryCount;
+            values[i] = values[last];
+            formats[i] = formats[last];
+            ids[i] = ids[last];
+            misses[i] = misses[last];
+            seen[i] = seen[last];
+            System.arraycopy(boxes, last * 4, boxes, i * 4, 4);
+            values[last] = null;
+        }
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+}
@@ -5,10 +5,12 @@ import android.graphics.Canvas;
 import android.graphics.Path;
 import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.RectF;
 
 import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Draws the graphic to indicate the barcode result is in loading.
@@ -17,16 +19,25 @@ public final class BarcodeLoadingGraphic extends BarcodeGraphicBase {
     private final PointF[] boxClockwiseCoordinates;
     private final Point[] coordinateOffsetBits;
     private final PointF lastPathPoint;
-    private final ValueAnimator loadingAnimator;
+    @Nullable
+    private ValueAnimator loadingAnimator;
 
     public BarcodeLoadingGraphic(@NotNull GraphicOverlay overlay, @NotNull ValueAnimator loadingAnimator) {
-        super(overlay);
+        this(overlay, new BarcodeGraphicStyle(overlay));
         this.loadingAnimator = loadingAnimator;
+    }
+
+    /**
+     * Creates a graphic without an animator, to be retained and given one with {@link
+     * #setLoadingAnimator(ValueAnimator)}.
+     */
+    BarcodeLoadingGraphic(@NotNull GraphicOverlay overlay, @NotNull BarcodeGraphicStyle style) {
+        super(overlay, style);
         boxClockwiseCoordinates = new PointF[]{
-                new PointF(getBoxRect().left, getBoxRect().top),
-                new PointF(getBoxRect().right, getBoxRect().top),
-                new PointF(getBoxRect().right, getBoxRect().bottom),
-                new PointF(getBoxRect().left, getBoxRect().bottom)
+                new PointF(),
+                new PointF(),
+                new PointF(),
+                new PointF()
         };
         coordinateOffsetBits = new Point[]{
                 new Point(1, 0),
@@ -37,20 +48,36 @@ public final class BarcodeLoadingGraphic extends BarcodeGraphicBase {
         lastPathPoint = new PointF();
     }
 
+    /**
+     * Sets the animator driving the path, on the main thread.
+     */
+    void setLoadingAnimator(@NotNull ValueAnimator loadingAnimator) {
+        this.loadingAnimator = loadingAnimator;
+    }
+
     public void draw(@NotNull Canvas canvas) {
         super.draw(canvas);
+        if (loadingAnimator == null) {
+            return;
+        }
 
-        float boxPerimeter = (getBoxRect().width() + getBoxRect().height()) * 2;
-        Path path = new Path();
+        // The box follows the overlay size, so its corners are taken afresh.
+        RectF box = getBoxRect();
+        boxClockwiseCoordinates[0].set(box.left, box.top);
+        boxClockwiseCoordinates[1].set(box.right, box.top);
+        boxClockwiseCoordinates[2].set(box.right, box.bottom);
+        boxClockwiseCoordinates[3].set(box.left, box.bottom);
+        float boxPerimeter = (box.width() + box.height()) * 2;
+        Path path = resetPath();
         // The distance between the box's left-top corner and the starting point of white colored path.
         float offsetLen = boxPerimeter * ((float) loadingAnimator.getAnimatedValue()) % boxPerimeter;
         int i = 0;
         while (i < 4) {
             float edgeLen;
             if (i % 2 == 0)
-                edgeLen = getBoxRect().width();
+                edgeLen = box.width();
             else
-                edgeLen = getBoxRect().height();
+                edgeLen = box.height();
             if (offsetLen <= edgeLen) {
                 lastPathPoint.x =
                         boxClockwiseCoordinates[i].x + coordinateOffsetBits[i].x * offsetLen;
@@ -24,10 +24,16 @@ public final class BarcodeReticleGraphic extends BarcodeGraphicBase {
     private final int rippleStrokeWidth;
     private final int rippleAlpha;
     private final CameraReticleAnimator animator;
+    private final RectF rippleRect = new RectF();
 
     public BarcodeReticleGraphic(@NotNull GraphicOverlay overlay,
                                  @NotNull CameraReticleAnimator animator) {
-        super(overlay);
+        this(overlay, new BarcodeGraphicStyle(overlay), animator);
+    }
+
+    BarcodeReticleGraphic(@NotNull GraphicOverlay overlay, @NotNull BarcodeGraphicStyle style,
+                          @NotNull CameraReticleAnimator animator) {
+        super(overlay, style);
         this.animator = animator;
         Resources resources = overlay.getResources();
         ripplePaint = new Paint();
@@ -46,11 +52,12 @@ public final class BarcodeReticleGraphic extends BarcodeGraphicBase {
         ripplePaint.setAlpha((int) (rippleAlpha * animator.getRippleAlphaScale()));
         ripplePaint.setStrokeWidth(rippleStrokeWidth * animator.getRippleStrokeWidthScale());
         float offset = rippleSizeOffset * animator.getRippleSizeScale();
-        RectF rippleRect = new RectF(
-                getBoxRect().left - offset,
-                getBoxRect().top - offset,
-                getBoxRect().right + offset,
-                getBoxRect().bottom + offset
+        RectF boxRect = getBoxRect();
+        rippleRect.set(
+                boxRect.left - offset,
+                boxRect.top - offset,
+                boxRect.right + offset,
+                boxRect.bottom + offset
         );
         canvas.drawRoundRect(rippleRect, getBoxCornerRadius(),
                 getBoxCornerRadius(), ripplePaint);
@@ -16,17 +16,40 @@
 
 package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
 
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getBarcodeReticleBox;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getConsensusRequiredReads;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getConsensusWindowFrames;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getCropWideningMisses;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getDetectionCascadeLevels;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getDetectionHeight;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getDetectionWidth;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getDuplicateTimeoutMillis;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getMaxRememberedValues;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getPipelineDepth;
 import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getProgressToMeetBarcodeSizeRequirement;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.getTrackingMaxMisses;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldSkipUnchangedFrames;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldCropToReticle;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldAcceptCheckedFormatsAtOnce;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldDropPoorFrames;
 import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldDelayLoadingBarcodeResult;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldLocalizeBarcodes;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldScanContinuously;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldScanMultipleBarcodes;
+import static com.github.hachimann.mlkit_barcode_scanning.PreferenceUtils.shouldUseFastPathDecoding;
 
 import android.animation.ValueAnimator;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.github.hachimann.mlkit_barcode_scanning.camera.CameraReticleAnimator;
+import com.github.hachimann.mlkit_barcode_scanning.camera.Frame;
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameMetadata;
 import com.github.hachimann.mlkit_barcode_scanning.camera.FrameProcessorBase;
 import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
 import com.github.hachimann.mlkit_barcode_scanning.camera.WorkflowModel;
@@ -37,6 +60,9 @@ import com.google.mlkit.vision.barcode.BarcodeScanning;
 import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.common.InputImage;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -46,83 +72,731 @@ public class BarcodeScannerProcessor extends FrameProcessorBase<List<Barcode>> {
 
     private static final String TAG = "BarcodeProcessor";
 
-    private final BarcodeScanner barcodeScanner;
+    /**
+     * Smallest module, in pixels of the detected frame, that is read reliably. Barcodes with
+     * smaller modules are detected again at a higher resolution when the cascade is on.
+     */
+    private static final float MIN_MODULE_SIZE = 2f;
+
+    // Rough module counts across a barcode: an EAN-13 symbol and a small 2D symbol.
+    private static final int LINEAR_MODULES = 95;
+    private static final int MATRIX_MODULES = 25;
+
+    // What the main thread shows for the latest results.
+    private static final int SHOW_RETICLE = 0;
+    private static final int SHOW_CONFIRMING = 1;
+    private static final int SHOW_CONTINUOUS = 2;
+    private static final int SHOW_LOADING = 3;
+    private static final int SHOW_DETECTED = 4;
+    private static final int SHOW_ALL_BARCODES = 5;
+
+    // One scanner client per pipeline slot, so frames in flight don't queue behind each other.
+    private final BarcodeScanner[] barcodeScanners;
     private final CameraReticleAnimator cameraReticleAnimator;
     private final WorkflowModel workflowModel;
+    private final GraphicOverlay graphicOverlay;
+
+    // The UI update for the latest results, filled in on the result thread and applied on the main
+    // thread. While one is waiting to be applied, newer results replace it, so a busy main thread
+    // skips overlays instead of holding detection back. Delivered barcodes are queued, not
+    // replaced.
+    private final Object updateLock = new Object();
+    @GuardedBy("updateLock")
+    private int updateKind;
+    @GuardedBy("updateLock")
+    @Nullable
+    private Barcode updateBarcode;
+    @GuardedBy("updateLock")
+    @Nullable
+    private FrameMetadata updateFrameMetadata;
+    @GuardedBy("updateLock")
+    @Nullable
+    private List<TrackedBarcode> updateBarcodes;
+    @GuardedBy("updateLock")
+    @Nullable
+    private DecodedBarcode updateFastPathBarcode;
+    @GuardedBy("updateLock")
+    private ArrayList<Barcode> updateDeliveries = new ArrayList<>();
+    @GuardedBy("updateLock")
+    private ArrayList<DecodedBarcode> updateFastPathDeliveries = new ArrayList<>();
+    @GuardedBy("updateLock")
+    private boolean updatePosted;
+    private ArrayList<Barcode> appliedDeliveries = new ArrayList<>();
+    private ArrayList<DecodedBarcode> appliedFastPathDeliveries = new ArrayList<>();
+    private final Runnable applyUpdate = this::applyUpdate;
+
+    // Closed on the result thread once a barcode is handed over outside continuous mode; later
+    // results are ignored until the camera goes live again.
+    private final SingleShotGate singleShotGate = new SingleShotGate();
+
+    @Nullable
+    private final ScanlineDecoder scanlineDecoder;
+    private final int[] decodedBounds = new int[4];
+
+    @Nullable
+    private final BarcodeTracker tracker;
+    private final float[] predictedRegion = new float[4];
+
+    // Scratch geometry, so steady-state frames don't allocate. The region of interest is only
+    // touched by the preprocessing stage, the view box only by the result thread.
+    private final RectF regionOfInterest = new RectF();
+    private final RectF viewBox = new RectF();
+
+    @Nullable
+    private final BarcodeConsensus consensus;
+    // The live session the reads held by the consensus belong to. Only used on the result thread.
+    private int consensusSession = -1;
+
+    // Set in continuous mode, where the preview keeps running after a barcode is delivered.
+    @Nullable
+    private final DuplicateFilter duplicateFilter;
+
+    @Nullable
+    private InventoryCounter inventoryCounter;
+
+    // Set in multi-barcode mode, where every barcode in the frame is returned and drawn.
+    @Nullable
+    private final BarcodeIdAssigner idAssigner;
+    @Nullable
+    private final MultiBarcodeGraphic multiBarcodeGraphic;
+    private boolean deliveredBarcodes;
+
+    // Graphics of the single-barcode modes. They are created once with shared paints, kept on the
+    // overlay and switched by visibility. Only touched on the main thread.
+    private final BarcodeReticleGraphic reticleGraphic;
+    private final BarcodeConfirmingGraphic confirmingGraphic;
+    private final BarcodeLoadingGraphic loadingGraphic;
+    // The graphics this processor keeps on the overlay, published together.
+    private final GraphicOverlay.Graphic[] retainedGraphics;
 
     public BarcodeScannerProcessor(GraphicOverlay graphicOverlay, WorkflowModel workflowModel) {
         this.cameraReticleAnimator = new CameraReticleAnimator(graphicOverlay);
         this.workflowModel = workflowModel;
-        barcodeScanner = BarcodeScanning.getClient();
+        this.graphicOverlay = graphicOverlay;
+        int pipelineDepth = Math.max(1, getPipelineDepth());
+        barcodeScanners = new BarcodeScanner[pipelineDepth];
+        for (int i = 0; i < pipelineDepth; i++) {
+            barcodeScanners[i] = BarcodeScanning.getClient();
+        }
+        setPipelineDepth(pipelineDepth);
+        setDetectionResolution(getDetectionWidth(), getDetectionHeight());
+        setDetectionCascade(getDetectionCascadeLevels());
+        setSkipUnchangedFrames(shouldSkipUnchangedFrames());
+        setDropPoorFrames(shouldDropPoorFrames());
+        setLocalizeBarcodes(shouldLocalizeBarcodes());
+        // The scanline only reads the barcode under the centre, so it can't stand in for the
+        // detector when every barcode in the frame is wanted.
+        scanlineDecoder = shouldUseFastPathDecoding() && !shouldScanMultipleBarcodes()
+                ? new ScanlineDecoder() : null;
+        tracker = getTrackingMaxMisses() > 0 ? new BarcodeTracker(getTrackingMaxMisses()) : null;
+        consensus = getConsensusRequiredReads() > 0
+                ? new BarcodeConsensus(getConsensusRequiredReads(), getConsensusWindowFrames(),
+                shouldAcceptCheckedFormatsAtOnce())
+                : null;
+        duplicateFilter = shouldScanContinuously()
+                ? new DuplicateFilter(getDuplicateTimeoutMillis(), getMaxRememberedValues())
+                : null;
+        idAssigner = shouldScanMultipleBarcodes() ? new BarcodeIdAssigner() : null;
+        multiBarcodeGraphic = shouldScanMultipleBarcodes()
+                ? new MultiBarcodeGraphic(graphicOverlay)
+                : null;
+        BarcodeGraphicStyle graphicStyle = new BarcodeGraphicStyle(graphicOverlay);
+        reticleGraphic = new BarcodeReticleGraphic(graphicOverlay, graphicStyle,
+                cameraReticleAnimator);
+        confirmingGraphic = new BarcodeConfirmingGraphic(graphicOverlay, graphicStyle);
+        loadingGraphic = new BarcodeLoadingGraphic(graphicOverlay, graphicStyle);
+        retainedGraphics = multiBarcodeGraphic != null
+                ? new GraphicOverlay.Graphic[]{multiBarcodeGraphic}
+                : new GraphicOverlay.Graphic[]{reticleGraphic, confirmingGraphic, loadingGraphic};
+        if (getCropWideningMisses() > 0) {
+            setAdaptiveRegionOfInterest(getCropWideningMisses());
+        }
+    }
+
+    /**
+     * Only barcodes under the centre of the reticle are accepted, so with cropping enabled nothing
+     * outside the reticle box is passed to the detector. While barcodes are tracked, detection
+     * only looks where they are expected next.
+     */
+    @Nullable
+    @Override
+    protected RectF getRegionOfInterest(@NonNull GraphicOverlay graphicOverlay) {
+        if (tracker != null && tracker.predictRegion(predictedRegion)) {
+            regionOfInterest.set(predictedRegion[0], predictedRegion[1], predictedRegion[2],
+                    predictedRegion[3]);
+            return regionOfInterest;
+        }
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        if (!shouldCropToReticle() || width == 0 || height == 0) {
+            return null;
+        }
+        RectF box = regionOfInterest;
+        getBarcodeReticleBox(graphicOverlay, box);
+        // The overlay stretches the upright preview over the whole view, so fractions of the view
+        // are fractions of the preview as well.
+        box.set(box.left / width, box.top / height, box.right / width, box.bottom / height);
+        return box;
+    }
+
+    @Nullable
+    @Override
+    protected Rect getHitBoundingBox(@NonNull List<Barcode> barcodes) {
+        if (barcodes instanceof FastPathResults) {
+            return ((FastPathResults) barcodes).boundingBox;
+        }
+        for (Barcode barcode : barcodes) {
+            if (barcode.getBoundingBox() != null) {
+                return barcode.getBoundingBox();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads EAN-13, UPC-A and Code 128 barcodes through the centre of the frame, where the reticle
+     * is, without the detector.
+     */
+    @Nullable
+    @Override
+    protected List<Barcode> decodeWithoutDetector(@NonNull Frame frame) {
+        if (scanlineDecoder == null || !scanlineDecoder.decode(frame)) {
+            return null;
+        }
+        scanlineDecoder.getBounds(decodedBounds);
+        return new FastPathResults(new DecodedBarcode(scanlineDecoder.getRawValue(),
+                scanlineDecoder.getFormat(), decodedBounds[0], decodedBounds[1], decodedBounds[2],
+                decodedBounds[3], null));
+    }
+
+    /**
+     * The results of a frame read by the scanline decoder. ML Kit barcodes can only be made by ML
+     * Kit, so the barcode read is carried alongside an empty list instead.
+     */
+    private static final class FastPathResults extends AbstractList<Barcode> {
+        final DecodedBarcode barcode;
+        final Rect boundingBox;
+
+        FastPathResults(@NonNull DecodedBarcode barcode) {
+            this.barcode = barcode;
+            boundingBox = new Rect(barcode.getLeft(), barcode.getTop(), barcode.getRight(),
+                    barcode.getBottom());
+        }
+
+        @Override
+        public Barcode get(int index) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of frames read without the detector.
+     */
+    public long getFastPathDecodeCount() {
+        return scanlineDecoder != null ? scanlineDecoder.getDecodedFrameCount() : 0;
+    }
+
+    @Nullable
+    @Override
+    protected List<Barcode> getEmptyResults() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    protected boolean hasResults(@NonNull List<Barcode> barcodes) {
+        return !barcodes.isEmpty() || barcodes instanceof FastPathResults;
+    }
+
+    @Override
+    protected boolean isResolutionSufficient(@NonNull List<Barcode> barcodes,
+                                             @NonNull FrameMetadata frameMetadata) {
+        for (Barcode barcode : barcodes) {
+            if (estimateModuleSize(barcode) >= MIN_MODULE_SIZE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float estimateModuleSize(Barcode barcode) {
+        Rect box = barcode.getBoundingBox();
+        if (box == null) {
+            return 0f;
+        }
+        switch (barcode.getFormat()) {
+            case Barcode.FORMAT_QR_CODE:
+            case Barcode.FORMAT_DATA_MATRIX:
+            case Barcode.FORMAT_AZTEC:
+                return (float) Math.min(box.width(), box.height()) / MATRIX_MODULES;
+            default:
+                // Bars may run either way in the upright frame.
+                return (float) Math.max(box.width(), box.height()) / LINEAR_MODULES;
+        }
     }
 
     @Override
     protected Task<List<Barcode>> detectInImage(InputImage image) {
-        return barcodeScanner.process(image);
+        return barcodeScanners[0].process(image);
+    }
+
+    @Override
+    protected Task<List<Barcode>> detectInImage(InputImage image, int slot) {
+        return barcodeScanners[slot].process(image);
     }
 
     @Override
     protected void onSuccess(
-            @NonNull List<Barcode> barcodes, @NonNull GraphicOverlay graphicOverlay) {
+            @NonNull List<Barcode> barcodes, @NonNull FrameMetadata frameMetadata,
+            @NonNull GraphicOverlay graphicOverlay) {
 
-        if (!workflowModel.isCameraLive()) return;
+        // Every read is counted, also after a single-shot scan handed its barcode over.
+        countInventory(barcodes, frameMetadata, graphicOverlay);
+
+        int liveSession = workflowModel.getLiveSession();
+        if (!singleShotGate.isOpen(liveSession) || !workflowModel.isCameraLive()) return;
+
+        if (consensus != null && liveSession != consensusSession) {
+            // Reads of an earlier session, e.g. from before the camera was paused, don't count
+            // towards this one.
+            consensus.reset();
+            consensusSession = liveSession;
+        }
+
+        updateTracks(barcodes, frameMetadata, graphicOverlay);
+
+        if (barcodes instanceof FastPathResults) {
+            onFastPathBarcode(((FastPathResults) barcodes).barcode, liveSession);
+            return;
+        }
+
+        if (idAssigner != null) {
+            showAllBarcodes(barcodes, frameMetadata, graphicOverlay);
+            return;
+        }
+
+        Barcode barcodeInCenter = findBarcodeInCenter(barcodes, frameMetadata, graphicOverlay);
+
+        boolean agreed = consensus == null || consensus.onFrame(
+                barcodeInCenter != null ? barcodeInCenter.getRawValue() : null,
+                barcodeInCenter != null ? barcodeInCenter.getFormat() : Barcode.FORMAT_UNKNOWN,
+                System.nanoTime());
+
+        if (barcodeInCenter == null && tracker != null && tracker.isCoasting(0.5f, 0.5f)) {
+            // A tracked barcode was missed for a frame; keep its overlay where it is.
+            return;
+        }
 
-        Barcode barcodeInCenter = barcodes.stream().filter(barcode -> {
-            Rect boundingBox = barcode.getBoundingBox();
-            if (boundingBox == null) return false;
-            RectF box = graphicOverlay.translateRect(boundingBox);
-            return box.contains(
-                    graphicOverlay.getWidth() / 2f,
-                    graphicOverlay.getHeight() / 2f
-            );
-        }).findFirst().orElse(null);
-
-        graphicOverlay.clear();
         if (barcodeInCenter == null) {
-            cameraReticleAnimator.start();
-            graphicOverlay.add(new BarcodeReticleGraphic(graphicOverlay,
-                    cameraReticleAnimator));
-            workflowModel.setWorkflowState(WorkflowState.DETECTING);
+            postUpdate(SHOW_RETICLE, null, null, null, null);
+            return;
+        }
+        // Barcode size in the camera view is sufficient.
+        float sizeProgress = getProgressToMeetBarcodeSizeRequirement(graphicOverlay,
+                barcodeInCenter, frameMetadata);
+        if (sizeProgress < 1 || !agreed) {
+            // Barcode in the camera view is too small, so prompt user to move camera closer,
+            // or not enough frames agree on its value yet.
+            postUpdate(SHOW_CONFIRMING, barcodeInCenter, frameMetadata, null, null);
+        } else if (duplicateFilter != null) {
+            // Values seen again before their time-to-live runs out aren't published again.
+            String rawValue = barcodeInCenter.getRawValue();
+            boolean deliver = rawValue != null
+                    && duplicateFilter.accept(rawValue, System.nanoTime());
+            postUpdate(SHOW_CONTINUOUS, barcodeInCenter, frameMetadata,
+                    deliver ? barcodeInCenter : null, null);
+        } else {
+            singleShotGate.close(liveSession);
+            resetConsensus();
+            postUpdate(shouldDelayLoadingBarcodeResult() ? SHOW_LOADING : SHOW_DETECTED,
+                    barcodeInCenter, frameMetadata, null, null);
+        }
+    }
+
+    /**
+     * Handles a barcode read by the scanline decoder, which always reads through the centre of the
+     * frame and only succeeds on a barcode large enough to decode.
+     */
+    private void onFastPathBarcode(DecodedBarcode barcode, int liveSession) {
+        boolean agreed = consensus == null || consensus.onFrame(barcode.getRawValue(),
+                barcode.getFormat(), System.nanoTime());
+        if (!agreed) {
+            postFastPathUpdate(SHOW_CONFIRMING, null, null);
+        } else if (duplicateFilter != null) {
+            boolean deliver = duplicateFilter.accept(barcode.getRawValue(), System.nanoTime());
+            postFastPathUpdate(SHOW_CONTINUOUS, null, deliver ? barcode : null);
         } else {
-            cameraReticleAnimator.cancel();
-            // Barcode size in the camera view is sufficient.
-            Float sizeProgress = getProgressToMeetBarcodeSizeRequirement(graphicOverlay,
-                    barcodeInCenter);
-            if (sizeProgress < 1) {
-                // Barcode in the camera view is too small, so prompt user to move camera closer.
-                graphicOverlay.add(new BarcodeConfirmingGraphic(graphicOverlay,
-                        barcodeInCenter));
+            singleShotGate.close(liveSession);
+            resetConsensus();
+            postFastPathUpdate(shouldDelayLoadingBarcodeResult() ? SHOW_LOADING : SHOW_DETECTED,
+                    barcode, null);
+        }
+    }
+
+    /**
+     * Forgets the reads of the value just handed over, so the next scan needs reads of its own.
+     */
+    private void resetConsensus() {
+        if (consensus != null) {
+            consensus.reset();
+        }
+    }
+
+    @Nullable
+    private Barcode findBarcodeInCenter(List<Barcode> barcodes, FrameMetadata frameMetadata,
+                                        GraphicOverlay graphicOverlay) {
+        float centerX = graphicOverlay.getWidth() / 2f;
+        float centerY = graphicOverlay.getHeight() / 2f;
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            Rect boundingBox = barcode.getBoundingBox();
+            if (boundingBox == null) continue;
+            graphicOverlay.translateRect(boundingBox, frameMetadata, viewBox);
+            if (viewBox.contains(centerX, centerY)) {
+                return barcode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the UI update waiting for the main thread, or posts a new one.
+     *
+     * @param delivery a barcode to publish in continuous mode, queued behind earlier ones
+     * @param trackedBarcodes the list to publish in multi-barcode mode, or null to keep the one
+     *                        waiting, if any
+     */
+    private void postUpdate(int kind, @Nullable Barcode barcode,
+                            @Nullable FrameMetadata frameMetadata, @Nullable Barcode delivery,
+                            @Nullable List<TrackedBarcode> trackedBarcodes) {
+        synchronized (updateLock) {
+            updateKind = kind;
+            updateBarcode = barcode;
+            updateFastPathBarcode = null;
+            updateFrameMetadata = frameMetadata;
+            if (trackedBarcodes != null) {
+                updateBarcodes = trackedBarcodes;
+            }
+            if (delivery != null) {
+                updateDeliveries.add(delivery);
+            }
+            if (updatePosted) {
+                return;
+            }
+            updatePosted = true;
+        }
+        runOnMainThread(applyUpdate);
+    }
+
+    /**
+     * Like {@link #postUpdate}, for a barcode read by the scanline decoder.
+     *
+     * @param barcode the barcode to publish once detected or loaded, if any
+     * @param delivery a barcode to publish in continuous mode, queued behind earlier ones
+     */
+    private void postFastPathUpdate(int kind, @Nullable DecodedBarcode barcode,
+                                    @Nullable DecodedBarcode delivery) {
+        synchronized (updateLock) {
+            updateKind = kind;
+            updateBarcode = null;
+            updateFastPathBarcode = barcode;
+            updateFrameMetadata = null;
+            if (delivery != null) {
+                updateFastPathDeliveries.add(delivery);
+            }
+            if (updatePosted) {
+                return;
+            }
+            updatePosted = true;
+        }
+        runOnMainThread(applyUpdate);
+    }
+
+    /**
+     * Shows the latest UI update on the main thread.
+     */
+    private void applyUpdate() {
+        // Posted without a wrapper, so it may still run once the processor is stopped.
+        if (isStopped()) {
+            return;
+        }
+        int kind;
+        Barcode barcode;
+        FrameMetadata frameMetadata;
+        List<TrackedBarcode> trackedBarcodes;
+        DecodedBarcode fastPathBarcode;
+        ArrayList<Barcode> deliveries;
+        ArrayList<DecodedBarcode> fastPathDeliveries;
+        synchronized (updateLock) {
+            kind = updateKind;
+            barcode = updateBarcode;
+            fastPathBarcode = updateFastPathBarcode;
+            frameMetadata = updateFrameMetadata;
+            trackedBarcodes = updateBarcodes;
+            updateBarcode = null;
+            updateFastPathBarcode = null;
+            updateFrameMetadata = null;
+            updateBarcodes = null;
+            deliveries = updateDeliveries;
+            updateDeliveries = appliedDeliveries;
+            appliedDeliveries = deliveries;
+            fastPathDeliveries = updateFastPathDeliveries;
+            updateFastPathDeliveries = appliedFastPathDeliveries;
+            appliedFastPathDeliveries = fastPathDeliveries;
+            updatePosted = false;
+        }
+        if (!workflowModel.isCameraLive()) {
+            deliveries.clear();
+            fastPathDeliveries.clear();
+            return;
+        }
+
+        attachGraphics();
+        switch (kind) {
+            case SHOW_RETICLE:
+                cameraReticleAnimator.start();
+                showOnly(reticleGraphic);
+                workflowModel.setWorkflowState(WorkflowState.DETECTING);
+                break;
+            case SHOW_CONFIRMING:
+                cameraReticleAnimator.cancel();
+                confirmingGraphic.update(barcode, frameMetadata);
+                showOnly(confirmingGraphic);
                 workflowModel.setWorkflowState(WorkflowState.CONFIRMING);
-            } else {
-                // Barcode size in the camera view is sufficient.
-                if (shouldDelayLoadingBarcodeResult()) {
-                    ValueAnimator loadingAnimator = createLoadingAnimator(graphicOverlay,
-                            barcodeInCenter);
-                    loadingAnimator.start();
-                    graphicOverlay.add(new BarcodeLoadingGraphic(graphicOverlay,
-                            loadingAnimator));
-                    workflowModel.setWorkflowState(WorkflowState.SEARCHING);
-                } else {
-                    workflowModel.setWorkflowState(WorkflowState.DETECTED);
-                    workflowModel.getDetectedBarcode().setValue(barcodeInCenter);
+                break;
+            case SHOW_CONTINUOUS:
+                // Publishes without leaving the detecting state, so the preview keeps running.
+                cameraReticleAnimator.cancel();
+                confirmingGraphic.update(barcode, frameMetadata);
+                showOnly(confirmingGraphic);
+                workflowModel.setWorkflowState(WorkflowState.DETECTING);
+                break;
+            case SHOW_LOADING:
+                cameraReticleAnimator.cancel();
+                ValueAnimator loadingAnimator = createLoadingAnimator(graphicOverlay, barcode,
+                        fastPathBarcode);
+                loadingAnimator.start();
+                loadingGraphic.setLoadingAnimator(loadingAnimator);
+                showOnly(loadingGraphic);
+                workflowModel.setWorkflowState(WorkflowState.SEARCHING);
+                break;
+            case SHOW_DETECTED:
+                cameraReticleAnimator.cancel();
+                showOnly(null);
+                workflowModel.setWorkflowState(WorkflowState.DETECTED);
+                publishDetected(barcode, fastPathBarcode);
+                break;
+            case SHOW_ALL_BARCODES:
+                workflowModel.setWorkflowState(WorkflowState.DETECTING);
+                if (trackedBarcodes != null) {
+                    workflowModel.getDetectedBarcodes().setValue(trackedBarcodes);
                 }
-            }
+                break;
+        }
+        for (int i = 0; i < deliveries.size(); i++) {
+            workflowModel.getDetectedBarcode().setValue(deliveries.get(i));
         }
+        deliveries.clear();
+        for (int i = 0; i < fastPathDeliveries.size(); i++) {
+            workflowModel.getFastPathBarcode().setValue(fastPathDeliveries.get(i));
+        }
+        fastPathDeliveries.clear();
         graphicOverlay.invalidate();
     }
 
+    /**
+     * Publishes the barcode a single-shot scan ended with, read either by ML Kit or by the
+     * scanline decoder.
+     */
+    private void publishDetected(@Nullable Barcode barcode,
+                                 @Nullable DecodedBarcode fastPathBarcode) {
+        if (fastPathBarcode != null) {
+            workflowModel.getFastPathBarcode().setValue(fastPathBarcode);
+        } else {
+            workflowModel.getDetectedBarcode().setValue(barcode);
+        }
+    }
+
+    /**
+     * Puts the retained graphics of the mode on the overlay in one publish, unless they are still
+     * there. The overlay is cleared when the camera starts or stops, which takes them off.
+     */
+    private void attachGraphics() {
+        if (!graphicOverlay.contains(retainedGraphics[0])) {
+            graphicOverlay.set(retainedGraphics);
+        }
+    }
+
+    /**
+     * Shows the given graphic of the single-barcode modes and hides the others.
+     */
+    private void showOnly(@Nullable GraphicOverlay.Graphic graphic) {
+        reticleGraphic.setVisible(graphic == reticleGraphic);
+        confirmingGraphic.setVisible(graphic == confirmingGraphic);
+        loadingGraphic.setVisible(graphic == loadingGraphic);
+    }
+
+    /**
+     * Returns the number of repeated reads suppressed in continuous mode.
+     */
+    public long getSuppressedDuplicateCount() {
+        return duplicateFilter != null ? duplicateFilter.getSuppressedCount() : 0;
+    }
+
+    private void updateTracks(List<Barcode> barcodes, FrameMetadata frameMetadata,
+                              GraphicOverlay graphicOverlay) {
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        if (tracker == null || width == 0 || height == 0) {
+            return;
+        }
+        tracker.beginUpdate();
+        if (barcodes instanceof FastPathResults) {
+            FastPathResults hit = (FastPathResults) barcodes;
+            observeTrack(hit.barcode.getRawValue(), hit.barcode.getFormat(), hit.boundingBox,
+                    frameMetadata, graphicOverlay);
+        }
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            Rect boundingBox = barcode.getBoundingBox();
+            String rawValue = barcode.getRawValue();
+            if (boundingBox == null || rawValue == null) {
+                continue;
+            }
+            observeTrack(rawValue, barcode.getFormat(), boundingBox, frameMetadata,
+                    graphicOverlay);
+        }
+        tracker.endUpdate();
+    }
+
+    private void observeTrack(String rawValue, int format, Rect boundingBox,
+                              FrameMetadata frameMetadata, GraphicOverlay graphicOverlay) {
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        RectF box = viewBox;
+        graphicOverlay.translateRect(boundingBox, frameMetadata, box);
+        tracker.observe(rawValue, format, box.left / width, box.top / height,
+                box.right / width, box.bottom / height);
+    }
+
+    /**
+     * Draws and publishes every barcode in the frame with its ID. The preview keeps running; an
+     * empty list is published once when the last barcode leaves the view.
+     */
+    private void showAllBarcodes(List<Barcode> barcodes, FrameMetadata frameMetadata,
+                                 GraphicOverlay graphicOverlay) {
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        // Created for frames with barcodes only, as the list is handed over to the app.
+        List<TrackedBarcode> trackedBarcodes = null;
+        idAssigner.beginUpdate();
+        multiBarcodeGraphic.beginUpdate();
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            Rect boundingBox = barcode.getBoundingBox();
+            String rawValue = barcode.getRawValue();
+            if (boundingBox == null || rawValue == null || width == 0 || height == 0) {
+                continue;
+            }
+            RectF box = viewBox;
+            graphicOverlay.translateRect(boundingBox, frameMetadata, box);
+            int id = idAssigner.assign(rawValue, barcode.getFormat(), box.left / width,
+                    box.top / height, box.right / width, box.bottom / height);
+            multiBarcodeGraphic.addBox(id, box.left, box.top, box.right, box.bottom);
+            if (trackedBarcodes == null) {
+                trackedBarcodes = new ArrayList<>(barcodes.size());
+            }
+            trackedBarcodes.add(new TrackedBarcode(id, barcode));
+        }
+        idAssigner.endUpdate();
+        multiBarcodeGraphic.endUpdate();
+
+        List<TrackedBarcode> published = null;
+        if (trackedBarcodes != null) {
+            published = Collections.unmodifiableList(trackedBarcodes);
+        } else if (deliveredBarcodes) {
+            published = Collections.emptyList();
+        }
+        deliveredBarcodes = trackedBarcodes != null;
+        postUpdate(SHOW_ALL_BARCODES, null, null, null, published);
+    }
+
+    /**
+     * Sets the counter that every barcode read is recorded in, or null to stop counting.
+     */
+    public void setInventoryCounter(@Nullable InventoryCounter inventoryCounter) {
+        this.inventoryCounter = inventoryCounter;
+    }
+
+    private void countInventory(List<Barcode> barcodes, FrameMetadata frameMetadata,
+                                GraphicOverlay graphicOverlay) {
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        if (inventoryCounter == null || width == 0 || height == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (barcodes instanceof FastPathResults) {
+            FastPathResults hit = (FastPathResults) barcodes;
+            recordInventory(hit.barcode.getRawValue(), hit.barcode.getFormat(), hit.boundingBox,
+                    frameMetadata, graphicOverlay, now);
+        }
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            Rect boundingBox = barcode.getBoundingBox();
+            String rawValue = barcode.getRawValue();
+            if (boundingBox == null || rawValue == null) {
+                continue;
+            }
+            recordInventory(rawValue, barcode.getFormat(), boundingBox, frameMetadata,
+                    graphicOverlay, now);
+        }
+    }
+
+    private void recordInventory(String rawValue, int format, Rect boundingBox,
+                                 FrameMetadata frameMetadata, GraphicOverlay graphicOverlay,
+                                 long nowNanos) {
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        RectF box = viewBox;
+        graphicOverlay.translateRect(boundingBox, frameMetadata, box);
+        inventoryCounter.record(rawValue, format, box.left / width, box.top / height,
+                box.right / width, box.bottom / height, nowNanos);
+    }
+
+    /**
+     * Returns the average time from the first agreeing read to accepting a value, or 0 if no
+     * consensus is required or nothing has been accepted yet.
+     */
+    public float getAverageAcceptanceLatencyMillis() {
+        return consensus != null ? consensus.getAverageLatencyMillis() : 0f;
+    }
+
+    /**
+     * Returns the number of barcodes currently tracked, or 0 if tracking is off.
+     */
+    public int getTrackedBarcodeCount() {
+        return tracker != null ? tracker.getTrackCount() : 0;
+    }
+
     private ValueAnimator createLoadingAnimator(
             GraphicOverlay graphicOverlay,
-            Barcode barcode
+            @Nullable Barcode barcode,
+            @Nullable DecodedBarcode fastPathBarcode
     ) {
         float endProgress = 1.1f;
         ValueAnimator valueAnimator = ValueAnimator.ofFloat(0f, endProgress);
         valueAnimator.setDuration(2000);
         valueAnimator.addUpdateListener(valueAnimator1 -> {
             if ((float) valueAnimator1.getAnimatedValue() >= endProgress) {
-                graphicOverlay.clear();
+                showOnly(null);
+                graphicOverlay.invalidate();
                 workflowModel.setWorkflowState(WorkflowModel.WorkflowState.SEARCHED);
-                workflowModel.getDetectedBarcode().setValue(barcode);
+                publishDetected(barcode, fastPathBarcode);
             } else {
                 graphicOverlay.invalidate();
             }
@@ -138,6 +812,8 @@ public class BarcodeScannerProcessor extends FrameProcessorBase<List<Barcode>> {
     @Override
     public void stop() {
         super.stop();
-        barcodeScanner.close();
+        for (BarcodeScanner barcodeScanner : barcodeScanners) {
+            barcodeScanner.close();
+        }
     }
 }
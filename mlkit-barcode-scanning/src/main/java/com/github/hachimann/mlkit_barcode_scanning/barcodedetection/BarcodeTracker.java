@@ -0,0 +1,268 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Follows barcodes from one detection to the next, so the next detection can be limited to where
+ * they are expected and their overlay can stay in place through a missed frame.
+ *
+ * <p>Every barcode gets a track holding its raw value, bounding box, velocity and age. Boxes are
+ * fractions of the upright preview, stored as {left, top, right, bottom}, and velocities are in
+ * the same units per detection. A track that isn't seen in a detection coasts along its velocity
+ * and expires after the configured number of misses. Tracks are pooled, so following barcodes
+ * allocates nothing.
+ */
+final class BarcodeTracker {
+
+    static final int MAX_TRACKS = 8;
+
+    /**
+     * Detections a track has to be seen in before it is trusted to predict the next region.
+     */
+    static final int CONFIDENT_AGE = 3;
+
+    /**
+     * Share of the new displacement blended into the velocity.
+     */
+    private static final float VELOCITY_GAIN = 0.5f;
+
+    /**
+     * Margin added around a predicted box on every side, as a share of the box size.
+     */
+    private static final float PREDICTION_MARGIN = 0.5f;
+
+    static final class Track {
+        private String rawValue;
+        private int format;
+        private final float[] box = new float[4];
+        private float velocityX;
+        private float velocityY;
+        private int age;
+        private int misses;
+        private boolean seen;
+
+        String getRawValue() {
+            return rawValue;
+        }
+
+        int getFormat() {
+            return format;
+        }
+
+        float getLeft() {
+            return box[0];
+        }
+
+        float getTop() {
+            return box[1];
+        }
+
+        float getRight() {
+            return box[2];
+        }
+
+        float getBottom() {
+            return box[3];
+        }
+
+        float getVelocityX() {
+            return velocityX;
+        }
+
+        float getVelocityY() {
+            return velocityY;
+        }
+
+        /**
+         * Returns the number of detections the barcode was seen in.
+         */
+        int getAge() {
+            return age;
+        }
+
+        /**
+         * Returns the number of detections in a row the barcode was missing from.
+         */
+        int getMisses() {
+            return misses;
+        }
+
+        boolean isConfident() {
+            return age >= CONFIDENT_AGE;
+        }
+
+        boolean contains(float x, float y) {
+            return x >= box[0] && x <= box[2] && y >= box[1] && y <= box[3];
+        }
+    }
+
+    private final int maxMisses;
+    private final Track[] tracks = new Track[MAX_TRACKS];
+    private int trackCount;
+
+    BarcodeTracker(int maxMisses) {
+        if (maxMisses < 0) {
+            throw new IllegalArgumentException("Invalid miss count: " + maxMisses);
+        }
+        this.maxMisses = maxMisses;
+        for (int i = 0; i < MAX_TRACKS; i++) {
+            tracks[i] = new Track();
+        }
+    }
+
+    /**
+     * Starts applying the results of a detection. Call {@link #observe} for every barcode found
+     * and {@link #endUpdate()} afterwards.
+     */
+    synchronized void beginUpdate() {
+        for (int i = 0; i < trackCount; i++) {
+            tracks[i].seen = false;
+        }
+    }
+
+    /**
+     * Records a barcode found by the current detection. Barcodes are matched to tracks by value;
+     * new values get a track as long as one is free.
+     */
+    synchronized void observe(@NonNull String rawValue, int format, float left, float top,
+                              float right, float bottom) {
+        Track track = find(rawValue, format);
+        if (track == null) {
+            if (trackCount == MAX_TRACKS) {
+                return;
+            }
+            track = tracks[trackCount++];
+            track.rawValue = rawValue;
+            track.format = format;
+            track.velocityX = 0f;
+            track.velocityY = 0f;
+            track.age = 0;
+        } else if (!track.seen) {
+            // Compare centres, so a box that grows or shrinks doesn't count as motion.
+            float dx = (left + right - track.box[0] - track.box[2]) / 2;
+            float dy = (top + bottom - track.box[1] - track.box[3]) / 2;
+            // A coasting track moved the box on its own, undo that before blending.
+            dx += track.misses * track.velocityX;
+            dy += track.misses * track.velocityY;
+            int steps = track.misses + 1;
+            track.velocityX += VELOCITY_GAIN * (dx / steps - track.velocityX);
+            track.velocityY += VELOCITY_GAIN * (dy / steps - track.velocityY);
+        }
+        track.box[0] = left;
+        track.box[1] = top;
+        track.box[2] = right;
+        track.box[3] = bottom;
+        if (!track.seen) {
+            track.age++;
+        }
+        track.misses = 0;
+        track.seen = true;
+    }
+
+    /**
+     * Finishes applying a detection: tracks that weren't seen coast along their velocity and
+     * expire once they have been missing for too long.
+     */
+    synchronized void endUpdate() {
+        for (int i = 0; i < trackCount; ) {
+            Track track = tracks[i];
+            if (track.seen) {
+                i++;
+                continue;
+            }
+            if (++track.misses > maxMisses) {
+                // Swap the expired track out of the live part of the pool.
+                tracks[i] = tracks[--trackCount];
+                tracks[trackCount] = track;
+                track.rawValue = null;
+                continue;
+            }
+            track.box[0] += track.velocityX;
+            track.box[1] += track.velocityY;
+            track.box[2] += track.velocityX;
+            track.box[3] += track.velocityY;
+            i++;
+        }
+    }
+
+    /**
+     * Writes the region the confident tracks are expected in at the next detection, with a margin
+     * for changes in speed, into {@code out}.
+     *
+     * @return false if no track is confident enough to predict from
+     */
+    synchronized boolean predictRegion(@NonNull float[] out) {
+        boolean predicted = false;
+        for (int i = 0; i < trackCount; i++) {
+            Track track = tracks[i];
+            if (!track.isConfident()) {
+                continue;
+            }
+            float marginX = (track.box[2] - track.box[0]) * PREDICTION_MARGIN
+                    + Math.abs(track.velocityX);
+            float marginY = (track.box[3] - track.box[1]) * PREDICTION_MARGIN
+                    + Math.abs(track.velocityY);
+            float left = track.box[0] + track.velocityX - marginX;
+            float top = track.box[1] + track.velocityY - marginY;
+            float right = track.box[2] + track.velocityX + marginX;
+            float bottom = track.box[3] + track.velocityY + marginY;
+            if (!predicted) {
+                out[0] = left;
+                out[1] = top;
+                out[2] = right;
+                out[3] = bottom;
+                predicted = true;
+            } else {
+                out[0] = Math.min(out[0], left);
+                out[1] = Math.min(out[1], top);
+                out[2] = Math.max(out[2], right);
+                out[3] = Math.max(out[3], bottom);
+            }
+        }
+        if (predicted) {
+            out[0] = Math.max(0f, out[0]);
+            out[1] = Math.max(0f, out[1]);
+            out[2] = Math.min(1f, out[2]);
+            out[3] = Math.min(1f, out[3]);
+        }
+        return predicted && out[0] < out[2] && out[1] < out[3];
+    }
+
+    /**
+     * Returns whether a confident track that missed the last detections still covers the given
+     * point, i.e. whether its overlay should be held in place.
+     */
+    synchronized boolean isCoasting(float x, float y) {
+        for (int i = 0; i < trackCount; i++) {
+            Track track = tracks[i];
+            if (track.isConfident() && track.misses > 0 && track.contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Returns the live track at the given index. The track is only valid until the next update.
+     */
+    @NonNull
+    synchronized Track getTrack(int index) {
+        return tracks[index];
+    }
+
+    @Nullable
+    private Track find(String rawValue, int format) {
+        for (int i = 0; i < trackCount; i++) {
+            Track track = tracks[i];
+            if (track.format == format && rawValue.equals(track.rawValue)) {
+                return track;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+/**
+ * A barcode decoded from a still image, with its bounding box in pixels of the whole image.
+ */
+public final class DecodedBarcode {
+    private final String rawValue;
+    private final int format;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    @Nullable
+    private final Barcode barcode;
+
+    public DecodedBarcode(@NonNull String rawValue, int format, int left, int top, int right,
+                          int bottom, @Nullable Barcode barcode) {
+        this.rawValue = rawValue;
+        this.format = format;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.barcode = barcode;
+    }
+
+    @NonNull
+    public String getRawValue() {
+        return rawValue;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Returns the barcode as reported by the detector, or null if the detector isn't ML Kit. For a
+     * barcode found in a tile, the coordinates of this object are relative to the tile.
+     */
+    @Nullable
+    public Barcode getBarcode() {
+        return barcode;
+    }
+
+    /**
+     * Returns a copy of this barcode moved by the given offset.
+     */
+    @NonNull
+    DecodedBarcode offset(int dx, int dy) {
+        return new DecodedBarcode(rawValue, format, left + dx, top + dy, right + dx, bottom + dy,
+                barcode);
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lets each barcode value through once while it keeps being scanned, for continuous scanning.
+ *
+ * <p>Values are remembered with the time they were last seen. A value seen again within the
+ * time-to-live is suppressed and its time refreshed, so a label that stays in view is delivered
+ * once; after the time-to-live has passed without it, it is delivered again. The cache is bounded
+ * by entry count and drops the least recently seen value first.
+ */
+final class DuplicateFilter {
+
+    private final long ttlNanos;
+    private final LinkedHashMap<String, long[]> lastSeen;
+
+    private long suppressedCount;
+
+    DuplicateFilter(long ttlMillis, final int maxEntries) {
+        if (ttlMillis < 0 || maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid duplicate filter: " + ttlMillis + " ms, " + maxEntries + " entries");
+        }
+        ttlNanos = ttlMillis * 1_000_000L;
+        lastSeen = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Records a sighting of the value and returns whether it should be delivered.
+     */
+    synchronized boolean accept(@NonNull String rawValue, long timestampNanos) {
+        long[] seen = lastSeen.get(rawValue);
+        if (seen == null) {
+            lastSeen.put(rawValue, new long[]{timestampNanos});
+            return true;
+        }
+        boolean expired = timestampNanos - seen[0] >= ttlNanos;
+        seen[0] = timestampNanos;
+        if (!expired) {
+            suppressedCount++;
+        }
+        return expired;
+    }
+
+    synchronized int size() {
+        return lastSeen.size();
+    }
+
+    synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+}
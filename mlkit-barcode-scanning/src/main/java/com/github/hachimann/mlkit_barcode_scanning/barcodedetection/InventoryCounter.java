@@ -0,0 +1,270 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts scanned items per raw value and format, for stock-taking.
+ *
+ * <p>Counts live in a concurrent map of atomic counters, so recording a read never waits for a
+ * lock held by a reader. With spatial de-duplication, a read of a value close to where the same
+ * value was seen within the last {@value #HOLD_MILLIS} ms is taken to be the same label held in
+ * view and isn't counted again. {@link #snapshot()} copies all counts without stopping the
+ * writers: it retries until no count changed during the copy, so every snapshot matches the
+ * counts at a single point in time.
+ */
+public final class InventoryCounter {
+
+    /**
+     * Time a label may go unseen and still be recognised as the same label.
+     */
+    static final long HOLD_MILLIS = 1000;
+
+    /**
+     * Labels remembered for spatial de-duplication.
+     */
+    static final int MAX_SIGHTINGS = 64;
+
+    private static final class Key {
+        String rawValue;
+        int format;
+
+        Key(String rawValue, int format) {
+            this.rawValue = rawValue;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return format == key.format && rawValue.equals(key.rawValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * rawValue.hashCode() + format;
+        }
+    }
+
+    /**
+     * Counts at one point in time, in no particular order.
+     */
+    public static final class Snapshot {
+        private final String[] rawValues;
+        private final int[] formats;
+        private final long[] counts;
+        private final long total;
+
+        Snapshot(String[] rawValues, int[] formats, long[] counts, long total) {
+            this.rawValues = rawValues;
+            this.formats = formats;
+            this.counts = counts;
+            this.total = total;
+        }
+
+        /**
+         * Returns the number of distinct values.
+         */
+        public int size() {
+            return rawValues.length;
+        }
+
+        @NonNull
+        public String getRawValue(int index) {
+            return rawValues[index];
+        }
+
+        public int getFormat(int index) {
+            return formats[index];
+        }
+
+        public long getCount(int index) {
+            return counts[index];
+        }
+
+        /**
+         * Returns the number of items counted over all values.
+         */
+        public long getTotal() {
+            return total;
+        }
+    }
+
+    private final boolean spatialDeduplication;
+    private final ConcurrentHashMap<Key, AtomicLong> counts = new ConcurrentHashMap<>();
+    // Reused for lookups, so counting a known value doesn't allocate. Never put in the map.
+    private final ThreadLocal<Key> lookupKeys = ThreadLocal.withInitial(() -> new Key(null, 0));
+
+    // Writers in flight and completed writes, to validate snapshots.
+    private final AtomicInteger activeWriters = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+
+    // Recently seen labels, only touched while holding the lock on the array.
+    private final String[] sightingValues = new String[MAX_SIGHTINGS];
+    private final float[] sightingBoxes = new float[MAX_SIGHTINGS * 4];
+    private final long[] sightingTimes = new long[MAX_SIGHTINGS];
+
+    public InventoryCounter(boolean spatialDeduplication) {
+        this.spatialDeduplication = spatialDeduplication;
+    }
+
+    /**
+     * Records a read of a barcode whose bounding box is given as fractions of the upright preview.
+     *
+     * @return whether the read was counted
+     */
+    public boolean record(@NonNull String rawValue, int format, float left, float top,
+                          float right, float bottom, long timestampNanos) {
+        if (spatialDeduplication
+                && isKnownLabel(rawValue, left, top, right, bottom, timestampNanos)) {
+            return false;
+        }
+        AtomicLong counter = lookUp(rawValue, format);
+        if (counter == null) {
+            counter = counts.computeIfAbsent(new Key(rawValue, format), key -> new AtomicLong());
+        }
+        activeWriters.incrementAndGet();
+        try {
+            counter.incrementAndGet();
+            version.incrementAndGet();
+        } finally {
+            activeWriters.decrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the count of a single value.
+     */
+    public long getCount(@NonNull String rawValue, int format) {
+        AtomicLong counter = lookUp(rawValue, format);
+        return counter != null ? counter.get() : 0;
+    }
+
+    @Nullable
+    private AtomicLong lookUp(String rawValue, int format) {
+        Key key = lookupKeys.get();
+        key.rawValue = rawValue;
+        key.format = format;
+        AtomicLong counter = counts.get(key);
+        key.rawValue = null;
+        return counter;
+    }
+
+    /**
+     * Returns the number of distinct values counted.
+     */
+    public int getDistinctCount() {
+        return counts.size();
+    }
+
+    /**
+     * Copies all counts as they were at one point in time.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        while (true) {
+            long before = version.get();
+            if (activeWriters.get() != 0) {
+                Thread.yield();
+                continue;
+            }
+            int size = counts.size();
+            String[] rawValues = new String[size];
+            int[] formats = new int[size];
+            long[] values = new long[size];
+            long total = 0;
+            int index = 0;
+            boolean grew = false;
+            for (Map.Entry<Key, AtomicLong> entry : counts.entrySet()) {
+                if (index == size) {
+                    grew = true;
+                    break;
+                }
+                rawValues[index] = entry.getKey().rawValue;
+                formats[index] = entry.getKey().format;
+                values[index] = entry.getValue().get();
+                total += values[index];
+                index++;
+            }
+            if (!grew && index == size && activeWriters.get() == 0
+                    && version.get() == before) {
+                return new Snapshot(rawValues, formats, values, total);
+            }
+        }
+    }
+
+    /**
+     * Forgets all counts and recently seen labels.
+     */
+    public void clear() {
+        counts.clear();
+        synchronized (sightingValues) {
+            for (int i = 0; i < MAX_SIGHTINGS; i++) {
+                sightingValues[i] = null;
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns whether the same value was seen close by not long ago, and remembers this sighting.
+     */
+    private boolean isKnownLabel(String rawValue, float left, float top, float right,
+                                 float bottom, long timestampNanos) {
+        long holdNanos = HOLD_MILLIS * 1_000_000L;
+        float centerX = (left + right) / 2;
+        float centerY = (top + bottom) / 2;
+        synchronized (sightingValues) {
+            int free = -1;
+            int oldest = 0;
+            for (int i = 0; i < MAX_SIGHTINGS; i++) {
+                String value = sightingValues[i];
+                if (value == null || timestampNanos - sightingTimes[i] > holdNanos) {
+                    free = free < 0 ? i : free;
+                    continue;
+                }
+                if (sightingTimes[i] < sightingTimes[oldest]) {
+                    oldest = i;
+                }
+                if (!value.equals(rawValue)) {
+                    continue;
+                }
+                // The same label if the new centre lies within the box of the last sighting,
+                // widened by half its size for motion between frames.
+                int box = i * 4;
+                float width = sightingBoxes[box + 2] - sightingBoxes[box];
+                float height = sightingBoxes[box + 3] - sightingBoxes[box + 1];
+                if (centerX >= sightingBoxes[box] - width / 2
+                        && centerX <= sightingBoxes[box + 2] + width / 2
+                        && centerY >= sightingBoxes[box + 1] - height / 2
+                        && centerY <= sightingBoxes[box + 3] + height / 2) {
+                    remember(i, rawValue, left, top, right, bottom, timestampNanos);
+                    return true;
+                }
+            }
+            remember(free >= 0 ? free : oldest, rawValue, left, top, right, bottom,
+                    timestampNanos);
+            return false;
+        }
+    }
+
+    private void remember(int index, String rawValue, float left, float top, float right,
+                          float bottom, long timestampNanos) {
+        sightingValues[index] = rawValue;
+        sightingTimes[index] = timestampNanos;
+        int box = index * 4;
+        sightingBoxes[box] = left;
+        sightingBoxes[box + 1] = top;
+        sightingBoxes[box + 2] = right;
+        sightingBoxes[box + 3] = bottom;
+    }
+}
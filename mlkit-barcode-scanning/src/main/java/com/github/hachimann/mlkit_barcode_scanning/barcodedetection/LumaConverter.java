@@ -0,0 +1,29 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Converts bitmap pixels to the luma the detectors read, a row at a time so no full size copy of
+ * the bitmap is needed.
+ */
+public final class LumaConverter {
+
+    private LumaConverter() {
+    }
+
+    /**
+     * Reads {@code length} pixels of a bitmap row into {@code pixels} and writes their luma to
+     * {@code out} at {@code offset}.
+     */
+    public static void readRow(@NonNull Bitmap bitmap, int x, int y, int length,
+                               @NonNull int[] pixels, @NonNull byte[] out, int offset) {
+        bitmap.getPixels(pixels, 0, length, x, y, length, 1);
+        for (int i = 0; i < length; i++) {
+            int color = pixels[i];
+            out[offset + i] = (byte) ((((color >> 16) & 0xff) * 77
+                    + ((color >> 8) & 0xff) * 150 + (color & 0xff) * 29) >> 8);
+        }
+    }
+}
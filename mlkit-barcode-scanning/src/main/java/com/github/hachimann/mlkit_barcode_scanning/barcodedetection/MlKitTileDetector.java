@@ -0,0 +1,47 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TileDetector} backed by an ML Kit barcode scanner client of its own.
+ */
+public final class MlKitTileDetector implements TileDetector {
+
+    private final BarcodeScanner barcodeScanner = BarcodeScanning.getClient();
+
+    @NonNull
+    @Override
+    public List<DecodedBarcode> detect(@NonNull byte[] nv21, int width, int height)
+            throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(nv21, 0, width * height * 3 / 2);
+        List<Barcode> barcodes = Tasks.await(barcodeScanner.process(InputImage.fromByteBuffer(
+                data, width, height, 0, InputImage.IMAGE_FORMAT_NV21)));
+        List<DecodedBarcode> results = new ArrayList<>(barcodes.size());
+        for (Barcode barcode : barcodes) {
+            Rect box = barcode.getBoundingBox();
+            String rawValue = barcode.getRawValue();
+            if (box != null && rawValue != null) {
+                results.add(new DecodedBarcode(rawValue, barcode.getFormat(), box.left, box.top,
+                        box.right, box.bottom, barcode));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        barcodeScanner.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import androidx.core.content.ContextCompat;
+
+import com.github.hachimann.mlkit_barcode_scanning.R;
+import com.github.hachimann.mlkit_barcode_scanning.camera.GraphicOverlay;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Draws a box and an ID for every barcode found in multi-barcode mode.
+ *
+ * <p>One graphic draws all boxes with the same two paints, and it is kept by the processor and
+ * updated in place, so a frame with dozens of barcodes costs one graphic and no allocations. Box
+ * coordinates are in view pixels. Boxes are updated off the main thread into a second set of
+ * arrays, which {@link #endUpdate()} swaps in, so a draw never sees a half-updated frame.
+ */
+public final class MultiBarcodeGraphic extends GraphicOverlay.Graphic {
+
+    static final int MAX_BOXES = BarcodeIdAssigner.MAX_ENTRIES;
+
+    private final Paint boxPaint;
+    private final Paint labelPaint;
+    private final float labelPadding;
+
+    private float[] boxes = new float[MAX_BOXES * 4];
+    private int[] ids = new int[MAX_BOXES];
+    private final String[] labels = new String[MAX_BOXES];
+    private final int[] labelIds = new int[MAX_BOXES];
+    private int boxCount;
+
+    private float[] pendingBoxes = new float[MAX_BOXES * 4];
+    private int[] pendingIds = new int[MAX_BOXES];
+    private int pendingCount;
+
+    public MultiBarcodeGraphic(@NotNull GraphicOverlay overlay) {
+        super(overlay);
+
+        boxPaint = new Paint();
+        boxPaint.setColor(Color.WHITE);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth((float) context.getResources().getDimensionPixelOffset(
+                R.dimen.barcode_reticle_stroke_width));
+
+        labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        labelPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        labelPaint.setTextSize((float) context.getResources().getDimensionPixelSize(
+                R.dimen.barcode_field_label_size));
+        labelPadding = boxPaint.getStrokeWidth();
+    }
+
+    /**
+     * Starts replacing the boxes with those of a new detection.
+     */
+    synchronized void beginUpdate() {
+        pendingCount = 0;
+    }
+
+    /**
+     * Adds the box of a barcode found by the current detection.
+     */
+    synchronized void addBox(int id, float left, float top, float right, float bottom) {
+        if (pendingCount == MAX_BOXES) {
+            return;
+        }
+        int box = pendingCount * 4;
+        pendingBoxes[box] = left;
+        pendingBoxes[box + 1] = top;
+        pendingBoxes[box + 2] = right;
+        pendingBoxes[box + 3] = bottom;
+        pendingIds[pendingCount] = id;
+        pendingCount++;
+    }
+
+    /**
+     * Makes the boxes added since {@link #beginUpdate()} the ones drawn.
+     */
+    synchronized void endUpdate() {
+        float[] drawnBoxes = boxes;
+        boxes = pendingBoxes;
+        pendingBoxes = drawnBoxes;
+        int[] drawnIds = ids;
+        ids = pendingIds;
+        pendingIds = drawnIds;
+        boxCount = pendingCount;
+    }
+
+    synchronized int getBoxCount() {
+        return boxCount;
+    }
+
+    @Override
+    public synchronized void draw(@NotNull Canvas canvas) {
+        for (int i = 0; i < boxCount; i++) {
+            int box = i * 4;
+            canvas.drawRect(boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3],
+                    boxPaint);
+            canvas.drawText(getLabel(i), boxes[box] + labelPadding,
+                    boxes[box + 1] - labelPadding, labelPaint);
+        }
+    }
+
+    /**
+     * Returns the label of the box at the given slot, formatting it only when its ID changed.
+     */
+    private String getLabel(int slot) {
+        if (labels[slot] == null || labelIds[slot] != ids[slot]) {
+            labels[slot] = Integer.toString(ids[slot]);
+            labelIds[slot] = ids[slot];
+        }
+        return labels[slot];
+    }
+}
@@ -0,0 +1,650 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+
+import com.github.hachimann.mlkit_barcode_scanning.camera.Frame;
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes EAN-13, UPC-A and Code 128 barcodes from a few scanlines through the centre of a frame,
+ * without the ML Kit detector.
+ *
+ * <p>The scanlines run horizontally through the upright frame, at the centre and at small offsets
+ * above and below it. Each line is binarized against a moving average with some hysteresis, turned
+ * into bar and space widths and matched against the symbologies in both directions. A value is
+ * only accepted with a valid check digit or checksum and quiet zones on both sides. All buffers are
+ * kept between calls, so decoding a scanline allocates nothing; only a successful read creates its
+ * value string.
+ */
+final class ScanlineDecoder {
+
+    /**
+     * Scanlines are spaced by this fraction of the upright frame height.
+     */
+    static final int LINE_SPACING_DIVISOR = 16;
+    static final int LINE_COUNT = 5;
+
+    /**
+     * Smallest difference between the darkest and lightest sample of a scanline worth decoding.
+     */
+    static final int MIN_CONTRAST = 40;
+
+    /**
+     * Levels a sample has to differ from the local average to flip between bar and space.
+     */
+    static final int HYSTERESIS = 8;
+
+    /**
+     * Light modules required before and after a symbol.
+     */
+    static final int QUIET_ZONE_MODULES = 3;
+
+    static final int MAX_LENGTH = 80;
+
+    private static final float EAN_MAX_AVG_VARIANCE = 0.48f;
+    private static final float EAN_MAX_INDIVIDUAL_VARIANCE = 0.7f;
+    private static final float CODE128_MAX_AVG_VARIANCE = 0.25f;
+    private static final float CODE128_MAX_INDIVIDUAL_VARIANCE = 0.7f;
+
+    private static final int[] EAN_GUARD = {1, 1, 1};
+    private static final int[] EAN_MIDDLE_GUARD = {1, 1, 1, 1, 1};
+
+    // Widths of space, bar, space, bar for the left-hand odd parity digits. The even parity digits
+    // are the same widths reversed, the right-hand digits the same widths starting with a bar.
+    private static final int[][] EAN_L_PATTERNS = {
+            {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+            {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2}};
+    private static final int[][] EAN_G_PATTERNS = new int[10][];
+
+    // Parity of the six left-hand digits, one bit per digit with the first digit highest and a set
+    // bit for even parity, indexed by the leading digit it encodes.
+    private static final int[] EAN_FIRST_DIGIT_PARITIES = {
+            0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A};
+
+    // Widths of bar, space, bar, space, bar, space for every Code 128 symbol value.
+    static final int[][] CODE128_PATTERNS = {
+            {2, 1, 2, 2, 2, 2}, {2, 2, 2, 1, 2, 2}, {2, 2, 2, 2, 2, 1}, {1, 2, 1, 2, 2, 3},
+            {1, 2, 1, 3, 2, 2}, {1, 3, 1, 2, 2, 2}, {1, 2, 2, 2, 1, 3}, {1, 2, 2, 3, 1, 2},
+            {1, 3, 2, 2, 1, 2}, {2, 2, 1, 2, 1, 3}, {2, 2, 1, 3, 1, 2}, {2, 3, 1, 2, 1, 2},
+            {1, 1, 2, 2, 3, 2}, {1, 2, 2, 1, 3, 2}, {1, 2, 2, 2, 3, 1}, {1, 1, 3, 2, 2, 2},
+            {1, 2, 3, 1, 2, 2}, {1, 2, 3, 2, 2, 1}, {2, 2, 3, 2, 1, 1}, {2, 2, 1, 1, 3, 2},
+            {2, 2, 1, 2, 3, 1}, {2, 1, 3, 2, 1, 2}, {2, 2, 3, 1, 1, 2}, {3, 1, 2, 1, 3, 1},
+            {3, 1, 1, 2, 2, 2}, {3, 2, 1, 1, 2, 2}, {3, 2, 1, 2, 2, 1}, {3, 1, 2, 2, 1, 2},
+            {3, 2, 2, 1, 1, 2}, {3, 2, 2, 2, 1, 1}, {2, 1, 2, 1, 2, 3}, {2, 1, 2, 3, 2, 1},
+            {2, 3, 2, 1, 2, 1}, {1, 1, 1, 3, 2, 3}, {1, 3, 1, 1, 2, 3}, {1, 3, 1, 3, 2, 1},
+            {1, 1, 2, 3, 1, 3}, {1, 3, 2, 1, 1, 3}, {1, 3, 2, 3, 1, 1}, {2, 1, 1, 3, 1, 3},
+            {2, 3, 1, 1, 1, 3}, {2, 3, 1, 3, 1, 1}, {1, 1, 2, 1, 3, 3}, {1, 1, 2, 3, 3, 1},
+            {1, 3, 2, 1, 3, 1}, {1, 1, 3, 1, 2, 3}, {1, 1, 3, 3, 2, 1}, {1, 3, 3, 1, 2, 1},
+            {3, 1, 3, 1, 2, 1}, {2, 1, 1, 3, 3, 1}, {2, 3, 1, 1, 3, 1}, {2, 1, 3, 1, 1, 3},
+            {2, 1, 3, 3, 1, 1}, {2, 1, 3, 1, 3, 1}, {3, 1, 1, 1, 2, 3}, {3, 1, 1, 3, 2, 1},
+            {3, 3, 1, 1, 2, 1}, {3, 1, 2, 1, 1, 3}, {3, 1, 2, 3, 1, 1}, {3, 3, 2, 1, 1, 1},
+            {3, 1, 4, 1, 1, 1}, {2, 2, 1, 4, 1, 1}, {4, 3, 1, 1, 1, 1}, {1, 1, 1, 2, 2, 4},
+            {1, 1, 1, 4, 2, 2}, {1, 2, 1, 1, 2, 4}, {1, 2, 1, 4, 2, 1}, {1, 4, 1, 1, 2, 2},
+            {1, 4, 1, 2, 2, 1}, {1, 1, 2, 2, 1, 4}, {1, 1, 2, 4, 1, 2}, {1, 2, 2, 1, 1, 4},
+            {1, 2, 2, 4, 1, 1}, {1, 4, 2, 1, 1, 2}, {1, 4, 2, 2, 1, 1}, {2, 4, 1, 2, 1, 1},
+            {2, 2, 1, 1, 1, 4}, {4, 1, 3, 1, 1, 1}, {2, 4, 1, 1, 1, 2}, {1, 3, 4, 1, 1, 1},
+            {1, 1, 1, 2, 4, 2}, {1, 2, 1, 1, 4, 2}, {1, 2, 1, 2, 4, 1}, {1, 1, 4, 2, 1, 2},
+            {1, 2, 4, 1, 1, 2}, {1, 2, 4, 2, 1, 1}, {4, 1, 1, 2, 1, 2}, {4, 2, 1, 1, 1, 2},
+            {4, 2, 1, 2, 1, 1}, {2, 1, 2, 1, 4, 1}, {2, 1, 4, 1, 2, 1}, {4, 1, 2, 1, 2, 1},
+            {1, 1, 1, 1, 4, 3}, {1, 1, 1, 3, 4, 1}, {1, 3, 1, 1, 4, 1}, {1, 1, 4, 1, 1, 3},
+            {1, 1, 4, 3, 1, 1}, {4, 1, 1, 1, 1, 3}, {4, 1, 1, 3, 1, 1}, {1, 1, 3, 1, 4, 1},
+            {1, 1, 4, 1, 3, 1}, {3, 1, 1, 1, 4, 1}, {4, 1, 1, 1, 3, 1}, {2, 1, 1, 4, 1, 2},
+            {2, 1, 1, 2, 1, 4}, {2, 1, 1, 2, 3, 2}};
+    static final int[] CODE128_STOP = {2, 3, 3, 1, 1, 1, 2};
+
+    static final int CODE128_START_A = 103;
+    static final int CODE128_START_B = 104;
+    static final int CODE128_START_C = 105;
+    private static final int CODE128_FNC1 = 102;
+    private static final int CODE128_SHIFT = 98;
+    private static final int CODE128_CODE_C = 99;
+    // Values 100 and 101 switch to code set B or A, or mean FNC4 within that code set itself.
+    private static final int CODE128_CODE_B = 100;
+    private static final int CODE128_CODE_A = 101;
+
+    static {
+        for (int digit = 0; digit < 10; digit++) {
+            int[] widths = EAN_L_PATTERNS[digit];
+            EAN_G_PATTERNS[digit] = new int[]{widths[3], widths[2], widths[1], widths[0]};
+        }
+    }
+
+    private int[] line = new int[0];
+    private int[] sums = new int[0];
+    private int[] runs = new int[0];
+    private int[] reversedRuns = new int[0];
+    private int runCount;
+    private int reversedRunCount;
+
+    private final int[] digits = new int[13];
+    private final int[] codes = new int[MAX_LENGTH];
+    private final char[] text = new char[MAX_LENGTH];
+    private int textLength;
+    private int format;
+    private int symbolStart;
+    private int symbolEnd;
+
+    // Result of the whole frame, in coordinates of the upright frame.
+    private final char[] value = new char[MAX_LENGTH];
+    private int valueLength;
+    private int valueFormat;
+    private final int[] bounds = new int[4];
+
+    private volatile long decodedFrames;
+
+    /**
+     * Decodes the scanlines through the centre of the frame. Must be called from one thread at a
+     * time.
+     *
+     * @return whether a barcode was read, see {@link #getRawValue()}, {@link #getFormat()} and
+     * {@link #getBounds(int[])}
+     */
+    boolean decode(@NonNull Frame frame) {
+        int rotation = frame.getRotation();
+        boolean portrait = rotation == 90 || rotation == 270;
+        int uprightWidth = portrait ? frame.getHeight() : frame.getWidth();
+        int uprightHeight = portrait ? frame.getWidth() : frame.getHeight();
+        int spacing = Math.max(1, uprightHeight / LINE_SPACING_DIVISOR);
+
+        valueLength = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            // Centre first, then alternately above and below it.
+            int step = (i + 1) / 2;
+            int y = uprightHeight / 2 + (i % 2 == 1 ? -step : step) * spacing;
+            if (y < 0 || y >= uprightHeight) {
+                continue;
+            }
+            readLine(frame, y, uprightWidth, uprightHeight);
+            if (!decodeLine(line, uprightWidth)) {
+                continue;
+            }
+            if (valueLength == 0) {
+                System.arraycopy(text, 0, value, 0, textLength);
+                valueLength = textLength;
+                valueFormat = format;
+                bounds[0] = symbolStart;
+                bounds[1] = y;
+                bounds[2] = symbolEnd;
+                bounds[3] = y;
+            } else if (matchesValue()) {
+                bounds[0] = Math.min(bounds[0], symbolStart);
+                bounds[1] = Math.min(bounds[1], y);
+                bounds[2] = Math.max(bounds[2], symbolEnd);
+                bounds[3] = Math.max(bounds[3], y);
+            }
+        }
+        if (valueLength == 0) {
+            return false;
+        }
+        // The bars reach at least half a line spacing beyond the outermost lines that read them.
+        bounds[1] = Math.max(0, bounds[1] - spacing / 2);
+        bounds[3] = Math.min(uprightHeight, bounds[3] + spacing / 2 + 1);
+        decodedFrames++;
+        return true;
+    }
+
+    @NonNull
+    String getRawValue() {
+        return new String(value, 0, valueLength);
+    }
+
+    /**
+     * Returns the {@link Barcode} format constant of the last read.
+     */
+    int getFormat() {
+        return valueFormat;
+    }
+
+    /**
+     * Writes the left, top, right and bottom edge of the last read into the array, in pixels of
+     * the upright frame.
+     */
+    void getBounds(@NonNull int[] out) {
+        System.arraycopy(bounds, 0, out, 0, 4);
+    }
+
+    long getDecodedFrameCount() {
+        return decodedFrames;
+    }
+
+    private boolean matchesValue() {
+        if (textLength != valueLength || format != valueFormat) {
+            return false;
+        }
+        for (int i = 0; i < textLength; i++) {
+            if (text[i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the luma of the given row of the upright frame into the line buffer.
+     */
+    private void readLine(Frame frame, int y, int uprightWidth, int uprightHeight) {
+        if (line.length < uprightWidth) {
+            line = new int[uprightWidth];
+        }
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int rowStride = frame.getYRowStride();
+        int index;
+        int step;
+        // The frame has to be rotated clockwise by its rotation to be upright.
+        switch (frame.getRotation()) {
+            case 90:
+                index = (height - 1) * rowStride + y;
+                step = -rowStride;
+                break;
+            case 180:
+                index = (height - 1 - y) * rowStride + width - 1;
+                step = -1;
+                break;
+            case 270:
+                index = width - 1 - y;
+                step = rowStride;
+                break;
+            default:
+                index = y * rowStride;
+                step = 1;
+                break;
+        }
+        ByteBuffer yBuffer = frame.getYBuffer();
+        index += frame.getYOffset();
+        if (yBuffer.hasArray()) {
+            byte[] array = yBuffer.array();
+            index += yBuffer.arrayOffset();
+            for (int x = 0; x < uprightWidth; x++, index += step) {
+                line[x] = array[index] & 0xff;
+            }
+        } else {
+            for (int x = 0; x < uprightWidth; x++, index += step) {
+                line[x] = yBuffer.get(index) & 0xff;
+            }
+        }
+    }
+
+    /**
+     * Decodes a single scanline of luma samples.
+     *
+     * @return whether a barcode was read, see {@link #getLineValue()}
+     */
+    boolean decodeLine(@NonNull int[] luma, int length) {
+        if (!toRuns(luma, length)) {
+            return false;
+        }
+        if (decodeRuns(runs, runCount)) {
+            return true;
+        }
+        reverseRuns();
+        if (!decodeRuns(reversedRuns, reversedRunCount)) {
+            return false;
+        }
+        int start = symbolStart;
+        symbolStart = length - symbolEnd;
+        symbolEnd = length - start;
+        return true;
+    }
+
+    @NonNull
+    String getLineValue() {
+        return new String(text, 0, textLength);
+    }
+
+    int getLineFormat() {
+        return format;
+    }
+
+    int getLineStart() {
+        return symbolStart;
+    }
+
+    int getLineEnd() {
+        return symbolEnd;
+    }
+
+    /**
+     * Binarizes the samples and stores the widths of alternating runs, starting with a light one.
+     *
+     * @return false if the scanline has too little contrast to hold a barcode
+     */
+    private boolean toRuns(int[] luma, int length) {
+        if (sums.length < length + 1) {
+            sums = new int[length + 1];
+            runs = new int[length + 1];
+            reversedRuns = new int[length + 2];
+        }
+        int min = 255;
+        int max = 0;
+        for (int x = 0; x < length; x++) {
+            int sample = luma[x];
+            sums[x + 1] = sums[x] + sample;
+            min = Math.min(min, sample);
+            max = Math.max(max, sample);
+        }
+        if (max - min < MIN_CONTRAST) {
+            return false;
+        }
+
+        int radius = Math.max(16, length / 8);
+        boolean dark = false;
+        int count = 0;
+        int runLength = 0;
+        for (int x = 0; x < length; x++) {
+            int from = Math.max(0, x - radius);
+            int to = Math.min(length, x + radius + 1);
+            int mean = (sums[to] - sums[from]) / (to - from);
+            int sample = luma[x];
+            boolean pixelDark = dark ? sample <= mean + HYSTERESIS : sample < mean - HYSTERESIS;
+            if (pixelDark != dark) {
+                runs[count++] = runLength;
+                runLength = 0;
+                dark = pixelDark;
+            }
+            runLength++;
+        }
+        runs[count++] = runLength;
+        runCount = count;
+        return true;
+    }
+
+    /**
+     * Stores the runs in reverse order, again starting with a light one.
+     */
+    private void reverseRuns() {
+        int count = 0;
+        if (runCount % 2 == 0) {
+            // The scanline ends on a bar.
+            reversedRuns[count++] = 0;
+        }
+        for (int i = runCount - 1; i >= 0; i--) {
+            reversedRuns[count++] = runs[i];
+        }
+        reversedRunCount = count;
+    }
+
+    private boolean decodeRuns(int[] r, int count) {
+        // Bars sit at the odd indices.
+        for (int i = 1; i < count; i += 2) {
+            if (decodeEan13(r, count, i) || decodeCode128(r, count, i)) {
+                symbolStart = 0;
+                for (int j = 0; j < i; j++) {
+                    symbolStart += r[j];
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean decodeEan13(int[] r, int count, int start) {
+        // Start guard, six digits, middle guard, six digits and end guard.
+        int end = start + 3 + 24 + 5 + 24 + 3;
+        if (end > count) {
+            return false;
+        }
+        float module = (r[start] + r[start + 1] + r[start + 2]) / 3f;
+        if (r[start - 1] < QUIET_ZONE_MODULES * module || variance(r, start, EAN_GUARD,
+                EAN_MAX_INDIVIDUAL_VARIANCE) > EAN_MAX_AVG_VARIANCE) {
+            return false;
+        }
+
+        int position = start + 3;
+        int parities = 0;
+        for (int i = 0; i < 6; i++) {
+            int digit = matchEanDigit(r, position, true);
+            if (digit < 0) {
+                return false;
+            }
+            if (digit >= 10) {
+                parities |= 1 << (5 - i);
+            }
+            digits[i + 1] = digit % 10;
+            position += 4;
+        }
+        if (variance(r, position, EAN_MIDDLE_GUARD, EAN_MAX_INDIVIDUAL_VARIANCE)
+                > EAN_MAX_AVG_VARIANCE) {
+            return false;
+        }
+        position += 5;
+        for (int i = 0; i < 6; i++) {
+            int digit = matchEanDigit(r, position, false);
+            if (digit < 0) {
+                return false;
+            }
+            digits[i + 7] = digit;
+            position += 4;
+        }
+        if (variance(r, position, EAN_GUARD, EAN_MAX_INDIVIDUAL_VARIANCE) > EAN_MAX_AVG_VARIANCE
+                || (end < count && r[end] < QUIET_ZONE_MODULES * module)) {
+            return false;
+        }
+
+        digits[0] = -1;
+        for (int digit = 0; digit < 10; digit++) {
+            if (EAN_FIRST_DIGIT_PARITIES[digit] == parities) {
+                digits[0] = digit;
+                break;
+            }
+        }
+        if (digits[0] < 0 || !hasValidEanCheckDigit()) {
+            return false;
+        }
+
+        // UPC-A is EAN-13 with a leading zero, which isn't part of its value.
+        int first = digits[0] == 0 ? 1 : 0;
+        textLength = 0;
+        for (int i = first; i < 13; i++) {
+            text[textLength++] = (char) ('0' + digits[i]);
+        }
+        format = first == 1 ? Barcode.FORMAT_UPC_A : Barcode.FORMAT_EAN_13;
+        symbolEnd = 0;
+        for (int j = 0; j < end; j++) {
+            symbolEnd += r[j];
+        }
+        return true;
+    }
+
+    private boolean hasValidEanCheckDigit() {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += digits[i] * (i % 2 == 1 ? 3 : 1);
+        }
+        return (10 - sum % 10) % 10 == digits[12];
+    }
+
+    /**
+     * Returns the best matching digit, plus 10 for an even parity digit, or -1 if none matches.
+     */
+    private static int matchEanDigit(int[] r, int position, boolean left) {
+        float best = EAN_MAX_AVG_VARIANCE;
+        int match = -1;
+        for (int digit = 0; digit < 10; digit++) {
+            float odd = variance(r, position, EAN_L_PATTERNS[digit], EAN_MAX_INDIVIDUAL_VARIANCE);
+            if (odd < best) {
+                best = odd;
+                match = digit;
+            }
+            if (left) {
+                float even = variance(r, position, EAN_G_PATTERNS[digit],
+                        EAN_MAX_INDIVIDUAL_VARIANCE);
+                if (even < best) {
+                    best = even;
+                    match = digit + 10;
+                }
+            }
+        }
+        return match;
+    }
+
+    private boolean decodeCode128(int[] r, int count, int start) {
+        if (start + 6 + 6 + 7 > count) {
+            return false;
+        }
+        int startCode = matchCode128(r, start, CODE128_START_A, CODE128_START_C);
+        if (startCode < 0) {
+            return false;
+        }
+        float module = sum(r, start, 6) / 11f;
+        if (r[start - 1] < QUIET_ZONE_MODULES * module) {
+            return false;
+        }
+
+        int position = start + 6;
+        int codeCount = 0;
+        while (true) {
+            if (position + 7 <= count && variance(r, position, CODE128_STOP,
+                    CODE128_MAX_INDIVIDUAL_VARIANCE) < CODE128_MAX_AVG_VARIANCE) {
+                break;
+            }
+            if (position + 6 > count || codeCount == MAX_LENGTH) {
+                return false;
+            }
+            int code = matchCode128(r, position, 0, CODE128_FNC1);
+            if (code < 0) {
+                return false;
+            }
+            codes[codeCount++] = code;
+            position += 6;
+        }
+        int end = position + 7;
+        if (codeCount < 2 || (end < count && r[end] < QUIET_ZONE_MODULES * module)) {
+            return false;
+        }
+
+        int checksum = startCode;
+        for (int i = 0; i < codeCount - 1; i++) {
+            checksum += (i + 1) * codes[i];
+        }
+        if (checksum % 103 != codes[codeCount - 1] || !translateCode128(startCode, codeCount - 1)) {
+            return false;
+        }
+        format = Barcode.FORMAT_CODE_128;
+        symbolEnd = 0;
+        for (int j = 0; j < end; j++) {
+            symbolEnd += r[j];
+        }
+        return true;
+    }
+
+    /**
+     * Turns symbol values into text. FNC1 in first position marks GS1 data and is dropped, later
+     * ones become the GS separator. FNC2 to FNC4 aren't supported and fail the read.
+     */
+    private boolean translateCode128(int startCode, int codeCount) {
+        int codeSet = startCode;
+        boolean shifted = false;
+        textLength = 0;
+        for (int i = 0; i < codeCount; i++) {
+            int code = codes[i];
+            int set = codeSet;
+            if (shifted) {
+                set = codeSet == CODE128_START_A ? CODE128_START_B : CODE128_START_A;
+                shifted = false;
+            }
+            if (code == CODE128_FNC1) {
+                if (i > 0) {
+                    if (textLength >= MAX_LENGTH) {
+                        return false;
+                    }
+                    text[textLength++] = 0x1d;
+                }
+                continue;
+            }
+            if (set == CODE128_START_C) {
+                if (code < 100) {
+                    if (textLength + 2 > MAX_LENGTH) {
+                        return false;
+                    }
+                    text[textLength++] = (char) ('0' + code / 10);
+                    text[textLength++] = (char) ('0' + code % 10);
+                } else if (code == CODE128_CODE_B) {
+                    codeSet = CODE128_START_B;
+                } else if (code == CODE128_CODE_A) {
+                    codeSet = CODE128_START_A;
+                } else {
+                    return false;
+                }
+                continue;
+            }
+            if (code < 64) {
+                text[textLength++] = (char) (code + ' ');
+            } else if (code < 96) {
+                text[textLength++] = (char) (set == CODE128_START_A ? code - 64 : code + ' ');
+            } else if (code == CODE128_SHIFT && !shifted) {
+                shifted = true;
+            } else if (code == CODE128_CODE_C) {
+                codeSet = CODE128_START_C;
+            } else if (code == CODE128_CODE_B && set == CODE128_START_A) {
+                codeSet = CODE128_START_B;
+            } else if (code == CODE128_CODE_A && set == CODE128_START_B) {
+                codeSet = CODE128_START_A;
+            } else {
+                return false;
+            }
+            if (textLength >= MAX_LENGTH) {
+                return false;
+            }
+        }
+        return textLength > 0;
+    }
+
+    /**
+     * Returns the best matching Code 128 value in the given range, or -1 if none matches.
+     */
+    private static int matchCode128(int[] r, int position, int first, int last) {
+        float best = CODE128_MAX_AVG_VARIANCE;
+        int match = -1;
+        for (int code = first; code <= last; code++) {
+            float variance = variance(r, position, CODE128_PATTERNS[code],
+                    CODE128_MAX_INDIVIDUAL_VARIANCE);
+            if (variance < best) {
+                best = variance;
+                match = code;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Compares the runs at the given position with the widths of a pattern in modules.
+     *
+     * @return the average deviation per pixel, or infinity if a single run deviates by more than
+     * the given share of a module
+     */
+    private static float variance(int[] r, int position, int[] pattern,
+                                  float maxIndividualVariance) {
+        int total = 0;
+        int patternLength = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            total += r[position + i];
+            patternLength += pattern[i];
+        }
+        if (total < patternLength) {
+            // Less than a pixel per module.
+            return Float.POSITIVE_INFINITY;
+        }
+        float unit = (float) total / patternLength;
+        float maxVariance = maxIndividualVariance * unit;
+        float totalVariance = 0f;
+        for (int i = 0; i < pattern.length; i++) {
+            float variance = Math.abs(r[position + i] - pattern[i] * unit);
+            if (variance > maxVariance) {
+                return Float.POSITIVE_INFINITY;
+            }
+            totalVariance += variance;
+        }
+        return totalVariance / total;
+    }
+
+    private static int sum(int[] r, int position, int count) {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += r[position + i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+/**
+ * Lets a single-shot scan hand over one barcode per live session of the camera.
+ *
+ * <p>Results of frames detected after the barcode was handed over, but before the main thread
+ * froze the camera, are ignored. Once the camera goes live again, e.g. after the result sheet is
+ * dismissed, the session changes and the gate opens for the next barcode. Only used on the result
+ * thread.
+ */
+final class SingleShotGate {
+
+    private int closedSession = -1;
+    private boolean closed;
+
+    /**
+     * Returns whether results of the given live session are still wanted.
+     */
+    boolean isOpen(int liveSession) {
+        return !closed || closedSession != liveSession;
+    }
+
+    /**
+     * Records that a barcode was handed over in the given live session.
+     */
+    void close(int liveSession) {
+        closed = true;
+        closedSession = liveSession;
+    }
+}
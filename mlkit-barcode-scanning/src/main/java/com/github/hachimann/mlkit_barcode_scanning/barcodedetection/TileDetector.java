@@ -0,0 +1,35 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Finds barcodes in an NV21 image. Used by {@link TiledDecoder}, which gives every worker thread
+ * its own detector, so implementations don't need to be thread-safe.
+ */
+public interface TileDetector {
+
+    /**
+     * Creates a detector for one worker thread.
+     */
+    interface Factory {
+        @NonNull
+        TileDetector create();
+    }
+
+    /**
+     * Returns the barcodes found in the image, with boxes in pixels of the image. The array may be
+     * larger than the image; the chroma plane starts right after {@code width * height} luma
+     * bytes. Blocks until detection is done.
+     *
+     * @throws Exception if detection fails
+     */
+    @NonNull
+    List<DecodedBarcode> detect(@NonNull byte[] nv21, int width, int height) throws Exception;
+
+    /**
+     * Releases the resources of the detector.
+     */
+    void close();
+}
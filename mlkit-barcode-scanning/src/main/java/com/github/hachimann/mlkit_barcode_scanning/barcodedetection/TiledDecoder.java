@@ -0,0 +1,286 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes barcodes in high resolution still images by splitting them into overlapping tiles and
+ * detecting the tiles in parallel.
+ *
+ * <p>Small codes that the detector misses in a downscaled picture are found at full resolution
+ * in a tile. Tiles overlap by a fixed number of pixels, so a code up to that size is whole in at
+ * least one tile; the same code read in several tiles is reported once. Every worker owns one tile
+ * buffer and one detector, so peak memory is bounded by the number of workers times the tile size,
+ * whatever the size of the image. An encoded image is decoded region by region, one tile per
+ * worker, rather than into one full size bitmap. Only luma is copied into the tiles; their chroma
+ * is neutral.
+ *
+ * <p>{@link #decode} blocks until all tiles are done and must not be called on the main thread.
+ */
+public final class TiledDecoder {
+
+    public static final int DEFAULT_TILE_SIZE = 1024;
+
+    public static final int DEFAULT_OVERLAP = 256;
+
+    /**
+     * Reads rows of luma from the image being decoded.
+     */
+    private interface LumaSource {
+        /**
+         * Called before the rows of a tile are read.
+         */
+        default void beginTile(int left, int top, int width, int height, @NonNull Worker worker)
+                throws IOException {
+        }
+
+        void readRow(int x, int y, int length, @NonNull byte[] out, int offset,
+                     @NonNull Worker worker);
+    }
+
+    private static final class Worker {
+        final TileDetector detector;
+        final byte[] tile;
+        int[] pixels;
+        int chromaStart = -1;
+
+        // The region of an encoded image decoded for the current tile. The bitmap is reused for
+        // the tiles of the next images.
+        @Nullable
+        BitmapFactory.Options regionOptions;
+        @Nullable
+        Rect region;
+        @Nullable
+        Bitmap regionBitmap;
+
+        Worker(TileDetector detector, int tileBytes) {
+            this.detector = detector;
+            this.tile = new byte[tileBytes];
+        }
+    }
+
+    private final int tileSize;
+    private final int overlap;
+    private final ExecutorService executor;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final List<Worker> workers = new ArrayList<>();
+
+    public TiledDecoder(int tileSize, int overlap, int parallelism,
+                        @NonNull TileDetector.Factory detectorFactory) {
+        if (tileSize < 2 || overlap < 0 || overlap >= tileSize || parallelism < 1) {
+            throw new IllegalArgumentException("Invalid tiling: " + tileSize + " px tiles, "
+                    + overlap + " px overlap, " + parallelism + " workers");
+        }
+        this.tileSize = tileSize & ~1;
+        this.overlap = overlap;
+        executor = Executors.newFixedThreadPool(parallelism);
+        idleWorkers = new ArrayBlockingQueue<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            Worker worker = new Worker(detectorFactory.create(),
+                    this.tileSize * this.tileSize * 3 / 2);
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Decodes an NV21 image, or any image whose first {@code width * height} bytes are luma.
+     */
+    @NonNull
+    public List<DecodedBarcode> decode(@NonNull final byte[] nv21, final int width, int height)
+            throws InterruptedException, ExecutionException {
+        return decode(width, height, (x, y, length, out, offset, worker) ->
+                System.arraycopy(nv21, y * width + x, out, offset, length));
+    }
+
+    /**
+     * Decodes a bitmap. Rows are converted to luma as they are copied into the tiles, so no full
+     * size copy of the bitmap is made.
+     */
+    @NonNull
+    public List<DecodedBarcode> decode(@NonNull final Bitmap bitmap)
+            throws InterruptedException, ExecutionException {
+        return decode(bitmap.getWidth(), bitmap.getHeight(),
+                (x, y, length, out, offset, worker) -> {
+                    if (worker.pixels == null || worker.pixels.length < length) {
+                        worker.pixels = new int[tileSize];
+                    }
+                    LumaConverter.readRow(bitmap, x, y, length, worker.pixels, out, offset);
+                });
+    }
+
+    /**
+     * Decodes an encoded image, e.g. a JPEG photo. Every worker decodes only the region of its
+     * tile, so the image is never decoded at full size.
+     */
+    @NonNull
+    public List<DecodedBarcode> decode(@NonNull final BitmapRegionDecoder regionDecoder)
+            throws InterruptedException, ExecutionException {
+        return decode(regionDecoder.getWidth(), regionDecoder.getHeight(), new LumaSource() {
+            @Override
+            public void beginTile(int left, int top, int width, int height,
+                                  @NonNull Worker worker) throws IOException {
+                if (worker.regionOptions == null) {
+                    worker.regionOptions = new BitmapFactory.Options();
+                    // Half the memory of ARGB_8888; only luma is read.
+                    worker.regionOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+                    worker.regionOptions.inMutable = true;
+                    worker.region = new Rect();
+                }
+                Bitmap reused = worker.regionBitmap;
+                // Tiles of an image all have the same size, but those of another image may not.
+                worker.regionOptions.inBitmap = reused != null && reused.getWidth() == width
+                        && reused.getHeight() == height ? reused : null;
+                worker.region.set(left, top, left + width, top + height);
+                Bitmap bitmap = regionDecoder.decodeRegion(worker.region, worker.regionOptions);
+                if (bitmap == null) {
+                    throw new IOException("Cannot decode region: " + worker.region);
+                }
+                worker.regionBitmap = bitmap;
+            }
+
+            @Override
+            public void readRow(int x, int y, int length, @NonNull byte[] out, int offset,
+                                @NonNull Worker worker) {
+                if (worker.pixels == null || worker.pixels.length < length) {
+                    worker.pixels = new int[tileSize];
+                }
+                LumaConverter.readRow(worker.regionBitmap, x - worker.region.left,
+                        y - worker.region.top, length, worker.pixels, out, offset);
+            }
+        });
+    }
+
+    /**
+     * Stops the workers and closes their detectors.
+     */
+    public void close() {
+        executor.shutdownNow();
+        for (Worker worker : workers) {
+            worker.detector.close();
+        }
+    }
+
+    @NonNull
+    private List<DecodedBarcode> decode(int width, int height, final LumaSource source)
+            throws InterruptedException, ExecutionException {
+        final int tileWidth = Math.min(tileSize, width & ~1);
+        final int tileHeight = Math.min(tileSize, height & ~1);
+        if (tileWidth == 0 || tileHeight == 0) {
+            return new ArrayList<>();
+        }
+        int[] columns = tileStarts(width, tileWidth, overlap);
+        int[] rows = tileStarts(height, tileHeight, overlap);
+
+        List<Future<List<DecodedBarcode>>> futures = new ArrayList<>();
+        for (final int top : rows) {
+            for (final int left : columns) {
+                futures.add(executor.submit(
+                        () -> decodeTile(source, left, top, tileWidth, tileHeight)));
+            }
+        }
+        List<DecodedBarcode> results = new ArrayList<>();
+        try {
+            for (Future<List<DecodedBarcode>> future : futures) {
+                results.addAll(future.get());
+            }
+        } finally {
+            for (Future<List<DecodedBarcode>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return merge(results);
+    }
+
+    private List<DecodedBarcode> decodeTile(LumaSource source, int left, int top, int width,
+                                            int height) throws Exception {
+        Worker worker = idleWorkers.take();
+        try {
+            byte[] tile = worker.tile;
+            source.beginTile(left, top, width, height, worker);
+            for (int row = 0; row < height; row++) {
+                source.readRow(left, top + row, width, tile, row * width, worker);
+            }
+            int chromaStart = width * height;
+            if (worker.chromaStart != chromaStart) {
+                Arrays.fill(tile, chromaStart, chromaStart + chromaStart / 2, (byte) 128);
+                worker.chromaStart = chromaStart;
+            }
+            List<DecodedBarcode> found = worker.detector.detect(tile, width, height);
+            List<DecodedBarcode> results = new ArrayList<>(found.size());
+            for (DecodedBarcode barcode : found) {
+                results.add(barcode.offset(left, top));
+            }
+            return results;
+        } finally {
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Returns the starts of tiles of the given size covering a length, with neighbouring tiles
+     * overlapping by at least {@code overlap}. The last tile ends at the end of the length.
+     */
+    @NonNull
+    static int[] tileStarts(int length, int tile, int overlap) {
+        int step = Math.max(1, tile - overlap);
+        int count = length <= tile ? 1 : (length - tile + step - 1) / step + 1;
+        int[] starts = new int[count];
+        for (int i = 0; i < count - 1; i++) {
+            starts[i] = i * step;
+        }
+        starts[count - 1] = Math.max(0, length - tile);
+        return starts;
+    }
+
+    /**
+     * Reports barcodes read in several overlapping tiles once, with the union of their boxes.
+     */
+    @NonNull
+    static List<DecodedBarcode> merge(@NonNull List<DecodedBarcode> barcodes) {
+        List<DecodedBarcode> merged = new ArrayList<>(barcodes.size());
+        for (DecodedBarcode barcode : barcodes) {
+            int match = -1;
+            for (int i = 0; i < merged.size(); i++) {
+                DecodedBarcode other = merged.get(i);
+                if (other.getFormat() == barcode.getFormat()
+                        && other.getRawValue().equals(barcode.getRawValue())
+                        && other.getLeft() < barcode.getRight()
+                        && barcode.getLeft() < other.getRight()
+                        && other.getTop() < barcode.getBottom()
+                        && barcode.getTop() < other.getBottom()) {
+                    match = i;
+                    break;
+                }
+            }
+            if (match < 0) {
+                merged.add(barcode);
+                continue;
+            }
+            DecodedBarcode other = merged.get(match);
+            merged.set(match, new DecodedBarcode(barcode.getRawValue(), barcode.getFormat(),
+                    Math.min(other.getLeft(), barcode.getLeft()),
+                    Math.min(other.getTop(), barcode.getTop()),
+                    Math.max(other.getRight(), barcode.getRight()),
+                    Math.max(other.getBottom(), barcode.getBottom()),
+                    other.getBarcode()));
+        }
+        return merged;
+    }
+}
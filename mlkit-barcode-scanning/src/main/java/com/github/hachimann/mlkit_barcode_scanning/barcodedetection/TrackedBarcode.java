@@ -0,0 +1,28 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import androidx.annotation.NonNull;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+/**
+ * A barcode found in multi-barcode mode, with an ID that stays the same while the barcode stays
+ * in view.
+ */
+public final class TrackedBarcode {
+    private final int id;
+    private final Barcode barcode;
+
+    public TrackedBarcode(int id, @NonNull Barcode barcode) {
+        this.id = id;
+        this.barcode = barcode;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @NonNull
+    public Barcode getBarcode() {
+        return barcode;
+    }
+}
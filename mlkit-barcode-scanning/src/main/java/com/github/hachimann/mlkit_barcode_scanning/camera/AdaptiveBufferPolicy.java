@@ -0,0 +1,84 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+/**
+ * Decides how many preview buffers a {@link PreviewBufferRing} should hold, from what it observes
+ * on every delivered frame.
+ *
+ * <p>A camera that runs out of buffers only costs us something when the detector is idle: if a
+ * frame is already waiting for detection, the frame the camera had to drop would have been
+ * overwritten anyway. So the pool grows when the camera starved while nothing was waiting, and
+ * shrinks when, over a whole window, it never starved and either kept spare buffers or the
+ * detector was backlogged anyway.
+ */
+final class AdaptiveBufferPolicy {
+
+    /**
+     * Number of delivered frames over which observations are gathered before a decision is made.
+     */
+    static final int WINDOW_FRAMES = 30;
+
+    /**
+     * Buffers the camera needs to keep at hand to run smoothly; see the Camera1 source.
+     */
+    private static final int MIN_SPARE_BUFFERS = 2;
+
+    private final int minCapacity;
+    private final int maxCapacity;
+
+    private int frames;
+    private int starvedFrames;
+    private int backlogFrames;
+    private int minCameraOwned = Integer.MAX_VALUE;
+
+    AdaptiveBufferPolicy(int minCapacity, int maxCapacity) {
+        this.minCapacity = minCapacity;
+        this.maxCapacity = maxCapacity;
+    }
+
+    int getMinCapacity() {
+        return minCapacity;
+    }
+
+    int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * Records one delivered frame.
+     *
+     * @param capacity    current number of buffers
+     * @param cameraOwned buffers the camera still has after delivering the frame
+     * @param backlog     frames that were already waiting for detection when this one arrived
+     * @return the capacity the pool should have from now on
+     */
+    int onFrameDelivered(int capacity, int cameraOwned, int backlog) {
+        frames++;
+        if (backlog > 0) {
+            backlogFrames++;
+        } else if (cameraOwned == 0) {
+            starvedFrames++;
+        }
+        minCameraOwned = Math.min(minCameraOwned, cameraOwned);
+
+        if (frames < WINDOW_FRAMES) {
+            return clamp(capacity);
+        }
+
+        int target = capacity;
+        if (starvedFrames > 0) {
+            target = capacity + 1;
+        } else if (minCameraOwned > MIN_SPARE_BUFFERS || backlogFrames * 2 > frames) {
+            target = capacity - 1;
+        }
+
+        frames = 0;
+        starvedFrames = 0;
+        backlogFrames = 0;
+        minCameraOwned = Integer.MAX_VALUE;
+        return clamp(target);
+    }
+
+    private int clamp(int capacity) {
+        return Math.max(minCapacity, Math.min(maxCapacity, capacity));
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Schedules the region of interest detection runs on. It starts from a tight region, widens it
+ * after a number of frames without a hit and eventually falls back to the whole frame. As soon as
+ * something is found it snaps back to the smallest region that contains the hit.
+ *
+ * <p>Regions are fractions of the upright frame, stored as {left, top, right, bottom}. Level 0 is
+ * the base region, the last level is the whole frame and the levels in between are spread evenly
+ * between the two.
+ */
+final class AdaptiveRegionPolicy {
+
+    static final int LEVEL_COUNT = 3;
+
+    private static final float[] FULL_FRAME = {0f, 0f, 1f, 1f};
+
+    private final int missesBeforeWidening;
+
+    private final float[] baseRegion = FULL_FRAME.clone();
+    private final float[] scratchRegion = new float[4];
+    private final long[] attempts = new long[LEVEL_COUNT];
+    private final long[] hits = new long[LEVEL_COUNT];
+
+    private int level;
+    private int misses;
+
+    AdaptiveRegionPolicy(int missesBeforeWidening) {
+        if (missesBeforeWidening < 1) {
+            throw new IllegalArgumentException("Invalid miss count: " + missesBeforeWidening);
+        }
+        this.missesBeforeWidening = missesBeforeWidening;
+    }
+
+    /**
+     * Returns the level the next frame should be detected at.
+     */
+    synchronized int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the region of level 0.
+     */
+    synchronized void setBaseRegion(float left, float top, float right, float bottom) {
+        baseRegion[0] = left;
+        baseRegion[1] = top;
+        baseRegion[2] = right;
+        baseRegion[3] = bottom;
+    }
+
+    /**
+     * Writes the region of the given level into {@code out}.
+     *
+     * @return false if the level covers the whole frame
+     */
+    synchronized boolean getRegion(int level, @NonNull float[] out) {
+        float t = (float) level / (LEVEL_COUNT - 1);
+        for (int i = 0; i < 4; i++) {
+            out[i] = baseRegion[i] + (FULL_FRAME[i] - baseRegion[i]) * t;
+        }
+        return level < LEVEL_COUNT - 1;
+    }
+
+    /**
+     * Records the outcome of a frame detected at the given level.
+     *
+     * @param hit the bounds of what was found as fractions of the upright frame, or null for a miss
+     */
+    synchronized void onResult(int level, @Nullable float[] hit) {
+        attempts[level]++;
+        if (hit == null) {
+            if (++misses >= missesBeforeWidening && this.level < LEVEL_COUNT - 1) {
+                this.level++;
+                misses = 0;
+            }
+            return;
+        }
+
+        hits[level]++;
+        misses = 0;
+        int smallest = 0;
+        while (smallest < LEVEL_COUNT - 1
+                && (!getRegion(smallest, scratchRegion) || !contains(scratchRegion, hit))) {
+            smallest++;
+        }
+        this.level = smallest;
+    }
+
+    /**
+     * Returns the share of frames detected at the given level that had a hit, or 0 if no frame was
+     * detected at that level yet.
+     */
+    synchronized float getHitRate(int level) {
+        return attempts[level] == 0 ? 0f : (float) hits[level] / attempts[level];
+    }
+
+    private static boolean contains(float[] region, float[] bounds) {
+        return bounds[0] >= region[0] && bounds[1] >= region[1]
+                && bounds[2] <= region[2] && bounds[3] <= region[3];
+    }
+}
@@ -0,0 +1,408 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the parts of a frame that may hold a barcode, so the detector can skip frames without any
+ * and only look at the candidates otherwise.
+ *
+ * <p>The luma plane is point-sampled down to about {@value #TARGET_SIZE} pixels on the long side
+ * and split into cells of {@value #CELL} x {@value #CELL} samples. Each cell gets the structure
+ * tensor of its gradients: cells with strong gradients that mostly point one way look like bars,
+ * cells with strong gradients in all directions look like 2D codes. Rows are also scanned for the
+ * 1:1:3:1:1 runs of QR finder patterns. Neighbouring candidate cells are grouped, and every group
+ * becomes a candidate region in pixels of the frame. All buffers are kept between frames, so
+ * localising allocates nothing once the frame size settles.
+ */
+final class BarcodeLocalizer {
+
+    static final int TYPE_LINEAR = 1;
+    static final int TYPE_MATRIX = 2;
+
+    static final int TARGET_SIZE = 160;
+    static final int CELL = 8;
+
+    /**
+     * Mean squared gradient a cell needs to be a candidate, roughly an edge of 20 levels per pixel.
+     */
+    static final int MIN_ENERGY = 400;
+
+    /**
+     * Share of the gradient energy along the dominant direction above which a cell looks like bars.
+     */
+    static final float MIN_COHERENCE = 0.6f;
+
+    /**
+     * Cells a group needs to be a candidate, unless it holds a finder pattern.
+     */
+    static final int MIN_CELLS = 2;
+
+    static final int MAX_CANDIDATES = 8;
+
+    private byte[] samples = new byte[0];
+    private byte[] cellTypes = new byte[0];
+    private boolean[] finderCells = new boolean[0];
+    private int[] labels = new int[0];
+    private int[] stack = new int[0];
+    // The sliding window of the row scan, and the runs of the column checked from its centre.
+    private final int[] runs = new int[5];
+    private final int[] columnRuns = new int[5];
+
+    private int sampleWidth;
+    private int sampleHeight;
+    private int factor;
+    private int cellColumns;
+    private int cellRows;
+
+    private final int[] candidates = new int[MAX_CANDIDATES * 4];
+    private final int[] candidateTypes = new int[MAX_CANDIDATES];
+    private int candidateCount;
+    private final int[] union = new int[4];
+
+    private volatile long localizedFrames;
+    private volatile long emptyFrames;
+
+    /**
+     * Looks for candidate regions in the frame. Must be called from one thread at a time.
+     *
+     * @return the number of candidates found, at most {@value #MAX_CANDIDATES}
+     */
+    int locate(@NonNull Frame frame) {
+        candidateCount = 0;
+        localizedFrames++;
+        if (sample(frame)) {
+            classifyCells();
+            findFinderPatterns();
+            groupCells(frame.getWidth(), frame.getHeight());
+        }
+        if (candidateCount == 0) {
+            emptyFrames++;
+        }
+        return candidateCount;
+    }
+
+    int getCandidateCount() {
+        return candidateCount;
+    }
+
+    /**
+     * Returns {@link #TYPE_LINEAR} or {@link #TYPE_MATRIX} for the given candidate.
+     */
+    int getCandidateType(int index) {
+        return candidateTypes[index];
+    }
+
+    /**
+     * Writes the left, top, right and bottom edge of the given candidate into the array, in pixels
+     * of the frame as the sensor delivered it. Right and bottom are exclusive.
+     */
+    void getCandidateBounds(int index, @NonNull int[] bounds) {
+        System.arraycopy(candidates, index * 4, bounds, 0, 4);
+    }
+
+    /**
+     * Writes the bounds of the region holding every candidate, as {@link
+     * #getCandidateBounds(int, int[])} does.
+     */
+    void getUnionBounds(@NonNull int[] bounds) {
+        System.arraycopy(union, 0, bounds, 0, 4);
+    }
+
+    long getLocalizedFrameCount() {
+        return localizedFrames;
+    }
+
+    /**
+     * Returns the number of frames in which no candidate was found.
+     */
+    long getEmptyFrameCount() {
+        return emptyFrames;
+    }
+
+    /**
+     * Point-samples the luma plane. Averaging would blur thin bars into grey, while sampling keeps
+     * their edges even when the bars alias.
+     *
+     * @return false if the frame is too small to hold a single cell
+     */
+    private boolean sample(Frame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        factor = Math.max(1, Math.max(width, height) / TARGET_SIZE);
+        sampleWidth = width / factor;
+        sampleHeight = height / factor;
+        cellColumns = sampleWidth / CELL;
+        cellRows = sampleHeight / CELL;
+        if (cellColumns == 0 || cellRows == 0) {
+            return false;
+        }
+
+        int size = sampleWidth * sampleHeight;
+        if (samples.length < size) {
+            samples = new byte[size];
+        }
+        int cells = cellColumns * cellRows;
+        if (cellTypes.length < cells) {
+            cellTypes = new byte[cells];
+            finderCells = new boolean[cells];
+            labels = new int[cells];
+            stack = new int[cells];
+        }
+
+        ByteBuffer yBuffer = frame.getYBuffer();
+        byte[] array = yBuffer.hasArray() ? yBuffer.array() : null;
+        int base = frame.getYOffset() + (array != null ? yBuffer.arrayOffset() : 0);
+        int rowStride = frame.getYRowStride();
+        int index = 0;
+        for (int y = 0; y < sampleHeight; y++) {
+            int row = base + y * factor * rowStride;
+            for (int x = 0; x < sampleWidth; x++) {
+                int column = row + x * factor;
+                samples[index++] = array != null ? array[column] : yBuffer.get(column);
+            }
+        }
+        return true;
+    }
+
+    private void classifyCells() {
+        byte[] s = samples;
+        int stride = sampleWidth;
+        for (int cellY = 0; cellY < cellRows; cellY++) {
+            for (int cellX = 0; cellX < cellColumns; cellX++) {
+                // Central differences, so the outermost samples of the image are left out.
+                int left = Math.max(1, cellX * CELL);
+                int top = Math.max(1, cellY * CELL);
+                int right = Math.min(sampleWidth - 1, (cellX + 1) * CELL);
+                int bottom = Math.min(sampleHeight - 1, (cellY + 1) * CELL);
+                long xx = 0;
+                long yy = 0;
+                long xy = 0;
+                for (int y = top; y < bottom; y++) {
+                    int row = y * stride;
+                    for (int x = left; x < right; x++) {
+                        int i = row + x;
+                        int gx = (s[i + 1] & 0xff) - (s[i - 1] & 0xff);
+                        int gy = (s[i + stride] & 0xff) - (s[i - stride] & 0xff);
+                        xx += gx * gx;
+                        yy += gy * gy;
+                        xy += gx * gy;
+                    }
+                }
+                int cell = cellY * cellColumns + cellX;
+                finderCells[cell] = false;
+                long count = (long) (right - left) * (bottom - top);
+                long energy = xx + yy;
+                if (count == 0 || energy < MIN_ENERGY * count) {
+                    cellTypes[cell] = 0;
+                    continue;
+                }
+                // Coherence is (l1 - l2) / (l1 + l2) for the eigenvalues l1 >= l2 of the tensor.
+                double difference = xx - yy;
+                double coherence = Math.sqrt(difference * difference + 4.0 * xy * xy) / energy;
+                cellTypes[cell] = (byte) (coherence >= MIN_COHERENCE ? TYPE_LINEAR : TYPE_MATRIX);
+            }
+        }
+    }
+
+    /**
+     * Scans every row for dark-light-dark-light-dark runs in the ratio 1:1:3:1:1 and checks the
+     * column through the centre of each for the same ratio. The cells of confirmed centres are
+     * marked as matrix candidates.
+     */
+    private void findFinderPatterns() {
+        int threshold = meanSample();
+        for (int y = 0; y < sampleHeight; y++) {
+            int row = y * sampleWidth;
+            int runCount = 0;
+            boolean dark = false;
+            int runLength = 0;
+            for (int x = 0; x <= sampleWidth; x++) {
+                boolean pixelDark = x < sampleWidth && (samples[row + x] & 0xff) < threshold;
+                if (x < sampleWidth && pixelDark == dark) {
+                    runLength++;
+                    continue;
+                }
+                if (dark || runCount > 0) {
+                    if (runCount == runs.length) {
+                        System.arraycopy(runs, 2, runs, 0, runs.length - 2);
+                        runCount -= 2;
+                    }
+                    runs[runCount++] = runLength;
+                    if (runCount == runs.length && dark && hasFinderRatio(runs)) {
+                        int center = x - runs[4] - runs[3] - (runs[2] + 1) / 2;
+                        if (checkColumn(center, y, threshold)) {
+                            markFinder(center, y);
+                        }
+                    }
+                }
+                dark = pixelDark;
+                runLength = 1;
+            }
+        }
+    }
+
+    private boolean checkColumn(int x, int y, int threshold) {
+        // Walk up and down from the centre through the dark core, the light ring and the dark rim.
+        int[] column = columnRuns;
+        Arrays.fill(column, 0);
+        int top = y;
+        while (top >= 0 && isDark(x, top, threshold)) {
+            column[2]++;
+            top--;
+        }
+        while (top >= 0 && !isDark(x, top, threshold)) {
+            column[1]++;
+            top--;
+        }
+        while (top >= 0 && isDark(x, top, threshold)) {
+            column[0]++;
+            top--;
+        }
+        int bottom = y + 1;
+        while (bottom < sampleHeight && isDark(x, bottom, threshold)) {
+            column[2]++;
+            bottom++;
+        }
+        while (bottom < sampleHeight && !isDark(x, bottom, threshold)) {
+            column[3]++;
+            bottom++;
+        }
+        while (bottom < sampleHeight && isDark(x, bottom, threshold)) {
+            column[4]++;
+            bottom++;
+        }
+        return hasFinderRatio(column);
+    }
+
+    private boolean isDark(int x, int y, int threshold) {
+        return (samples[y * sampleWidth + x] & 0xff) < threshold;
+    }
+
+    private void markFinder(int x, int y) {
+        int cellX = Math.min(cellColumns - 1, x / CELL);
+        int cellY = Math.min(cellRows - 1, y / CELL);
+        int cell = cellY * cellColumns + cellX;
+        finderCells[cell] = true;
+        cellTypes[cell] = TYPE_MATRIX;
+    }
+
+    private static boolean hasFinderRatio(int[] runs) {
+        int total = 0;
+        for (int run : runs) {
+            if (run == 0) {
+                return false;
+            }
+            total += run;
+        }
+        if (total < 7) {
+            return false;
+        }
+        // Compare in sevenths of a module to stay in integers: each run may be off by half a module.
+        int module = total;
+        int variance = module / 2;
+        return Math.abs(module - runs[0] * 7) < variance
+                && Math.abs(module - runs[1] * 7) < variance
+                && Math.abs(3 * module - runs[2] * 7) < 3 * variance
+                && Math.abs(module - runs[3] * 7) < variance
+                && Math.abs(module - runs[4] * 7) < variance;
+    }
+
+    private int meanSample() {
+        long sum = 0;
+        int size = sampleWidth * sampleHeight;
+        for (int i = 0; i < size; i++) {
+            sum += samples[i] & 0xff;
+        }
+        return (int) (sum / size);
+    }
+
+    /**
+     * Groups 4-connected candidate cells and turns every group that is large enough, or holds a
+     * finder pattern, into a candidate with a margin of one cell.
+     */
+    private void groupCells(int frameWidth, int frameHeight) {
+        int cells = cellColumns * cellRows;
+        for (int i = 0; i < cells; i++) {
+            labels[i] = 0;
+        }
+        union[0] = Integer.MAX_VALUE;
+        union[1] = Integer.MAX_VALUE;
+        union[2] = 0;
+        union[3] = 0;
+
+        int label = 0;
+        for (int start = 0; start < cells; start++) {
+            if (cellTypes[start] == 0 || labels[start] != 0) {
+                continue;
+            }
+            label++;
+            int size = 0;
+            int linear = 0;
+            boolean finder = false;
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = 0;
+            int maxY = 0;
+            int top = 0;
+            stack[top++] = start;
+            labels[start] = label;
+            while (top > 0) {
+                int cell = stack[--top];
+                int cellX = cell % cellColumns;
+                int cellY = cell / cellColumns;
+                size++;
+                if (cellTypes[cell] == TYPE_LINEAR) {
+                    linear++;
+                }
+                finder |= finderCells[cell];
+                minX = Math.min(minX, cellX);
+                minY = Math.min(minY, cellY);
+                maxX = Math.max(maxX, cellX);
+                maxY = Math.max(maxY, cellY);
+                top = push(cellX - 1, cellY, label, top);
+                top = push(cellX + 1, cellY, label, top);
+                top = push(cellX, cellY - 1, label, top);
+                top = push(cellX, cellY + 1, label, top);
+            }
+            if (size < MIN_CELLS && !finder) {
+                continue;
+            }
+
+            int cellSize = CELL * factor;
+            int left = Math.max(0, (minX - 1) * cellSize);
+            int topEdge = Math.max(0, (minY - 1) * cellSize);
+            int right = Math.min(frameWidth, (maxX + 2) * cellSize);
+            int bottom = Math.min(frameHeight, (maxY + 2) * cellSize);
+            union[0] = Math.min(union[0], left);
+            union[1] = Math.min(union[1], topEdge);
+            union[2] = Math.max(union[2], right);
+            union[3] = Math.max(union[3], bottom);
+            if (candidateCount < MAX_CANDIDATES) {
+                int offset = candidateCount * 4;
+                candidates[offset] = left;
+                candidates[offset + 1] = topEdge;
+                candidates[offset + 2] = right;
+                candidates[offset + 3] = bottom;
+                candidateTypes[candidateCount] = !finder && linear * 2 > size
+                        ? TYPE_LINEAR : TYPE_MATRIX;
+                candidateCount++;
+            }
+        }
+    }
+
+    private int push(int cellX, int cellY, int label, int top) {
+        if (cellX < 0 || cellY < 0 || cellX >= cellColumns || cellY >= cellRows) {
+            return top;
+        }
+        int cell = cellY * cellColumns + cellX;
+        if (cellTypes[cell] == 0 || labels[cell] != 0) {
+            return top;
+        }
+        labels[cell] = label;
+        stack[top++] = cell;
+        return top;
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.hardware.Camera.CameraInfo;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FrameSource} backed by the deprecated {@link Camera} API. Preview frames are delivered in
+ * NV21 format through {@link Camera#setPreviewCallbackWithBuffer}.
+ */
+@SuppressWarnings("deprecation")
+public class Camera1FrameSource implements FrameSource {
+
+    public static final int IMAGE_FORMAT = ImageFormat.NV21;
+
+    private static final String TAG = "MIDemoApp:Camera1Source";
+
+    /**
+     * If the absolute difference between a preview size aspect ratio and a picture size aspect ratio
+     * is less than this tolerance, they are considered to be the same aspect ratio.
+     */
+    private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
+
+    private static final float REQUESTED_FPS = 30.0f;
+    private static final boolean REQUESTED_AUTO_FOCUS = true;
+
+    private final Activity activity;
+    private final GraphicOverlay graphicOverlay;
+
+    private Camera camera;
+
+    private int facing = CameraSource.CAMERA_FACING_BACK;
+
+    /**
+     * Rotation of the device, and thus the associated preview images captured from the device.
+     */
+    private int rotationDegrees;
+
+    private Size previewSize;
+
+    private FrameMetadata frameMetadata;
+
+    @Nullable
+    private volatile FrameListener frameListener;
+
+    /**
+     * Preview buffers shared with the camera. The ring is kept across stop() / start() cycles.
+     */
+    private final PreviewBufferRing bufferRing =
+            new PreviewBufferRing(DEFAULT_PREVIEW_BUFFER_COUNT);
+
+    public Camera1FrameSource(Activity activity, GraphicOverlay graphicOverlay) {
+        this.activity = activity;
+        this.graphicOverlay = graphicOverlay;
+    }
+
+    @Override
+    public void setFrameListener(@Nullable FrameListener listener) {
+        frameListener = listener;
+    }
+
+    @Override
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public synchronized void start(@NonNull SurfaceHolder surfaceHolder) throws IOException {
+        if (camera != null) {
+            return;
+        }
+
+        camera = createCamera();
+        camera.setPreviewDisplay(surfaceHolder);
+        camera.startPreview();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (camera != null) {
+            camera.stopPreview();
+            camera.setPreviewCallbackWithBuffer(null);
+            try {
+                camera.setPreviewTexture(null);
+                camera.setPreviewDisplay(null);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to clear camera preview: " + e);
+            }
+            bufferRing.detach();
+            camera.release();
+            camera = null;
+        }
+    }
+
+    @Override
+    public synchronized void setFacing(int facing) {
+        if ((facing != CameraSource.CAMERA_FACING_BACK)
+                && (facing != CameraSource.CAMERA_FACING_FRONT)) {
+            throw new IllegalArgumentException("Invalid camera: " + facing);
+        }
+        this.facing = facing;
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return facing;
+    }
+
+    @Nullable
+    @Override
+    public Size getPreviewSize() {
+        return previewSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>When the counts differ, the ring grows while the camera is starved of buffers with the
+     * detector idle and shrinks again while buffers stay unused or the detector is backlogged.
+     */
+    @Override
+    public void setPreviewBufferCount(int minCount, int maxCount) {
+        if (minCount > maxCount) {
+            throw new IllegalArgumentException(
+                    "Invalid buffer counts: " + minCount + " > " + maxCount);
+        }
+        bufferRing.setPolicy(minCount == maxCount
+                ? null : new AdaptiveBufferPolicy(minCount, maxCount));
+        bufferRing.setCapacity(Math.max(minCount, Math.min(maxCount, bufferRing.getCapacity())));
+    }
+
+    @NonNull
+    @Override
+    public PreviewBufferStats getPreviewBufferStats() {
+        return bufferRing.getStats();
+    }
+
+    @Override
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    @Override
+    public synchronized void updateFlashMode(@NonNull String flashMode) {
+        if (camera == null) {
+            return;
+        }
+        Camera.Parameters parameters = camera.getParameters();
+        parameters.setFlashMode(flashMode);
+        camera.setParameters(parameters);
+    }
+
+    @Override
+    public synchronized boolean capturePicture(@NonNull PictureListener listener) {
+        if (camera == null) {
+            return false;
+        }
+        camera.takePicture(null, null, (data, pictureCamera) -> {
+            synchronized (Camera1FrameSource.this) {
+                // Taking a picture stops the preview; resume it unless the source was stopped.
+                if (camera == pictureCamera) {
+                    camera.startPreview();
+                }
+            }
+            if (data != null) {
+                listener.onPicture(data);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Opens the camera and applies the user settings.
+     *
+     * @throws IOException if camera cannot be found or preview cannot be processed
+     */
+    @SuppressLint("InlinedApi")
+    private Camera createCamera() throws IOException {
+        int requestedCameraId = getIdForRequestedCamera(facing);
+        if (requestedCameraId == -1) {
+            throw new IOException("Could not find requested camera.");
+        }
+        Camera camera = Camera.open(requestedCameraId);
+
+        Camera.Parameters parameters = camera.getParameters();
+
+        //Selects the optimal camera preview size compatible with the screen size.
+        SizePair sizePair = getOptimalPreviewSize(
+                generateValidPreviewSizeList(camera),
+                graphicOverlay.getWidth(),
+                graphicOverlay.getHeight()
+        );
+
+        if (sizePair == null || sizePair.picture == null) {
+            throw new IOException("Could not find suitable preview size.");
+        }
+
+        previewSize = sizePair.preview;
+        Log.v(TAG, "Camera preview size: " + previewSize);
+
+        int[] previewFpsRange = selectPreviewFpsRange(camera, REQUESTED_FPS);
+        if (previewFpsRange == null) {
+            throw new IOException("Could not find suitable preview frames per second range.");
+        }
+
+        Size pictureSize = sizePair.picture;
+        Log.v(TAG, "Camera picture size: " + pictureSize);
+        parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        parameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
+        parameters.setPreviewFpsRange(
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        // Use YV12 so that we can exercise YV12->NV21 auto-conversion logic for OCR detection
+        parameters.setPreviewFormat(IMAGE_FORMAT);
+
+        setRotation(camera, parameters, requestedCameraId);
+
+        if (REQUESTED_AUTO_FOCUS) {
+            if (parameters
+                    .getSupportedFocusModes()
+                    .contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
+                parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+            } else {
+                Log.i(TAG, "Camera auto focus is not supported on this device.");
+            }
+        }
+
+        camera.setParameters(parameters);
+
+        frameMetadata = new FrameMetadata.Builder()
+                .setWidth(previewSize.getWidth())
+                .setHeight(previewSize.getHeight())
+                .setRotation(rotationDegrees)
+                .build();
+
+        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+        bufferRing.prepare(frameMetadata, getPreviewBufferSize(previewSize));
+        bufferRing.attach(camera::addCallbackBuffer);
+
+        return camera;
+    }
+
+    private SizePair getOptimalPreviewSize(List<SizePair> validPreviewSizes, int w, int h) {
+        final double ASPECT_TOLERANCE = 0.1;
+        double targetRatio = (double) h / w;
+
+        if (validPreviewSizes == null) return null;
+
+        SizePair optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
+
+        for (SizePair sizePair : validPreviewSizes) {
+            Size preview = sizePair.preview;
+            double ratio = (double) preview.getWidth() / preview.getHeight();
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(preview.getWidth() - h) < minDiff) {
+                optimalSize = sizePair;
+                minDiff = Math.abs(preview.getWidth() - h);
+            }
+        }
+
+        double minRatio = Double.MAX_VALUE;
+
+        if (optimalSize == null) {
+            for (SizePair sizePair : validPreviewSizes) {
+                Size preview = sizePair.preview;
+                double ratio = (double) preview.getWidth() / preview.getHeight();
+                if (Math.abs(ratio - targetRatio) > minRatio) continue;
+                minRatio = Math.abs(ratio - targetRatio);
+                optimalSize = sizePair;
+            }
+        }
+        return optimalSize;
+    }
+
+    /**
+     * Gets the id for the camera specified by the direction it is facing. Returns -1 if no such
+     * camera was found.
+     *
+     * @param facing the desired camera (front-facing or rear-facing)
+     */
+    private static int getIdForRequestedCamera(int facing) {
+        CameraInfo cameraInfo = new CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); ++i) {
+            Camera.getCameraInfo(i, cameraInfo);
+            if (cameraInfo.facing == facing) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Selects the most suitable preview and picture size, given the desired width and height.
+     *
+     * <p>Even though we only need to find the preview size, it's necessary to find both the preview
+     * size and the picture size of the camera together, because these need to have the same aspect
+     * ratio. On some hardware, if you would only set the preview size, you will get a distorted
+     * image.
+     *
+     * @param camera        the camera to select a preview size from
+     * @param desiredWidth  the desired width of the camera preview frames
+     * @param desiredHeight the desired height of the camera preview frames
+     * @return the selected preview and picture size pair
+     */
+    public static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+
+        // The method for selecting the best size is to minimize the sum of the differences between
+        // the desired values and the actual values for width and height.  This is certainly not the
+        // only way to select the best size, but it provides a decent tradeoff between using the
+        // closest aspect ratio vs. using the closest pixel area.
+        SizePair selectedPair = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (SizePair sizePair : validPreviewSizes) {
+            Size size = sizePair.preview;
+            int diff =
+                    Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
+            if (diff < minDiff) {
+                selectedPair = sizePair;
+                minDiff = diff;
+            }
+        }
+
+        return selectedPair;
+    }
+
+    /**
+     * Stores a preview size and a corresponding same-aspect-ratio picture size. To avoid distorted
+     * preview images on some devices, the picture size must be set to a size that is the same aspect
+     * ratio as the preview size or the preview may end up being distorted. If the picture size is
+     * null, then there is no picture size with the same aspect ratio as the preview size.
+     */
+    public static class SizePair {
+        public final Size preview;
+        @Nullable
+        public final Size picture;
+
+        SizePair(Camera.Size previewSize, @Nullable Camera.Size pictureSize) {
+            preview = new Size(previewSize.width, previewSize.height);
+            picture = pictureSize != null ? new Size(pictureSize.width, pictureSize.height) : null;
+        }
+
+        public SizePair(Size previewSize, @Nullable Size pictureSize) {
+            preview = previewSize;
+            picture = pictureSize;
+        }
+    }
+
+    /**
+     * Generates a list of acceptable preview sizes. Preview sizes are not acceptable if there is not
+     * a corresponding picture size of the same aspect ratio. If there is a corresponding picture size
+     * of the same aspect ratio, the picture size is paired up with the preview size.
+     *
+     * <p>This is necessary because even if we don't use still pictures, the still picture size must
+     * be set to a size that is the same aspect ratio as the preview size we choose. Otherwise, the
+     * preview images may be distorted on some devices.
+     */
+    public static List<SizePair> generateValidPreviewSizeList(Camera camera) {
+        Camera.Parameters parameters = camera.getParameters();
+        List<Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+        List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+        List<SizePair> validPreviewSizes = new ArrayList<>();
+        for (Camera.Size previewSize : supportedPreviewSizes) {
+            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
+
+            // By looping through the picture sizes in order, we favor the higher resolutions.
+            // We choose the highest resolution in order to support taking the full resolution
+            // picture later.
+            for (Camera.Size pictureSize : supportedPictureSizes) {
+                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
+                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
+                    validPreviewSizes.add(new SizePair(previewSize, pictureSize));
+                    break;
+                }
+            }
+        }
+
+        // If there are no picture sizes with the same aspect ratio as any preview sizes, allow all
+        // of the preview sizes and hope that the camera can handle it.  Probably unlikely, but we
+        // still account for it.
+        if (validPreviewSizes.size() == 0) {
+            Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
+            for (Camera.Size previewSize : supportedPreviewSizes) {
+                // The null picture size will let us know that we shouldn't set a picture size.
+                validPreviewSizes.add(new SizePair(previewSize, null));
+            }
+        }
+
+        return validPreviewSizes;
+    }
+
+    /**
+     * Selects the most suitable preview frames per second range, given the desired frames per second.
+     *
+     * @param camera            the camera to select a frames per second range from
+     * @param desiredPreviewFps the desired frames per second for the camera preview frames
+     * @return the selected preview frames per second range
+     */
+    @SuppressLint("InlinedApi")
+    private static int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+        // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
+        // rates.
+        int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
+
+        // Selects a range with whose upper bound is as close as possible to the desired fps while its
+        // lower bound is as small as possible to properly expose frames in low light conditions. Note
+        // that this may select a range that the desired value is outside of. For example, if the
+        // desired frame rate is 30.5, the range (30, 30) is probably more desirable than (30, 40).
+        int[] selectedFpsRange = null;
+        int minUpperBoundDiff = Integer.MAX_VALUE;
+        int minLowerBound = Integer.MAX_VALUE;
+        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        for (int[] range : previewFpsRangeList) {
+            int upperBoundDiff =
+                    Math.abs(desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            int lowerBound = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            if (upperBoundDiff <= minUpperBoundDiff && lowerBound <= minLowerBound) {
+                selectedFpsRange = range;
+                minUpperBoundDiff = upperBoundDiff;
+                minLowerBound = lowerBound;
+            }
+        }
+        return selectedFpsRange;
+    }
+
+    /**
+     * Calculates the correct rotation for the given camera id and sets the rotation in the
+     * parameters. It also sets the camera's display orientation and rotation.
+     *
+     * @param parameters the camera parameters for which to set the rotation
+     * @param cameraId   the camera id to set rotation based on
+     */
+    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+        WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = 0;
+        int rotation = windowManager.getDefaultDisplay().getRotation();
+        switch (rotation) {
+            case Surface.ROTATION_0:
+                degrees = 0;
+                break;
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                Log.e(TAG, "Bad rotation value: " + rotation);
+        }
+
+        CameraInfo cameraInfo = new CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+
+        int displayAngle;
+        if (cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT) {
+            this.rotationDegrees = (cameraInfo.orientation + degrees) % 360;
+            displayAngle = (360 - this.rotationDegrees) % 360; // compensate for it being mirrored
+        } else { // back-facing
+            this.rotationDegrees = (cameraInfo.orientation - degrees + 360) % 360;
+            displayAngle = this.rotationDegrees;
+        }
+        Log.d(TAG, "Display rotation is: " + rotation);
+        Log.d(TAG, "Camera face is: " + cameraInfo.facing);
+        Log.d(TAG, "Camera rotation is: " + cameraInfo.orientation);
+        // This value should be one of the degrees that ImageMetadata accepts: 0, 90, 180 or 270.
+        Log.d(TAG, "RotationDegrees is: " + this.rotationDegrees);
+
+        camera.setDisplayOrientation(displayAngle);
+        parameters.setRotation(this.rotationDegrees);
+    }
+
+    /**
+     * Returns the size of one buffer for the camera preview callback. The size of the buffer is based
+     * off of the camera preview size and the format of the camera image.
+     */
+    @SuppressLint("InlinedApi")
+    private static int getPreviewBufferSize(Size previewSize) {
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
+        long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
+        return (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    }
+
+    /**
+     * Returns the number of buffers received from the camera that don't belong to the buffer ring.
+     */
+    public long getUnknownBufferCount() {
+        return bufferRing.getUnknownBufferCount();
+    }
+
+    /**
+     * Returns the number of buffers received from the camera while it wasn't supposed to own them.
+     */
+    public long getStaleBufferCount() {
+        return bufferRing.getStaleBufferCount();
+    }
+
+    /**
+     * Returns the number of frames that were released more than once or after their buffer was
+     * dropped.
+     */
+    public long getStaleReleaseCount() {
+        return bufferRing.getStaleReleaseCount();
+    }
+
+    /**
+     * Called when the camera has a new preview frame.
+     */
+    private class CameraPreviewCallback implements Camera.PreviewCallback {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            Frame frame = bufferRing.onPreviewFrame(data);
+            if (frame == null) {
+                // Counted by the ring as unknown or stale.
+                return;
+            }
+
+            FrameListener listener = frameListener;
+            if (listener != null) {
+                listener.onFrame(frame);
+            } else {
+                frame.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FrameSource} backed by the Camera2 API. Frames are read from an {@link ImageReader} in
+ * YUV_420_888 format and handed on with their planes untouched, so no per-frame copy is made.
+ */
+public class Camera2FrameSource implements FrameSource {
+
+    private static final String TAG = "MIDemoApp:Camera2Source";
+
+    private static final int REQUESTED_FPS = 30;
+
+    private static final long CAMERA_LOCK_TIMEOUT_MS = 2500;
+
+    private final Activity activity;
+    private final GraphicOverlay graphicOverlay;
+
+    /**
+     * Prevents the app from exiting before closing the camera, and {@link #start} from running while
+     * a previous camera device is still being opened or closed.
+     */
+    private final Semaphore cameraOpenCloseLock = new Semaphore(1);
+
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+
+    // The camera callbacks run on the background thread and must never wait for the monitor of
+    // this source, since stop() holds it while joining that thread.
+    @Nullable
+    private volatile CameraDevice cameraDevice;
+    @Nullable
+    private volatile CameraCaptureSession captureSession;
+    @Nullable
+    private volatile CaptureRequest.Builder previewRequestBuilder;
+    @Nullable
+    private volatile ImageReader imageReader;
+    // The frames wrapping the images of the current reader.
+    @Nullable
+    private volatile ReaderFrames readerFrames;
+    @Nullable
+    private volatile Surface previewSurface;
+
+    /**
+     * Whether {@link #cameraOpenCloseLock} is held on behalf of a camera that is still opening.
+     */
+    private final AtomicBoolean openPending = new AtomicBoolean();
+
+    private int facing = CameraSource.CAMERA_FACING_BACK;
+    private int rotationDegrees;
+    private Size previewSize;
+    private FrameMetadata frameMetadata;
+    @Nullable
+    private Range<Integer> fpsRange;
+    private boolean flashSupported;
+
+    @Nullable
+    private volatile FrameListener frameListener;
+
+    /**
+     * Images the reader lets us hold at once. Besides the buffers the pipeline holds, {@link
+     * ImageReader#acquireLatestImage()} needs one more to skip ahead to the newest image.
+     */
+    private volatile int maxImages = DEFAULT_PREVIEW_BUFFER_COUNT + 1;
+
+    private final AtomicLong starvedFrames = new AtomicLong();
+    private final AtomicLong staleReleases = new AtomicLong();
+
+    public Camera2FrameSource(Activity activity, GraphicOverlay graphicOverlay) {
+        this.activity = activity;
+        this.graphicOverlay = graphicOverlay;
+    }
+
+    @Override
+    public void setFrameListener(@Nullable FrameListener listener) {
+        frameListener = listener;
+    }
+
+    @Override
+    @SuppressLint("MissingPermission")
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public synchronized void start(@NonNull SurfaceHolder surfaceHolder) throws IOException {
+        if (cameraDevice != null || imageReader != null) {
+            return;
+        }
+
+        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = getIdForRequestedCamera(manager, facing);
+            if (cameraId == null) {
+                throw new IOException("Could not find requested camera.");
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (map == null) {
+                throw new IOException("Could not read camera stream configurations.");
+            }
+
+            android.util.Size selectedSize = getOptimalPreviewSize(
+                    map.getOutputSizes(ImageFormat.YUV_420_888),
+                    graphicOverlay.getWidth(),
+                    graphicOverlay.getHeight());
+            if (selectedSize == null) {
+                throw new IOException("Could not find suitable preview size.");
+            }
+            previewSize = new Size(selectedSize.getWidth(), selectedSize.getHeight());
+            Log.v(TAG, "Camera preview size: " + previewSize);
+
+            fpsRange = selectPreviewFpsRange(characteristics, REQUESTED_FPS);
+            Boolean flashAvailable = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+            flashSupported = flashAvailable != null && flashAvailable;
+
+            rotationDegrees = computeRotation(characteristics);
+            frameMetadata = new FrameMetadata.Builder()
+                    .setWidth(previewSize.getWidth())
+                    .setHeight(previewSize.getHeight())
+                    .setRotation(rotationDegrees)
+                    .build();
+
+            surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+            previewSurface = surfaceHolder.getSurface();
+
+            startBackgroundThread();
+            imageReader = ImageReader.newInstance(
+                    previewSize.getWidth(), previewSize.getHeight(),
+                    ImageFormat.YUV_420_888, maxImages);
+            readerFrames = new ReaderFrames(imageReader, staleReleases);
+            imageReader.setOnImageAvailableListener(this::onImageAvailable, backgroundHandler);
+
+            if (!cameraOpenCloseLock.tryAcquire(CAMERA_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Time out waiting to lock camera opening.");
+            }
+            openPending.set(true);
+            manager.openCamera(cameraId, new CameraStateCallback(), backgroundHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            finishOpening();
+            closeCamera();
+            throw new IOException("Could not open camera.", e);
+        } catch (InterruptedException e) {
+            closeCamera();
+            throw new IOException("Interrupted while trying to lock camera opening.", e);
+        } catch (IOException e) {
+            closeCamera();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        try {
+            cameraOpenCloseLock.acquire();
+            try {
+                closeCamera();
+            } finally {
+                cameraOpenCloseLock.release();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted while trying to lock camera closing.");
+        }
+    }
+
+    @Override
+    public synchronized void setFacing(int facing) {
+        if ((facing != CameraSource.CAMERA_FACING_BACK)
+                && (facing != CameraSource.CAMERA_FACING_FRONT)) {
+            throw new IllegalArgumentException("Invalid camera: " + facing);
+        }
+        this.facing = facing;
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return facing;
+    }
+
+    @Nullable
+    @Override
+    public Size getPreviewSize() {
+        return previewSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The image reader can't be resized while it runs, so the largest count is used and takes
+     * effect on the next {@link #start}.
+     */
+    @Override
+    public synchronized void setPreviewBufferCount(int minCount, int maxCount) {
+        if (minCount < 1 || minCount > maxCount) {
+            throw new IllegalArgumentException(
+                    "Invalid buffer counts: " + minCount + ", " + maxCount);
+        }
+        maxImages = maxCount + 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Images can't be told apart once they have left the reader, so every image held downstream
+     * is reported as pending.
+     */
+    @NonNull
+    @Override
+    public PreviewBufferStats getPreviewBufferStats() {
+        int capacity = maxImages - 1;
+        ReaderFrames frames = readerFrames;
+        int held = frames != null ? frames.getHeldCount() : 0;
+        return new PreviewBufferStats(capacity, Math.max(0, capacity - held), held, 0,
+                starvedFrames.get(), 0, 0);
+    }
+
+    /**
+     * Returns the number of frames that were released more than once.
+     */
+    public long getStaleReleaseCount() {
+        return staleReleases.get();
+    }
+
+    @Override
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public synchronized void updateFlashMode(@NonNull String flashMode) {
+        CaptureRequest.Builder builder = previewRequestBuilder;
+        CameraCaptureSession session = captureSession;
+        if (!flashSupported || builder == null || session == null) {
+            return;
+        }
+        boolean torch = android.hardware.Camera.Parameters.FLASH_MODE_TORCH.equals(flashMode);
+        builder.set(CaptureRequest.FLASH_MODE,
+                torch ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+        try {
+            session.setRepeatingRequest(builder.build(), null, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to update flash mode: " + e);
+        }
+    }
+
+    private void finishOpening() {
+        if (openPending.compareAndSet(true, false)) {
+            cameraOpenCloseLock.release();
+        }
+    }
+
+    private void closeCamera() {
+        CameraCaptureSession session = captureSession;
+        captureSession = null;
+        if (session != null) {
+            session.close();
+        }
+        CameraDevice device = cameraDevice;
+        cameraDevice = null;
+        if (device != null) {
+            device.close();
+        }
+        previewRequestBuilder = null;
+        previewSurface = null;
+        // No image is acquired once the background thread is gone.
+        stopBackgroundThread();
+        ReaderFrames frames = readerFrames;
+        readerFrames = null;
+        imageReader = null;
+        if (frames != null) {
+            frames.close();
+        }
+    }
+
+    private void startBackgroundThread() {
+        backgroundThread = new HandlerThread("Camera2FrameSource");
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (backgroundThread == null) {
+            return;
+        }
+        backgroundThread.quitSafely();
+        try {
+            backgroundThread.join();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Camera background thread interrupted on stop.");
+        }
+        backgroundThread = null;
+        backgroundHandler = null;
+    }
+
+    /**
+     * Gets the id for the camera specified by the direction it is facing. Returns null if no such
+     * camera was found.
+     */
+    @Nullable
+    private static String getIdForRequestedCamera(CameraManager manager, int facing)
+            throws CameraAccessException {
+        int lensFacing = facing == CameraSource.CAMERA_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT
+                : CameraCharacteristics.LENS_FACING_BACK;
+        for (String cameraId : manager.getCameraIdList()) {
+            Integer cameraLensFacing = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (cameraLensFacing != null && cameraLensFacing == lensFacing) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the output size closest to the aspect ratio of the overlay, preferring the one whose
+     * long side is closest to the long side of the overlay. Mirrors the Camera1 selection.
+     */
+    @Nullable
+    private static android.util.Size getOptimalPreviewSize(
+            @Nullable android.util.Size[] sizes, int w, int h) {
+        final double ASPECT_TOLERANCE = 0.1;
+        double targetRatio = (double) h / w;
+
+        if (sizes == null) return null;
+
+        android.util.Size optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
+
+        for (android.util.Size size : sizes) {
+            double ratio = (double) size.getWidth() / size.getHeight();
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(size.getWidth() - h) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(size.getWidth() - h);
+            }
+        }
+
+        double minRatio = Double.MAX_VALUE;
+
+        if (optimalSize == null) {
+            for (android.util.Size size : sizes) {
+                double ratio = (double) size.getWidth() / size.getHeight();
+                if (Math.abs(ratio - targetRatio) > minRatio) continue;
+                minRatio = Math.abs(ratio - targetRatio);
+                optimalSize = size;
+            }
+        }
+        return optimalSize;
+    }
+
+    /**
+     * Selects a range whose upper bound is as close as possible to the desired fps while its lower
+     * bound is as small as possible, like the Camera1 source does.
+     */
+    @Nullable
+    private static Range<Integer> selectPreviewFpsRange(
+            CameraCharacteristics characteristics, int desiredPreviewFps) {
+        Range<Integer>[] ranges =
+                characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> selectedFpsRange = null;
+        int minUpperBoundDiff = Integer.MAX_VALUE;
+        int minLowerBound = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            int upperBoundDiff = Math.abs(desiredPreviewFps - range.getUpper());
+            int lowerBound = range.getLower();
+            if (upperBoundDiff <= minUpperBoundDiff && lowerBound <= minLowerBound) {
+                selectedFpsRange = range;
+                minUpperBoundDiff = upperBoundDiff;
+                minLowerBound = lowerBound;
+            }
+        }
+        return selectedFpsRange;
+    }
+
+    /**
+     * Calculates the rotation of the sensor output relative to the current display rotation.
+     */
+    // Context#getDisplay() replaces getDefaultDisplay() only from API 30.
+    @SuppressWarnings("deprecation")
+    private int computeRotation(CameraCharacteristics characteristics) {
+        WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = 0;
+        int rotation = windowManager.getDefaultDisplay().getRotation();
+        switch (rotation) {
+            case Surface.ROTATION_0:
+                degrees = 0;
+                break;
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                Log.e(TAG, "Bad rotation value: " + rotation);
+        }
+
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int orientation = sensorOrientation != null ? sensorOrientation : 0;
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT) {
+            return (orientation + degrees) % 360;
+        } else {
+            return (orientation - degrees + 360) % 360;
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // Every image is still held downstream; this one will be skipped.
+            starvedFrames.incrementAndGet();
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+
+        FrameListener listener = frameListener;
+        if (listener == null) {
+            image.close();
+            return;
+        }
+        ReaderFrames frames = readerFrames;
+        if (frames == null) {
+            image.close();
+            return;
+        }
+        Frame frame = frames.obtain();
+        frame.setImage(image, frameMetadata);
+        listener.onFrame(frame);
+    }
+
+    // The SessionConfiguration overload replaces this one only from API 28.
+    @SuppressWarnings("deprecation")
+    private void createCaptureSession(CameraDevice device) {
+        ImageReader reader = imageReader;
+        Surface surface = previewSurface;
+        if (reader == null || surface == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(surface);
+            builder.addTarget(reader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AF_MODE,
+                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            previewRequestBuilder = builder;
+
+            device.createCaptureSession(
+                    Arrays.asList(surface, reader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession session) {
+                            if (cameraDevice != device) {
+                                // The camera has been closed while the session was configured.
+                                session.close();
+                                return;
+                            }
+                            captureSession = session;
+                            try {
+                                session.setRepeatingRequest(builder.build(), null,
+                                        backgroundHandler);
+                            } catch (CameraAccessException | IllegalStateException e) {
+                                Log.e(TAG, "Failed to start camera preview: " + e);
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                            Log.e(TAG, "Failed to configure camera capture session.");
+                        }
+                    },
+                    backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to create camera capture session: " + e);
+        }
+    }
+
+    private class CameraStateCallback extends CameraDevice.StateCallback {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            // Publish the device before releasing the lock so that a concurrent stop() closes it.
+            cameraDevice = camera;
+            finishOpening();
+            createCaptureSession(camera);
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            camera.close();
+            if (cameraDevice == camera) {
+                cameraDevice = null;
+            }
+            finishOpening();
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "Camera device error: " + error);
+            onDisconnected(camera);
+        }
+    }
+
+    /**
+     * The frames wrapping the images of one image reader. The reader bounds how many images can
+     * be out at once, so frames are created on demand and never exceed that bound. Detection and
+     * preprocessing may still read an image after the camera is stopped, so the reader is only
+     * closed once every image it handed out is back.
+     */
+    private static final class ReaderFrames implements Frame.Recycler {
+        private final ImageReader reader;
+        private final AtomicLong staleReleases;
+
+        // Frames wrapping the images currently not held downstream. Locked on this; unlike a
+        // concurrent queue, it doesn't allocate per frame.
+        private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+        private int createdFrames;
+        private boolean closing;
+
+        ReaderFrames(@NonNull ImageReader reader, @NonNull AtomicLong staleReleases) {
+            this.reader = reader;
+            this.staleReleases = staleReleases;
+        }
+
+        synchronized Frame obtain() {
+            Frame frame = freeFrames.poll();
+            if (frame == null) {
+                frame = new Frame(this);
+                createdFrames++;
+            }
+            frame.held = true;
+            return frame;
+        }
+
+        synchronized int getHeldCount() {
+            return createdFrames - freeFrames.size();
+        }
+
+        @Override
+        public void recycle(@NonNull Frame frame) {
+            synchronized (this) {
+                if (!frame.held) {
+                    // Released twice; its image is closed and the frame is already free.
+                    staleReleases.incrementAndGet();
+                    return;
+                }
+                frame.held = false;
+            }
+            Image image = frame.getImage();
+            if (image != null) {
+                image.close();
+            }
+            frame.clear();
+            boolean idle;
+            synchronized (this) {
+                freeFrames.add(frame);
+                idle = closing && freeFrames.size() == createdFrames;
+            }
+            if (idle) {
+                reader.close();
+            }
+        }
+
+        /**
+         * Closes the reader right away if no image is held downstream, or else once the last one
+         * is recycled.
+         */
+        void close() {
+            boolean idle;
+            synchronized (this) {
+                closing = true;
+                idle = freeFrames.size() == createdFrames;
+            }
+            if (idle) {
+                reader.close();
+            }
+        }
+    }
+}
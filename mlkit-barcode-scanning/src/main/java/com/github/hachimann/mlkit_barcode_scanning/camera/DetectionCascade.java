@@ -0,0 +1,96 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+/**
+ * Bookkeeping for detecting on a resolution pyramid: the last level runs at full detection
+ * resolution and every level below it at half the resolution of the next one.
+ *
+ * <p>A frame is detected at the start level first and only moves up while the results aren't good
+ * enough. The start level follows the level that succeeded last, and every so often a run of
+ * successes lets it probe one level lower, so the cascade drifts back to the cheap levels once the
+ * barcodes in view allow it.
+ */
+public final class DetectionCascade {
+
+    /**
+     * Consecutive successes at the start level after which one level lower is tried.
+     */
+    static final int PROBE_INTERVAL = 15;
+
+    private final int levelCount;
+    private final long[] attempts;
+    private final long[] successes;
+    private final long[] latencyNanos;
+
+    private int startLevel;
+    private int successesAtStart;
+
+    DetectionCascade(int levelCount) {
+        if (levelCount < 1) {
+            throw new IllegalArgumentException("Invalid level count: " + levelCount);
+        }
+        this.levelCount = levelCount;
+        attempts = new long[levelCount];
+        successes = new long[levelCount];
+        latencyNanos = new long[levelCount];
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Returns the level the next frame is detected at first.
+     */
+    public synchronized int getStartLevel() {
+        return startLevel;
+    }
+
+    /**
+     * Returns the factor frames are shrunk by at the given level.
+     */
+    int getFactor(int level) {
+        return 1 << (levelCount - 1 - level);
+    }
+
+    /**
+     * Records one detection at the given level.
+     *
+     * @param success whether the results were good enough to stop at this level
+     */
+    synchronized void onDetected(int level, long nanos, boolean success) {
+        attempts[level]++;
+        latencyNanos[level] += nanos;
+        if (!success) {
+            return;
+        }
+        successes[level]++;
+        if (level != startLevel) {
+            startLevel = level;
+            successesAtStart = 0;
+        } else if (++successesAtStart >= PROBE_INTERVAL && startLevel > 0) {
+            startLevel--;
+            successesAtStart = 0;
+        }
+    }
+
+    /**
+     * Returns the number of detections run at the given level.
+     */
+    public synchronized long getAttempts(int level) {
+        return attempts[level];
+    }
+
+    /**
+     * Returns the number of detections at the given level whose results were good enough.
+     */
+    public synchronized long getSuccesses(int level) {
+        return successes[level];
+    }
+
+    /**
+     * Returns the average time a detection at the given level took, or 0 if none has run yet.
+     */
+    public synchronized float getAverageLatencyMillis(int level) {
+        return attempts[level] == 0 ? 0f : latencyNanos[level] / 1e6f / attempts[level];
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single YUV 4:2:0 preview frame produced by a {@link FrameSource}.
+ *
+ * <p>The frame is described as one luma plane and two chroma planes, each with its own buffer,
+ * offset and strides. This lets an NV21 byte array from Camera1 and a YUV_420_888 {@link Image}
+ * from Camera2 be read by the same code without first copying either of them into a common
+ * layout.
+ *
+ * <p>A frame is owned by whoever received it last. Once the frame is no longer needed it must be
+ * handed back to its source with {@link #release()}, which returns the underlying buffer or image
+ * to the camera.
+ */
+public final class Frame {
+
+    /**
+     * Receives frames that have been released by their current owner.
+     */
+    public interface Recycler {
+        void recycle(@NonNull Frame frame);
+
+        /**
+         * Called when detection starts on the frame, so the source can tell frames that are waiting
+         * from frames that are being processed.
+         */
+        default void onProcessingStarted(@NonNull Frame frame) {
+        }
+    }
+
+    @Nullable
+    private final Recycler recycler;
+
+    // Whether the frame is out with an owner, so a second release can be told apart. Guarded by
+    // the recycler that hands the frame out.
+    boolean held;
+
+    private FrameMetadata metadata;
+
+    @Nullable
+    private ByteBuffer nv21Buffer;
+
+    @Nullable
+    private Image image;
+
+    private ByteBuffer yBuffer;
+    private int yOffset;
+    private int yRowStride;
+
+    private ByteBuffer uBuffer;
+    private int uOffset;
+    private ByteBuffer vBuffer;
+    private int vOffset;
+    private int uvRowStride;
+    private int uvPixelStride;
+
+    public Frame(@Nullable Recycler recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Wraps an NV21 buffer that is not owned by any source, so {@link #release()} is a no-op.
+     */
+    @NonNull
+    public static Frame fromNv21(@NonNull ByteBuffer data, @NonNull FrameMetadata metadata) {
+        Frame frame = new Frame(null);
+        frame.setNv21(data, metadata);
+        return frame;
+    }
+
+    /**
+     * Points this frame at an NV21 buffer: a full resolution Y plane followed by interleaved,
+     * half resolution V and U samples.
+     */
+    public void setNv21(@NonNull ByteBuffer data, @NonNull FrameMetadata metadata) {
+        int width = metadata.getWidth();
+        int lumaSize = width * metadata.getHeight();
+        this.metadata = metadata;
+        this.nv21Buffer = data;
+        this.image = null;
+        yBuffer = data;
+        yOffset = 0;
+        yRowStride = width;
+        vBuffer = data;
+        vOffset = lumaSize;
+        uBuffer = data;
+        uOffset = lumaSize + 1;
+        uvRowStride = width;
+        uvPixelStride = 2;
+    }
+
+    /**
+     * Points this frame at the planes of a YUV_420_888 image. The planes are read in place.
+     */
+    public void setImage(@NonNull Image image, @NonNull FrameMetadata metadata) {
+        Image.Plane[] planes = image.getPlanes();
+        this.metadata = metadata;
+        this.nv21Buffer = null;
+        this.image = image;
+        yBuffer = planes[0].getBuffer();
+        yOffset = 0;
+        yRowStride = planes[0].getRowStride();
+        uBuffer = planes[1].getBuffer();
+        uOffset = 0;
+        vBuffer = planes[2].getBuffer();
+        vOffset = 0;
+        uvRowStride = planes[1].getRowStride();
+        uvPixelStride = planes[1].getPixelStride();
+    }
+
+    /**
+     * Drops all references to the frame content, so a pooled frame doesn't keep it alive.
+     */
+    public void clear() {
+        nv21Buffer = null;
+        image = null;
+        yBuffer = null;
+        uBuffer = null;
+        vBuffer = null;
+    }
+
+    /**
+     * Tells the source that detection has started on this frame.
+     */
+    public void markProcessing() {
+        if (recycler != null) {
+            recycler.onProcessingStarted(this);
+        }
+    }
+
+    /**
+     * Hands this frame back to the source that produced it.
+     */
+    public void release() {
+        if (recycler != null) {
+            recycler.recycle(this);
+        }
+    }
+
+    public FrameMetadata getMetadata() {
+        return metadata;
+    }
+
+    public int getWidth() {
+        return metadata.getWidth();
+    }
+
+    public int getHeight() {
+        return metadata.getHeight();
+    }
+
+    public int getRotation() {
+        return metadata.getRotation();
+    }
+
+    /**
+     * Returns the NV21 buffer backing this frame, or null if the frame wraps an {@link Image}.
+     */
+    @Nullable
+    public ByteBuffer getNv21Buffer() {
+        return nv21Buffer;
+    }
+
+    /**
+     * Returns the YUV_420_888 image backing this frame, or null if the frame wraps an NV21 buffer.
+     */
+    @Nullable
+    public Image getImage() {
+        return image;
+    }
+
+    public ByteBuffer getYBuffer() {
+        return yBuffer;
+    }
+
+    public int getYOffset() {
+        return yOffset;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public ByteBuffer getUBuffer() {
+        return uBuffer;
+    }
+
+    public int getUOffset() {
+        return uOffset;
+    }
+
+    public ByteBuffer getVBuffer() {
+        return vBuffer;
+    }
+
+    public int getVOffset() {
+        return vOffset;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Skips detection on frames that look like the last frame let through, as long as detection found
+ * nothing on the scene.
+ *
+ * <p>Every frame is reduced to a {@value #GRID} x {@value #GRID} grid of block-mean luma values,
+ * sampled sparsely within each block. A frame is skipped when no block differs from the reference
+ * frame by more than {@value #TOLERANCE} levels, the last detection came back empty and fewer than
+ * {@value #REFRESH_INTERVAL} frames have been skipped in a row. The gate keeps two fixed signature
+ * arrays and allocates nothing per frame.
+ */
+final class FrameChangeGate {
+
+    static final int GRID = 32;
+    static final int TOLERANCE = 6;
+    static final int REFRESH_INTERVAL = 30;
+
+    /**
+     * Samples taken per block in each direction.
+     */
+    private static final int SAMPLES = 4;
+
+    private int[] reference = new int[GRID * GRID];
+    private int[] current = new int[GRID * GRID];
+    private boolean hasReference;
+    private int skippedInARow;
+    private volatile long skippedFrames;
+
+    private volatile boolean lastHadResult = true;
+
+    /**
+     * Returns whether detection on the frame can be skipped. A frame that isn't skipped becomes the
+     * new reference. Must be called from one thread at a time.
+     */
+    boolean shouldSkip(@NonNull Frame frame) {
+        if (!computeSignature(frame, current)) {
+            hasReference = false;
+            return false;
+        }
+        if (hasReference && !lastHadResult && skippedInARow < REFRESH_INTERVAL
+                && maxDifference(current, reference) <= TOLERANCE) {
+            skippedInARow++;
+            skippedFrames++;
+            return true;
+        }
+        int[] swap = reference;
+        reference = current;
+        current = swap;
+        hasReference = true;
+        skippedInARow = 0;
+        return false;
+    }
+
+    /**
+     * Tells the gate whether the last detection found anything. Frames are only skipped after an
+     * empty detection, so a barcode in view keeps being tracked.
+     */
+    void onResult(boolean hasResult) {
+        lastHadResult = hasResult;
+    }
+
+    long getSkippedFrameCount() {
+        return skippedFrames;
+    }
+
+    /**
+     * Writes the block means of the frame's luma plane into the signature.
+     *
+     * @return false if the frame is too small to be split into the grid
+     */
+    static boolean computeSignature(@NonNull Frame frame, @NonNull int[] signature) {
+        int blockWidth = frame.getWidth() / GRID;
+        int blockHeight = frame.getHeight() / GRID;
+        if (blockWidth == 0 || blockHeight == 0) {
+            return false;
+        }
+        ByteBuffer yBuffer = frame.getYBuffer();
+        int offset = frame.getYOffset();
+        int rowStride = frame.getYRowStride();
+        int stepX = Math.max(1, blockWidth / SAMPLES);
+        int stepY = Math.max(1, blockHeight / SAMPLES);
+
+        int index = 0;
+        for (int blockY = 0; blockY < GRID; blockY++) {
+            for (int blockX = 0; blockX < GRID; blockX++) {
+                int sum = 0;
+                int count = 0;
+                int top = blockY * blockHeight;
+                int left = blockX * blockWidth;
+                for (int y = top; y < top + blockHeight; y += stepY) {
+                    int row = offset + y * rowStride;
+                    for (int x = left; x < left + blockWidth; x += stepX) {
+                        sum += yBuffer.get(row + x) & 0xff;
+                        count++;
+                    }
+                }
+                signature[index++] = sum / count;
+            }
+        }
+        return true;
+    }
+
+    private static int maxDifference(int[] a, int[] b) {
+        int max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies a rectangular region of a frame into a pooled NV21 buffer, so detection only has to look
+ * at the part of the preview that matters.
+ *
+ * <p>Regions are given in the upright orientation the user sees, as fractions of the frame width
+ * and height, and are mapped onto the sensor orientation of the frame before copying. The metadata
+ * of a cropped frame records where the crop sits in the upright preview image, so detection results
+ * can be mapped back with {@link GraphicOverlay#translateRect(android.graphics.Rect, FrameMetadata)}.
+ */
+final class FrameCropper {
+
+    /**
+     * One crop is detected on while the next one is being made.
+     */
+    static final int DEFAULT_POOL_SIZE = 2;
+
+    // Locked on its own rather than with the cropper, so a frame handed back from another thread
+    // doesn't wait for a crop in progress. Unlike a concurrent queue, it doesn't allocate per
+    // release.
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+    private final AtomicInteger createdFrames = new AtomicInteger();
+    private volatile int poolSize = DEFAULT_POOL_SIZE;
+    private final Frame.Recycler recycler = this::recycle;
+
+    @Nullable
+    private FrameMetadata lastMetadata;
+
+    /**
+     * Sets how many pooled frames may exist at once, e.g. one per frame detected on in parallel
+     * plus one being made.
+     */
+    void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    private void recycle(@NonNull Frame frame) {
+        synchronized (freeFrames) {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Copies the given upright region of the source frame. The source frame is left untouched and
+     * still has to be released by the caller.
+     *
+     * @return the cropped frame, or null if the region covers the whole frame, is empty or no pooled
+     * buffer is available
+     */
+    @Nullable
+    synchronized Frame crop(@NonNull Frame source, float left, float top, float right,
+                            float bottom) {
+        left = clamp(left);
+        top = clamp(top);
+        right = clamp(right);
+        bottom = clamp(bottom);
+
+        // Map the upright region onto the sensor orientation of the frame. The frame has to be
+        // rotated clockwise by its rotation to be upright.
+        float sensorLeft;
+        float sensorTop;
+        float sensorRight;
+        float sensorBottom;
+        int rotation = source.getRotation();
+        switch (rotation) {
+            case 90:
+                sensorLeft = top;
+                sensorTop = 1 - right;
+                sensorRight = bottom;
+                sensorBottom = 1 - left;
+                break;
+            case 180:
+                sensorLeft = 1 - right;
+                sensorTop = 1 - bottom;
+                sensorRight = 1 - left;
+                sensorBottom = 1 - top;
+                break;
+            case 270:
+                sensorLeft = 1 - bottom;
+                sensorTop = left;
+                sensorRight = 1 - top;
+                sensorBottom = right;
+                break;
+            default:
+                sensorLeft = left;
+                sensorTop = top;
+                sensorRight = right;
+                sensorBottom = bottom;
+                break;
+        }
+
+        int width = source.getWidth();
+        int height = source.getHeight();
+        return cropSensor(source, (int) (sensorLeft * width), (int) (sensorTop * height),
+                (int) Math.ceil(sensorRight * width), (int) Math.ceil(sensorBottom * height));
+    }
+
+    /**
+     * Copies the given region of the source frame, in pixels of the frame as the sensor delivered
+     * it. The source frame is left untouched and still has to be released by the caller.
+     *
+     * @return the cropped frame, or null if the region covers the whole frame, is empty or no pooled
+     * buffer is available
+     */
+    @Nullable
+    synchronized Frame cropSensor(@NonNull Frame source, int left, int top, int right,
+                                  int bottom) {
+        // Chroma is subsampled by two in both directions, so the crop is aligned to even pixels.
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int rotation = source.getRotation();
+        int x0 = Math.max(0, left) & ~1;
+        int y0 = Math.max(0, top) & ~1;
+        int x1 = Math.min(width, right + 1) & ~1;
+        int y1 = Math.min(height, bottom + 1) & ~1;
+        int cropWidth = x1 - x0;
+        int cropHeight = y1 - y0;
+        if (cropWidth <= 0 || cropHeight <= 0 || (cropWidth == width && cropHeight == height)) {
+            return null;
+        }
+
+        Frame frame;
+        synchronized (freeFrames) {
+            frame = freeFrames.poll();
+        }
+        if (frame == null) {
+            if (createdFrames.get() >= poolSize) {
+                return null;
+            }
+            createdFrames.incrementAndGet();
+            frame = new Frame(recycler);
+        }
+
+        int lumaSize = cropWidth * cropHeight;
+        ByteBuffer buffer = frame.getNv21Buffer();
+        if (buffer == null || buffer.capacity() < lumaSize * 3 / 2) {
+            buffer = ByteBuffer.wrap(new byte[lumaSize * 3 / 2]);
+        }
+        byte[] out = buffer.array();
+
+        copyRows(source.getYBuffer(), source.getYOffset() + y0 * source.getYRowStride() + x0,
+                source.getYRowStride(), out, 0, cropWidth, cropHeight);
+        copyChroma(source, x0 / 2, y0 / 2, cropWidth / 2, cropHeight / 2, out, lumaSize);
+
+        FrameMetadata sourceMetadata = source.getMetadata();
+        int offsetX;
+        int offsetY;
+        switch (rotation) {
+            case 90:
+                offsetX = height - y0 - cropHeight;
+                offsetY = x0;
+                break;
+            case 180:
+                offsetX = width - x0 - cropWidth;
+                offsetY = height - y0 - cropHeight;
+                break;
+            case 270:
+                offsetX = y0;
+                offsetY = width - x0 - cropWidth;
+                break;
+            default:
+                offsetX = x0;
+                offsetY = y0;
+                break;
+        }
+        // Offsets are kept in preview pixels, the crop itself in pixels of the source frame.
+        float scale = sourceMetadata.getScale();
+        frame.setNv21(buffer, getMetadata(cropWidth, cropHeight, rotation,
+                sourceMetadata.getOffsetX() + Math.round(offsetX / scale),
+                sourceMetadata.getOffsetY() + Math.round(offsetY / scale), scale));
+        return frame;
+    }
+
+    /**
+     * Reuses the metadata of the previous crop while the region doesn't move.
+     */
+    private FrameMetadata getMetadata(int width, int height, int rotation, int offsetX,
+                                      int offsetY, float scale) {
+        FrameMetadata metadata = lastMetadata;
+        if (metadata == null
+                || !metadata.matches(width, height, rotation, offsetX, offsetY, scale)) {
+            metadata = new FrameMetadata(width, height, rotation, offsetX, offsetY, scale);
+            lastMetadata = metadata;
+        }
+        return metadata;
+    }
+
+    /**
+     * Writes the chroma samples of the region as interleaved V and U, the NV21 layout.
+     */
+    private static void copyChroma(Frame source, int cx0, int cy0, int chromaWidth,
+                                   int chromaHeight, byte[] out, int outOffset) {
+        ByteBuffer vBuffer = source.getVBuffer();
+        ByteBuffer uBuffer = source.getUBuffer();
+        int rowStride = source.getUvRowStride();
+        int pixelStride = source.getUvPixelStride();
+        int vOffset = source.getVOffset() + cy0 * rowStride + cx0 * pixelStride;
+        int uOffset = source.getUOffset() + cy0 * rowStride + cx0 * pixelStride;
+
+        if (vBuffer == uBuffer && pixelStride == 2 && uOffset == vOffset + 1) {
+            // Already interleaved as VU, e.g. an NV21 buffer from the Camera API.
+            copyRows(vBuffer, vOffset, rowStride, out, outOffset, chromaWidth * 2, chromaHeight);
+            return;
+        }
+
+        int index = outOffset;
+        for (int row = 0; row < chromaHeight; row++) {
+            int v = vOffset + row * rowStride;
+            int u = uOffset + row * rowStride;
+            for (int column = 0; column < chromaWidth; column++) {
+                out[index++] = vBuffer.get(v);
+                out[index++] = uBuffer.get(u);
+                v += pixelStride;
+                u += pixelStride;
+            }
+        }
+    }
+
+    private static void copyRows(ByteBuffer source, int sourceOffset, int sourceRowStride,
+                                 byte[] out, int outOffset, int rowLength, int rows) {
+        if (source.hasArray()) {
+            byte[] array = source.array();
+            int offset = source.arrayOffset() + sourceOffset;
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(array, offset + row * sourceRowStride, out,
+                        outOffset + row * rowLength, rowLength);
+            }
+            return;
+        }
+
+        int position = source.position();
+        try {
+            for (int row = 0; row < rows; row++) {
+                source.position(sourceOffset + row * sourceRowStride);
+                source.get(out, outOffset + row * rowLength, rowLength);
+            }
+        } finally {
+            source.position(position);
+        }
+    }
+
+    private static float clamp(float fraction) {
+        return Math.max(0f, Math.min(1f, fraction));
+    }
+}
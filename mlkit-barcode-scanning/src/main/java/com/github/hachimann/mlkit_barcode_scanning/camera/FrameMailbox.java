@@ -0,0 +1,122 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-slot, latest-frame-wins handoff between the camera callback thread and the frame
+ * processing thread.
+ *
+ * <p>The producer swaps its frame into the slot with one atomic exchange and releases whatever
+ * frame it displaced, so it never waits for the consumer. The consumer takes the slot with another
+ * exchange and parks while it is empty. There is no monitor shared by the two threads.
+ */
+final class FrameMailbox {
+
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    private final AtomicLong offeredFrames = new AtomicLong();
+    private final AtomicLong overwrittenFrames = new AtomicLong();
+
+    private volatile boolean active;
+
+    @Nullable
+    private volatile Thread consumer;
+
+    /**
+     * Opens the mailbox for the given consumer thread. Must be called before the consumer starts
+     * taking frames.
+     */
+    void open(@NonNull Thread consumer) {
+        this.consumer = consumer;
+        active = true;
+    }
+
+    /**
+     * Closes the mailbox, wakes up the consumer and releases the frame left in the slot, if any.
+     */
+    void close() {
+        active = false;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        drain();
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Publishes the frame as the latest one. A frame that was still waiting in the slot is released
+     * back to its source and counted as overwritten. Never blocks.
+     */
+    void offer(@NonNull Frame frame) {
+        offeredFrames.incrementAndGet();
+        Frame displaced = slot.getAndSet(frame);
+        if (displaced != null) {
+            overwrittenFrames.incrementAndGet();
+            displaced.release();
+        }
+
+        if (!active) {
+            // close() may have drained the slot just before the frame above was published.
+            drain();
+            return;
+        }
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Takes the latest frame, parking the calling thread until one is offered.
+     *
+     * @return the frame, or null once the mailbox is closed or the calling thread is interrupted
+     */
+    @Nullable
+    Frame take() {
+        while (true) {
+            if (!active) {
+                return null;
+            }
+            Frame frame = slot.getAndSet(null);
+            if (frame != null) {
+                return frame;
+            }
+            // Wake-ups may be spurious or left over from a frame that was already taken, so the
+            // slot is simply checked again.
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames offered so far.
+     */
+    long getOfferedFrameCount() {
+        return offeredFrames.get();
+    }
+
+    /**
+     * Returns the number of frames that were replaced by a newer frame before the consumer took
+     * them.
+     */
+    long getOverwrittenFrameCount() {
+        return overwrittenFrames.get();
+    }
+
+    private void drain() {
+        Frame frame = slot.getAndSet(null);
+        if (frame != null) {
+            frame.release();
+        }
+    }
+}
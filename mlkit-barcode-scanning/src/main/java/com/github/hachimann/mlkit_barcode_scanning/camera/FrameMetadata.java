@@ -24,6 +24,9 @@ public class FrameMetadata {
     private final int width;
     private final int height;
     private final int rotation;
+    private final int offsetX;
+    private final int offsetY;
+    private final float scale;
 
     public int getWidth() {
         return width;
@@ -37,10 +40,50 @@ public class FrameMetadata {
         return rotation;
     }
 
+    /**
+     * Returns the horizontal position of this frame within the upright preview image. It is
+     * non-zero for frames cropped out of a larger preview frame.
+     */
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    /**
+     * Returns the vertical position of this frame within the upright preview image.
+     */
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    /**
+     * Returns the size of a pixel of this frame relative to a pixel of the preview image, e.g. 0.5
+     * for a frame downscaled to half the preview resolution.
+     */
+    public float getScale() {
+        return scale;
+    }
+
     public FrameMetadata(int width, int height, int rotation) {
+        this(width, height, rotation, 0, 0, 1f);
+    }
+
+    public FrameMetadata(int width, int height, int rotation, int offsetX, int offsetY,
+                         float scale) {
         this.width = width;
         this.height = height;
         this.rotation = rotation;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scale = scale;
+    }
+
+    /**
+     * Returns whether this metadata has exactly the given values, so derived frames can keep
+     * reusing it.
+     */
+    boolean matches(int width, int height, int rotation, int offsetX, int offsetY, float scale) {
+        return this.width == width && this.height == height && this.rotation == rotation
+                && this.offsetX == offsetX && this.offsetY == offsetY && this.scale == scale;
     }
 
     /**
@@ -51,6 +94,9 @@ public class FrameMetadata {
         private int width;
         private int height;
         private int rotation;
+        private int offsetX;
+        private int offsetY;
+        private float scale = 1f;
 
         public Builder setWidth(int width) {
             this.width = width;
@@ -67,8 +113,19 @@ public class FrameMetadata {
             return this;
         }
 
+        public Builder setOffset(int offsetX, int offsetY) {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            return this;
+        }
+
+        public Builder setScale(float scale) {
+            this.scale = scale;
+            return this;
+        }
+
         public FrameMetadata build() {
-            return new FrameMetadata(width, height, rotation);
+            return new FrameMetadata(width, height, rotation, offsetX, offsetY, scale);
         }
     }
 }
@@ -0,0 +1,122 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+/**
+ * Keeps track of the frames being detected on at the same time and decides whose results are
+ * published.
+ *
+ * <p>Up to {@code depth} frames are in flight, each in a slot of its own, so a detector client can
+ * be assigned per slot. Frames are numbered as they enter the pipeline. Detection may finish out
+ * of order, but results are only published in frame order: once a frame's results have been
+ * published, results of older frames that finish later are dropped, as they would move the
+ * overlay back in time.
+ */
+final class FramePipeline {
+
+    private final long[] sequences;
+    private final boolean[] busy;
+    private int inFlightCount;
+    private long nextSequence = 1;
+    private long lastPublished;
+
+    private long publishedCount;
+    private long droppedCount;
+    private long totalLatencyNanos;
+    private final long[] startNanos;
+
+    FramePipeline(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Invalid pipeline depth: " + depth);
+        }
+        sequences = new long[depth];
+        busy = new boolean[depth];
+        startNanos = new long[depth];
+    }
+
+    int getDepth() {
+        return busy.length;
+    }
+
+    synchronized boolean hasFreeSlot() {
+        return inFlightCount < busy.length;
+    }
+
+    synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * Takes a free slot for the next frame.
+     *
+     * @return the slot, or -1 if all slots are in flight
+     */
+    synchronized int acquire(long nowNanos) {
+        for (int slot = 0; slot < busy.length; slot++) {
+            if (!busy[slot]) {
+                busy[slot] = true;
+                sequences[slot] = nextSequence++;
+                startNanos[slot] = nowNanos;
+                inFlightCount++;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    synchronized long getSequence(int slot) {
+        return sequences[slot];
+    }
+
+    synchronized long getStartNanos(int slot) {
+        return startNanos[slot];
+    }
+
+    /**
+     * Returns whether the slot still holds the given frame, i.e. it wasn't freed in the meantime.
+     */
+    synchronized boolean isInFlight(int slot, long sequence) {
+        return busy[slot] && sequences[slot] == sequence;
+    }
+
+    /**
+     * Frees the slot once its frame is done.
+     *
+     * @param hasResults whether detection produced results, false if it failed
+     * @return whether the results should be published
+     */
+    synchronized boolean complete(int slot, boolean hasResults, long nowNanos) {
+        if (!busy[slot]) {
+            return false;
+        }
+        busy[slot] = false;
+        inFlightCount--;
+        if (!hasResults) {
+            return false;
+        }
+        if (sequences[slot] < lastPublished) {
+            droppedCount++;
+            return false;
+        }
+        lastPublished = sequences[slot];
+        publishedCount++;
+        totalLatencyNanos += nowNanos - startNanos[slot];
+        return true;
+    }
+
+    synchronized long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Returns the number of results dropped because a newer frame's results were already out.
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the average time from a frame entering the pipeline to its results being published.
+     */
+    synchronized float getAverageLatencyMillis() {
+        return publishedCount > 0 ? totalLatencyNanos / 1e6f / publishedCount : 0f;
+    }
+}
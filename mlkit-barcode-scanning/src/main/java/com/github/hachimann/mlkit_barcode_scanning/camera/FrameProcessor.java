@@ -7,7 +7,13 @@ import java.nio.ByteBuffer;
 public interface FrameProcessor {
 
     /**
-     * Processes the input frame with the underlying detector.
+     * Processes the input frame with the underlying detector. The processor takes ownership of the
+     * frame and calls {@link Frame#release()} once it no longer needs it, even if processing fails.
+     */
+    void processFrame(Frame frame, GraphicOverlay graphicOverlay) throws MlKitException;
+
+    /**
+     * Processes the input NV21 buffer with the underlying detector.
      */
     void processByteBuffer(
             ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
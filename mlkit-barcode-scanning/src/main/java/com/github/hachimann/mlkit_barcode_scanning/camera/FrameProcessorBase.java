@@ -16,93 +16,820 @@
 
 package com.github.hachimann.mlkit_barcode_scanning.camera;
 
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.Image;
+
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.github.hachimann.mlkit_barcode_scanning.ScopedExecutor;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskExecutors;
 import com.google.mlkit.vision.common.InputImage;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
- * #onSuccess(Object, GraphicOverlay)} to define what they want to with the detection results and
+ * #onSuccess(Object, FrameMetadata, GraphicOverlay)} to define what they want to with the detection results and
  * {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>Results are analysed and the next frame is scheduled on a result thread of the processor, so
+ * a busy main thread doesn't hold detection back. Subclasses post their UI changes to the main
+ * thread with {@link #runOnMainThread(Runnable)}.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class FrameProcessorBase<T> implements FrameProcessor {
 
+    // Callbacks the result thread can have queued, well above any pipeline depth.
+    private static final int RESULT_QUEUE_CAPACITY = 64;
+
+    private final SerialResultExecutor resultThread;
     private final ScopedExecutor executor;
+    // Runs the callbacks of the pipeline slots, which are reused for every frame. They check for
+    // shutdown themselves, so they aren't wrapped per call.
+    private final Executor slotExecutor;
+    private final ScopedExecutor mainExecutor;
 
     // Whether this processor is already shut down
     private boolean isShutdown;
 
-    // To keep the latest images and its metadata.
+    // The latest prepared frame, waiting for a free pipeline slot. Only the most recent one is
+    // kept; with results set, the frame needs no detection.
+    @GuardedBy("this")
+    private Frame handoffFrame;
+    @GuardedBy("this")
+    private int handoffRegionLevel;
     @GuardedBy("this")
-    private ByteBuffer latestImage;
+    @Nullable
+    private T handoffResults;
+    @GuardedBy("this")
+    private long replacedFrames;
+
+    // The frame being prepared and its results, if it needs no detection. Only touched by the
+    // preprocessing stage, like the other state of the preparation below.
+    private Frame processingFrame;
+    @Nullable
+    private T preparedResults;
 
     @GuardedBy("this")
-    private FrameMetadata latestImageMetaData;
-    // To keep the images and metadata in process.
+    private FramePipeline pipeline = new FramePipeline(1);
+
     @GuardedBy("this")
-    private ByteBuffer processingImage;
+    private List<SlotTask> slotTasks = createSlotTasks(1);
+
+    private final FrameCropper frameCropper = new FrameCropper();
+    private final FrameScaler frameScaler = new FrameScaler();
+    private final FrameScaler pyramidScaler = new FrameScaler();
+    private final FrameCropper candidateCropper = new FrameCropper();
+
+    @Nullable
+    private volatile BarcodeLocalizer localizer;
+
+    private final int[] candidateBounds = new int[4];
+
+    @Nullable
+    private DetectionCascade cascade;
+
+    @Nullable
+    private volatile FrameChangeGate changeGate;
+
+    @Nullable
+    private volatile FrameQualityGate qualityGate;
+
+    // Resolution detection should run at, or 0 to detect at the preview resolution.
+    private volatile int detectionWidth;
+    private volatile int detectionHeight;
+
+    @Nullable
+    private AdaptiveRegionPolicy regionPolicy;
+
+    // Level of the region the processing frame was cropped to, or -1 if it wasn't scheduled.
+    private int processingRegionLevel = -1;
+
+    private final float[] scheduledRegion = new float[4];
+
+    // Scratch geometry of the result thread.
+    private final RectF hitBox = new RectF();
+    private final float[] hitBounds = new float[4];
 
+    private final StageMetrics preprocessingMetrics = new StageMetrics(1, System.nanoTime());
     @GuardedBy("this")
-    private FrameMetadata processingMetaData;
+    private StageMetrics detectionMetrics = new StageMetrics(1, System.nanoTime());
 
     protected FrameProcessorBase() {
-        executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
+        this(TaskExecutors.MAIN_THREAD);
     }
 
-    // -----------------Code for processing live preview frame from Camera1 API-----------------------
+    /**
+     * Creates a processor that runs its UI work on the given executor instead of the main thread.
+     */
+    FrameProcessorBase(@NonNull Executor mainThread) {
+        // Every pipeline slot has at most one callback queued at a time.
+        resultThread = new SerialResultExecutor(RESULT_QUEUE_CAPACITY, "FrameResults");
+        executor = new ScopedExecutor(resultThread);
+        slotExecutor = executor.withoutWrapping();
+        mainExecutor = new ScopedExecutor(mainThread);
+        sizeFramePools(1);
+    }
+
+    // -----------------Code for processing live preview frame from a FrameSource--------------------
+
+    /**
+     * Prepares the frame on the calling thread, the preprocessing stage, and hands it to the
+     * detection stage. The frames come from a single processing thread, so the next frame is
+     * prepared while the previous one is still being detected on.
+     */
     @Override
-    public synchronized void processByteBuffer(
+    public void processFrame(Frame frame, final GraphicOverlay graphicOverlay) {
+        long startNanos = System.nanoTime();
+        preprocessingMetrics.enter(startNanos);
+        boolean prepared;
+        try {
+            prepared = prepare(frame, graphicOverlay);
+        } finally {
+            preprocessingMetrics.exit(startNanos, System.nanoTime());
+        }
+        if (prepared) {
+            handOff(graphicOverlay);
+        }
+    }
+
+    @Override
+    public void processByteBuffer(
             ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-        latestImage = data;
-        latestImageMetaData = frameMetadata;
-        if (processingImage == null && processingMetaData == null) {
-            processLatestImage(graphicOverlay);
+        processFrame(Frame.fromNv21(data, frameMetadata), graphicOverlay);
+    }
+
+    /**
+     * Runs the gates on the frame and crops and scales it into the processing frame.
+     *
+     * @return whether the processing frame should be handed to detection
+     */
+    private boolean prepare(Frame frame, GraphicOverlay graphicOverlay) {
+        FrameQualityGate quality = qualityGate;
+        if (quality != null && quality.shouldDrop(frame)) {
+            frame.release();
+            return false;
+        }
+        FrameChangeGate gate = changeGate;
+        if (gate != null && gate.shouldSkip(frame)) {
+            frame.release();
+            return false;
+        }
+        processingFrame = frame;
+        processingFrame.markProcessing();
+        preparedResults = null;
+        processingRegionLevel = -1;
+        try {
+            T decoded = decodeWithoutDetector(processingFrame);
+            if (decoded != null) {
+                preparedResults = decoded;
+                return true;
+            }
+            // The scale is chosen for the whole preview frame, so crops keep its pixel density.
+            int factor = FrameScaler.getFactor(processingFrame.getWidth(),
+                    processingFrame.getHeight(), detectionWidth, detectionHeight);
+            Frame cropped = cropToRegionOfInterest(processingFrame, graphicOverlay);
+            if (cropped != null) {
+                // The crop is a copy, so the camera can have its buffer back right away.
+                processingFrame.release();
+                processingFrame = cropped;
+            }
+            Frame scaled = frameScaler.downscale(processingFrame, factor);
+            if (scaled != null) {
+                processingFrame.release();
+                processingFrame = scaled;
+            } else if (factor > 1) {
+                // Detected on at a higher resolution than the other frames of its region level,
+                // so its result would skew the hit rate of that level.
+                processingRegionLevel = -1;
+            }
+            cropToCandidates();
+            return true;
+        } catch (RuntimeException e) {
+            processingFrame.release();
+            processingFrame = null;
+            onFailure(e);
+            return false;
+        }
+    }
+
+    /**
+     * Puts the prepared frame in the hand-off, replacing a frame still waiting there, and starts
+     * detection if a pipeline slot is free.
+     */
+    private synchronized void handOff(GraphicOverlay graphicOverlay) {
+        Frame frame = processingFrame;
+        processingFrame = null;
+        if (isShutdown) {
+            frame.release();
+            return;
+        }
+        if (handoffFrame != null) {
+            // Only the most recent frame is worth detecting on; hand the older one back.
+            handoffFrame.release();
+            replacedFrames++;
+        }
+        handoffFrame = frame;
+        handoffRegionLevel = processingRegionLevel;
+        handoffResults = preparedResults;
+        preparedResults = null;
+        dispatchDetection(graphicOverlay);
+    }
+
+    /**
+     * Moves the frame waiting in the hand-off into a free pipeline slot, if there is one.
+     */
+    private synchronized void dispatchDetection(final GraphicOverlay graphicOverlay) {
+        while (handoffFrame != null && !isShutdown && pipeline.hasFreeSlot()) {
+            Frame frame = handoffFrame;
+            int regionLevel = handoffRegionLevel;
+            T results = handoffResults;
+            handoffFrame = null;
+            handoffResults = null;
+            long nowNanos = System.nanoTime();
+            int slot = pipeline.acquire(nowNanos);
+            SlotTask task = slotTasks.get(slot);
+            task.start(pipeline.getSequence(slot), frame, regionLevel, graphicOverlay);
+            detectionMetrics.enter(nowNanos);
+            try {
+                if (results != null) {
+                    postResults(task, results);
+                } else {
+                    processImage(task);
+                }
+            } catch (RuntimeException e) {
+                finishSlot(slot, task.sequence, false);
+                onFailure(e);
+            }
+        }
+    }
+
+    @Nullable
+    private Frame cropToRegionOfInterest(Frame frame, GraphicOverlay graphicOverlay) {
+        RectF region = getRegionOfInterest(graphicOverlay);
+        if (region == null) {
+            return null;
+        }
+        if (regionPolicy == null) {
+            return frameCropper.crop(frame, region.left, region.top, region.right, region.bottom);
         }
+
+        regionPolicy.setBaseRegion(region.left, region.top, region.right, region.bottom);
+        int level = regionPolicy.getLevel();
+        if (!regionPolicy.getRegion(level, scheduledRegion)) {
+            // The level covers the whole frame, which needs no crop.
+            processingRegionLevel = level;
+            return null;
+        }
+        Frame cropped = frameCropper.crop(frame, scheduledRegion[0], scheduledRegion[1],
+                scheduledRegion[2], scheduledRegion[3]);
+        // Without a crop, e.g. with every pooled buffer in use, the whole frame is detected on
+        // and its result says nothing about the level.
+        processingRegionLevel = cropped != null ? level : -1;
+        return cropped;
     }
 
-    private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-        processingImage = latestImage;
-        processingMetaData = latestImageMetaData;
-        latestImage = null;
-        latestImageMetaData = null;
-        if (processingImage != null && processingMetaData != null && !isShutdown) {
-            processImage(processingImage, processingMetaData, graphicOverlay);
+    /**
+     * Narrows the processing frame down to the candidates the localiser finds. Without candidates
+     * the detector is skipped and empty results are delivered instead.
+     */
+    private void cropToCandidates() {
+        BarcodeLocalizer currentLocalizer = localizer;
+        if (currentLocalizer == null) {
+            return;
+        }
+        if (currentLocalizer.locate(processingFrame) > 0) {
+            currentLocalizer.getUnionBounds(candidateBounds);
+            Frame cropped = candidateCropper.cropSensor(processingFrame, candidateBounds[0],
+                    candidateBounds[1], candidateBounds[2], candidateBounds[3]);
+            if (cropped != null) {
+                processingFrame.release();
+                processingFrame = cropped;
+            }
+            return;
         }
+        preparedResults = getEmptyResults();
+    }
+
+    /**
+     * Delivers results that didn't come from the detector like detection results, on the executor
+     * and after the current call has returned.
+     */
+    private void postResults(SlotTask task, T results) {
+        task.frameMetadata = task.frame.getMetadata();
+        task.postedResults = results;
+        slotExecutor.execute(task);
+    }
+
+    private void processImage(SlotTask task) {
+        DetectionCascade currentCascade = cascade;
+        detectAtLevel(task, currentCascade != null ? currentCascade.getStartLevel() : -1);
+    }
+
+    /**
+     * Detects on the frame of the slot at the given level of the cascade, or on the frame itself
+     * if the level is -1. Levels below the top one are detected on a downscaled copy and move up a
+     * level while {@link #isResolutionSufficient(Object, FrameMetadata)} rejects their results.
+     */
+    private void detectAtLevel(SlotTask task, int level) {
+        int factor = level >= 0 ? cascade.getFactor(level) : 1;
+        task.levelFrame = factor > 1 ? pyramidScaler.downscale(task.frame, factor) : null;
+        // Levels the frame is too small for go straight to the top.
+        task.detectedLevel = task.levelFrame == null && level >= 0
+                ? cascade.getLevelCount() - 1 : level;
+        Frame input = task.levelFrame != null ? task.levelFrame : task.frame;
+        task.frameMetadata = input.getMetadata();
+        task.startNanos = System.nanoTime();
+        detectInFrame(input, task.slot)
+                .addOnSuccessListener(slotExecutor, task)
+                .addOnFailureListener(slotExecutor, task);
+    }
+
+    private void deliverResults(T results, FrameMetadata frameMetadata, int regionLevel,
+                                GraphicOverlay graphicOverlay, int slot, long sequence) {
+        // Results of a frame older than ones already shown are dropped.
+        if (finishSlot(slot, sequence, true)) {
+            if (regionLevel >= 0) {
+                recordRegionResult(results, frameMetadata, regionLevel, graphicOverlay);
+            }
+            FrameChangeGate gate = changeGate;
+            if (gate != null) {
+                gate.onResult(hasResults(results));
+            }
+            onSuccess(results, frameMetadata, graphicOverlay);
+        }
+        dispatchDetection(graphicOverlay);
+    }
+
+    private synchronized boolean isProcessing(int slot, long sequence) {
+        return !isShutdown && pipeline.isInFlight(slot, sequence);
     }
 
-    private void processImage(
-            ByteBuffer frame, final FrameMetadata frameMetaData, final GraphicOverlay graphicOverlay) {
+    /**
+     * Hands the frame of the slot back and frees the slot for the next frame. Does nothing if the
+     * slot was already finished, e.g. by {@link #stop()}, so a frame is never released twice.
+     *
+     * @return whether the results of the slot should be published
+     */
+    private synchronized boolean finishSlot(int slot, long sequence, boolean hasResults) {
+        if (!pipeline.isInFlight(slot, sequence)) {
+            return false;
+        }
+        long nowNanos = System.nanoTime();
+        detectionMetrics.exit(pipeline.getStartNanos(slot), nowNanos);
+        SlotTask task = slotTasks.get(slot);
+        if (task.frame != null) {
+            task.frame.release();
+            task.frame = null;
+        }
+        return pipeline.complete(slot, hasResults, nowNanos);
+    }
+
+    private List<SlotTask> createSlotTasks(int depth) {
+        List<SlotTask> tasks = new ArrayList<>(depth);
+        for (int slot = 0; slot < depth; slot++) {
+            tasks.add(new SlotTask(slot));
+        }
+        return tasks;
+    }
+
+    /**
+     * The frame of a pipeline slot and the callbacks of its detection. A slot holds one frame at a
+     * time and its detection calls back once per level, so the callbacks are created with the slot
+     * and reused for every frame instead of being allocated per frame.
+     */
+    private final class SlotTask
+            implements OnSuccessListener<T>, OnFailureListener, Runnable {
+        final int slot;
+
+        long sequence;
+        // The frame the slot is detecting on, released when the slot is done.
+        Frame frame;
+        int regionLevel;
+        GraphicOverlay graphicOverlay;
+
+        // The downscaled copy detected on at the current cascade level, if any.
+        @Nullable
+        Frame levelFrame;
+        int detectedLevel;
+        FrameMetadata frameMetadata;
+        long startNanos;
+
+        // Results delivered without detection.
+        @Nullable
+        T postedResults;
+
+        SlotTask(int slot) {
+            this.slot = slot;
+        }
+
+        void start(long sequence, Frame frame, int regionLevel, GraphicOverlay graphicOverlay) {
+            this.sequence = sequence;
+            this.frame = frame;
+            this.regionLevel = regionLevel;
+            this.graphicOverlay = graphicOverlay;
+        }
+
+        @Override
+        public void run() {
+            T results = postedResults;
+            postedResults = null;
+            if (isProcessing(slot, sequence)) {
+                deliverResults(results, frameMetadata, regionLevel, graphicOverlay, slot,
+                        sequence);
+            }
+        }
+
+        @Override
+        public void onSuccess(T results) {
+            releaseLevelFrame();
+            if (executor.isShutdown()) {
+                return;
+            }
+            if (detectedLevel >= 0) {
+                boolean last = detectedLevel == cascade.getLevelCount() - 1;
+                boolean sufficient = isResolutionSufficient(results, frameMetadata);
+                cascade.onDetected(detectedLevel, System.nanoTime() - startNanos, sufficient);
+                if (!sufficient && !last && isProcessing(slot, sequence)) {
+                    try {
+                        detectAtLevel(this, detectedLevel + 1);
+                        return;
+                    } catch (RuntimeException e) {
+                        FrameProcessorBase.this.onFailure(e);
+                    }
+                }
+            }
+            deliverResults(results, frameMetadata, regionLevel, graphicOverlay, slot, sequence);
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            releaseLevelFrame();
+            if (executor.isShutdown()) {
+                return;
+            }
+            // Read before the slot is freed and may take the next frame.
+            GraphicOverlay overlay = graphicOverlay;
+            finishSlot(slot, sequence, false);
+            FrameProcessorBase.this.onFailure(e);
+            dispatchDetection(overlay);
+        }
+
+        private void releaseLevelFrame() {
+            if (levelFrame != null) {
+                levelFrame.release();
+                levelFrame = null;
+            }
+        }
+    }
 
-        InputImage image = InputImage.fromByteBuffer(
-                frame,
-                frameMetaData.getWidth(),
-                frameMetaData.getHeight(),
-                frameMetaData.getRotation(),
+    private static InputImage toInputImage(Frame frame) {
+        Image mediaImage = frame.getImage();
+        if (mediaImage != null) {
+            // Camera2 frames are passed on as they are, ML Kit reads the planes in place.
+            return InputImage.fromMediaImage(mediaImage, frame.getRotation());
+        }
+        return InputImage.fromByteBuffer(
+                frame.getNv21Buffer(),
+                frame.getWidth(),
+                frame.getHeight(),
+                frame.getRotation(),
                 InputImage.IMAGE_FORMAT_NV21
         );
-        detectInImage(image).addOnSuccessListener(executor, results -> {
-            FrameProcessorBase.this.onSuccess(results, graphicOverlay);
-            processLatestImage(graphicOverlay);
-        }).addOnFailureListener(executor, FrameProcessorBase.this::onFailure);
+    }
+
+    private void recordRegionResult(T results, FrameMetadata frameMetadata, int regionLevel,
+                                    GraphicOverlay graphicOverlay) {
+        AdaptiveRegionPolicy policy = regionPolicy;
+        if (policy == null) {
+            return;
+        }
+        Rect hit = getHitBoundingBox(results);
+        int width = graphicOverlay.getWidth();
+        int height = graphicOverlay.getHeight();
+        float[] bounds = null;
+        if (hit != null && width > 0 && height > 0) {
+            graphicOverlay.translateRect(hit, frameMetadata, hitBox);
+            hitBounds[0] = hitBox.left / width;
+            hitBounds[1] = hitBox.top / height;
+            hitBounds[2] = hitBox.right / width;
+            hitBounds[3] = hitBox.bottom / height;
+            bounds = hitBounds;
+        }
+        policy.onResult(regionLevel, bounds);
+    }
+
+    /**
+     * Runs detection at a lower resolution than the preview. Frames are shrunk by the largest
+     * integer factor that keeps them at or above the given resolution; use 0 to detect at the
+     * preview resolution.
+     */
+    protected void setDetectionResolution(int width, int height) {
+        detectionWidth = width;
+        detectionHeight = height;
+    }
+
+    /**
+     * Detects on up to the given number of frames at the same time. Each frame in flight has a
+     * slot, passed to {@link #detectInImage(InputImage, int)} so every slot can use a detector of
+     * its own. Results are published in frame order; results of a frame that finish after those of
+     * a newer frame are dropped.
+     */
+    protected synchronized void setPipelineDepth(int depth) {
+        pipeline = new FramePipeline(depth);
+        slotTasks = createSlotTasks(depth);
+        detectionMetrics = new StageMetrics(depth, System.nanoTime());
+        sizeFramePools(depth);
+    }
+
+    private void sizeFramePools(int depth) {
+        // Every frame in flight may hold a pooled frame, plus the one waiting in the hand-off and
+        // the one being prepared.
+        frameCropper.setPoolSize(depth + 2);
+        frameScaler.setPoolSize(depth + 2);
+        pyramidScaler.setPoolSize(depth + 2);
+        candidateCropper.setPoolSize(depth + 2);
+    }
+
+    /**
+     * Returns the latency and occupancy of the preprocessing stage, which runs the gates and crops
+     * and scales frames before detection.
+     */
+    @NonNull
+    public StageMetrics getPreprocessingMetrics() {
+        return preprocessingMetrics;
+    }
+
+    /**
+     * Returns the latency and occupancy of the detection stage, from a frame taking a pipeline slot
+     * to its results being delivered.
+     */
+    @NonNull
+    public synchronized StageMetrics getDetectionMetrics() {
+        return detectionMetrics;
+    }
+
+    /**
+     * Returns the number of prepared frames replaced by a newer one before a pipeline slot was
+     * free to detect on them.
+     */
+    public synchronized long getReplacedPreparedFrameCount() {
+        return replacedFrames;
+    }
+
+    /**
+     * Returns the number of frames whose results were published.
+     */
+    public synchronized long getPublishedFrameCount() {
+        return pipeline.getPublishedCount();
+    }
+
+    /**
+     * Returns the number of frames whose results were dropped because results of a newer frame
+     * had already been published.
+     */
+    public synchronized long getOutOfOrderDropCount() {
+        return pipeline.getDroppedCount();
+    }
+
+    /**
+     * Returns the average time from a frame starting detection to its results being published.
+     */
+    public synchronized float getAverageFrameLatencyMillis() {
+        return pipeline.getAverageLatencyMillis();
+    }
+
+    /**
+     * Skips detection on frames that barely differ from the last frame detected on, while that
+     * detection found nothing. Detection is still forced every so often. Whether something was
+     * found is told by {@link #hasResults(Object)}.
+     */
+    protected void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+        changeGate = skipUnchangedFrames ? new FrameChangeGate() : null;
+    }
+
+    /**
+     * Returns the number of frames skipped because the scene didn't change.
+     */
+    public long getSkippedUnchangedFrameCount() {
+        FrameChangeGate gate = changeGate;
+        return gate != null ? gate.getSkippedFrameCount() : 0;
+    }
+
+    /**
+     * Runs a cheap localiser on every frame before detection. Frames without anything that looks
+     * like a barcode skip the detector and get the results of {@link #getEmptyResults()}, other
+     * frames are cropped to the region holding all candidates.
+     */
+    protected void setLocalizeBarcodes(boolean localizeBarcodes) {
+        localizer = localizeBarcodes ? new BarcodeLocalizer() : null;
+    }
+
+    /**
+     * Returns the number of frames the localiser found no barcode candidate in.
+     */
+    public long getSkippedEmptyFrameCount() {
+        BarcodeLocalizer currentLocalizer = localizer;
+        return currentLocalizer != null ? currentLocalizer.getEmptyFrameCount() : 0;
+    }
+
+    /**
+     * Drops frames that are too blurry, too dark or overexposed before they reach the detector.
+     */
+    protected void setDropPoorFrames(boolean dropPoorFrames) {
+        qualityGate = dropPoorFrames ? new FrameQualityGate() : null;
+    }
+
+    /**
+     * Returns the quality gate with its per-reason drop counters, or null if poor frames aren't
+     * dropped.
+     */
+    @Nullable
+    public FrameQualityGate getFrameQualityGate() {
+        return qualityGate;
+    }
+
+    /**
+     * Sets the listener called on the processing thread when frames have been too dark for a
+     * while. Has no effect unless poor frames are dropped.
+     */
+    public void setUnderexposureListener(
+            @Nullable FrameQualityGate.UnderexposureListener listener) {
+        FrameQualityGate quality = qualityGate;
+        if (quality != null) {
+            quality.setUnderexposureListener(listener);
+        }
+    }
+
+    /**
+     * Detects on a resolution pyramid of the given number of levels, each half the resolution of
+     * the next, starting low and moving up only while {@link #isResolutionSufficient(Object,
+     * FrameMetadata)} rejects the results. A count of one or less turns the cascade off.
+     */
+    protected void setDetectionCascade(int levelCount) {
+        cascade = levelCount > 1 ? new DetectionCascade(levelCount) : null;
+    }
+
+    /**
+     * Returns the counters of the detection cascade, or null if the cascade is off.
+     */
+    @Nullable
+    public DetectionCascade getDetectionCascade() {
+        return cascade;
+    }
+
+    /**
+     * Lets the region of interest adapt: detection starts on the region returned by {@link
+     * #getRegionOfInterest(GraphicOverlay)}, widens after the given number of frames without a hit
+     * and eventually covers the whole frame. A hit snaps it back to the smallest region containing
+     * it. Hits are reported by {@link #getHitBoundingBox(Object)}.
+     */
+    protected void setAdaptiveRegionOfInterest(int missesBeforeWidening) {
+        regionPolicy = new AdaptiveRegionPolicy(missesBeforeWidening);
+    }
+
+    /**
+     * Returns, for every level of the adaptive region of interest from tightest to whole frame,
+     * the share of frames detected at that level that had a hit, or null if the region of interest
+     * doesn't adapt.
+     */
+    @Nullable
+    public float[] getRegionHitRates() {
+        AdaptiveRegionPolicy policy = regionPolicy;
+        if (policy == null) {
+            return null;
+        }
+        float[] rates = new float[AdaptiveRegionPolicy.LEVEL_COUNT];
+        for (int level = 0; level < rates.length; level++) {
+            rates[level] = policy.getHitRate(level);
+        }
+        return rates;
     }
 
     @Override
     public void stop() {
         executor.shutdown();
-        isShutdown = true;
+        mainExecutor.shutdown();
+        resultThread.shutdown();
+        synchronized (this) {
+            isShutdown = true;
+            if (handoffFrame != null) {
+                handoffFrame.release();
+                handoffFrame = null;
+            }
+            // Callbacks of detections still running are dropped from now on, so the frames of
+            // the busy slots are handed back here.
+            for (SlotTask task : slotTasks) {
+                finishSlot(task.slot, task.sequence, false);
+            }
+        }
+    }
+
+    /**
+     * Returns the part of the upright preview that detection should run on, as fractions of its
+     * width and height, or null to detect on the whole frame. Only that part is copied out of the
+     * preview frame and passed to {@link #detectInImage(InputImage)}.
+     */
+    @Nullable
+    protected RectF getRegionOfInterest(@NonNull GraphicOverlay graphicOverlay) {
+        return null;
+    }
+
+    /**
+     * Returns the bounds of the result that counts as a hit for the adaptive region of interest,
+     * in coordinates of the detected frame, or null if the results hold nothing.
+     */
+    @Nullable
+    protected Rect getHitBoundingBox(@NonNull T results) {
+        return null;
+    }
+
+    /**
+     * Tries to read the frame without the detector, before it is cropped or scaled. Returns the
+     * results with coordinates relative to the frame, or null to run the detector.
+     */
+    @Nullable
+    protected T decodeWithoutDetector(@NonNull Frame frame) {
+        return null;
+    }
+
+    /**
+     * Returns the results to deliver for a frame the localiser found nothing in, or null to detect
+     * on such frames anyway.
+     */
+    @Nullable
+    protected T getEmptyResults() {
+        return null;
+    }
+
+    /**
+     * Returns whether the results hold anything. Unchanged frames are only skipped after a
+     * detection without results.
+     */
+    protected boolean hasResults(@NonNull T results) {
+        return true;
+    }
+
+    /**
+     * Returns whether results detected on a frame of the given resolution are good enough, or
+     * whether the cascade should detect again at a higher resolution.
+     */
+    protected boolean isResolutionSufficient(@NonNull T results,
+                                             @NonNull FrameMetadata frameMetadata) {
+        return true;
     }
 
     protected abstract Task<T> detectInImage(InputImage image);
 
-    protected abstract void onSuccess(@NonNull T results, @NonNull GraphicOverlay graphicOverlay);
+    /**
+     * Detects on the image of the given pipeline slot. Slots run at the same time with a pipeline
+     * depth above one; override to give each slot a detector of its own.
+     */
+    protected Task<T> detectInImage(InputImage image, int slot) {
+        return detectInImage(image);
+    }
+
+    /**
+     * Detects on the frame of the given pipeline slot, passed on as an {@link InputImage}.
+     */
+    Task<T> detectInFrame(@NonNull Frame frame, int slot) {
+        return detectInImage(toInputImage(frame), slot);
+    }
+
+    /**
+     * Runs the command on the main thread, unless the processor is stopped first. The command
+     * isn't wrapped, so nothing is allocated per call; a command posted before the processor is
+     * stopped may still run afterwards and has to check {@link #isStopped()} itself.
+     */
+    protected final void runOnMainThread(@NonNull Runnable command) {
+        mainExecutor.withoutWrapping().execute(command);
+    }
+
+    /**
+     * Returns whether {@link #stop()} was called.
+     */
+    protected final boolean isStopped() {
+        return mainExecutor.isShutdown();
+    }
+
+    /**
+     * Called on the result thread with the detection results of a frame. Coordinates in the
+     * results are relative to the frame described by the metadata, which may be a crop of the
+     * preview; use {@link GraphicOverlay#translateRect(android.graphics.Rect, FrameMetadata)} to
+     * map them to the view.
+     */
+    protected abstract void onSuccess(@NonNull T results, @NonNull FrameMetadata frameMetadata,
+                                      @NonNull GraphicOverlay graphicOverlay);
 
     protected abstract void onFailure(@NonNull Exception e);
 }
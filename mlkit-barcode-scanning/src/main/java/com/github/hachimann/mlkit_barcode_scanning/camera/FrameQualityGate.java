@@ -0,0 +1,158 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Drops frames that are too blurry, too dark or too washed out to be worth detecting on.
+ *
+ * <p>Frames are scored on a sparse grid of luma samples: sharpness is the mean squared difference
+ * between each sample and its right and lower neighbours, exposure is the mean sample value and
+ * clipping the share of saturated samples. Scoring allocates nothing and reads a few thousand
+ * bytes per frame. To keep a poor scene from starving detection altogether, one frame is let
+ * through after {@value #MAX_CONSECUTIVE_DROPS} drops in a row.
+ */
+public final class FrameQualityGate {
+
+    /**
+     * Receives a call when frames have been too dark for a while, e.g. to turn on the torch.
+     */
+    public interface UnderexposureListener {
+        void onUnderexposed();
+    }
+
+    public static final int REASON_BLURRY = 0;
+    public static final int REASON_TOO_DARK = 1;
+    public static final int REASON_OVEREXPOSED = 2;
+
+    static final int MIN_SHARPNESS = 20;
+    static final int MIN_BRIGHTNESS = 40;
+    static final int CLIPPED_LEVEL = 250;
+    static final float MAX_CLIPPED_SHARE = 0.25f;
+    static final int MAX_CONSECUTIVE_DROPS = 10;
+    static final int UNDEREXPOSED_FRAMES = 30;
+
+    /**
+     * Samples taken in each direction.
+     */
+    private static final int SAMPLES = 48;
+
+    private final long[] droppedFrames = new long[3];
+    private int consecutiveDrops;
+    private int consecutiveDarkFrames;
+
+    private int lastSharpness;
+    private int lastBrightness;
+    private float lastClippedShare;
+
+    @Nullable
+    private volatile UnderexposureListener underexposureListener;
+
+    FrameQualityGate() {
+    }
+
+    void setUnderexposureListener(@Nullable UnderexposureListener listener) {
+        underexposureListener = listener;
+    }
+
+    /**
+     * Scores the frame and returns whether it should be dropped. Must be called from one thread at
+     * a time.
+     */
+    boolean shouldDrop(@NonNull Frame frame) {
+        score(frame);
+
+        int reason = -1;
+        if (lastBrightness < MIN_BRIGHTNESS) {
+            reason = REASON_TOO_DARK;
+        } else if (lastClippedShare > MAX_CLIPPED_SHARE) {
+            reason = REASON_OVEREXPOSED;
+        } else if (lastSharpness < MIN_SHARPNESS) {
+            reason = REASON_BLURRY;
+        }
+
+        if (reason == REASON_TOO_DARK) {
+            if (++consecutiveDarkFrames == UNDEREXPOSED_FRAMES) {
+                UnderexposureListener listener = underexposureListener;
+                if (listener != null) {
+                    listener.onUnderexposed();
+                }
+            }
+        } else {
+            consecutiveDarkFrames = 0;
+        }
+
+        if (reason < 0 || consecutiveDrops >= MAX_CONSECUTIVE_DROPS) {
+            consecutiveDrops = 0;
+            return false;
+        }
+        consecutiveDrops++;
+        synchronized (droppedFrames) {
+            droppedFrames[reason]++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of frames dropped for the given reason, one of {@link #REASON_BLURRY},
+     * {@link #REASON_TOO_DARK} or {@link #REASON_OVEREXPOSED}.
+     */
+    public long getDroppedFrameCount(int reason) {
+        synchronized (droppedFrames) {
+            return droppedFrames[reason];
+        }
+    }
+
+    int getLastSharpness() {
+        return lastSharpness;
+    }
+
+    int getLastBrightness() {
+        return lastBrightness;
+    }
+
+    float getLastClippedShare() {
+        return lastClippedShare;
+    }
+
+    private void score(Frame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        ByteBuffer yBuffer = frame.getYBuffer();
+        int offset = frame.getYOffset();
+        int rowStride = frame.getYRowStride();
+        // Leave room for the right and lower neighbours.
+        int stepX = Math.max(1, (width - 1) / SAMPLES);
+        int stepY = Math.max(1, (height - 1) / SAMPLES);
+
+        long gradient = 0;
+        long brightness = 0;
+        int clipped = 0;
+        int count = 0;
+        for (int y = 0; y < height - 1; y += stepY) {
+            int row = offset + y * rowStride;
+            for (int x = 0; x < width - 1; x += stepX) {
+                int value = yBuffer.get(row + x) & 0xff;
+                int dx = (yBuffer.get(row + x + 1) & 0xff) - value;
+                int dy = (yBuffer.get(row + rowStride + x) & 0xff) - value;
+                gradient += dx * dx + dy * dy;
+                brightness += value;
+                if (value >= CLIPPED_LEVEL) {
+                    clipped++;
+                }
+                count++;
+            }
+        }
+        if (count == 0) {
+            lastSharpness = Integer.MAX_VALUE;
+            lastBrightness = Integer.MAX_VALUE;
+            lastClippedShare = 0f;
+            return;
+        }
+        lastSharpness = (int) (gradient / count);
+        lastBrightness = (int) (brightness / count);
+        lastClippedShare = (float) clipped / count;
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downscales frames by an integer factor into pooled NV21 buffers, so detection can run at a lower
+ * resolution than the preview.
+ *
+ * <p>Luma is averaged over every factor x factor block, which keeps thin bars from disappearing
+ * between the samples. Chroma matters little for barcodes and is simply subsampled. The metadata
+ * of a scaled frame records the scale, so detection results can be mapped back with {@link
+ * GraphicOverlay#translateRect(android.graphics.Rect, FrameMetadata)}.
+ */
+final class FrameScaler {
+
+    /**
+     * One scaled frame is detected on while the next one is being made.
+     */
+    static final int DEFAULT_POOL_SIZE = 2;
+
+    // Locked on its own rather than with the scaler, so a frame handed back from another thread
+    // doesn't wait for a scale in progress. Unlike a concurrent queue, it doesn't allocate per
+    // release.
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+    private final AtomicInteger createdFrames = new AtomicInteger();
+    private volatile int poolSize = DEFAULT_POOL_SIZE;
+    private final Frame.Recycler recycler = this::recycle;
+
+    private int[] rowSums = new int[0];
+
+    @Nullable
+    private FrameMetadata lastMetadata;
+
+    /**
+     * Sets how many pooled frames may exist at once, e.g. one per frame detected on in parallel
+     * plus one being made.
+     */
+    void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    private void recycle(@NonNull Frame frame) {
+        synchronized (freeFrames) {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Returns the largest factor that keeps a frame of the given size at or above the given
+     * resolution, in either orientation of the latter.
+     */
+    static int getFactor(int width, int height, int minWidth, int minHeight) {
+        if (minWidth <= 0 || minHeight <= 0) {
+            return 1;
+        }
+        // Match the orientations, the resolution may be given for a portrait preview.
+        if ((width >= height) != (minWidth >= minHeight)) {
+            int swap = minWidth;
+            minWidth = minHeight;
+            minHeight = swap;
+        }
+        return Math.max(1, Math.min(width / minWidth, height / minHeight));
+    }
+
+    /**
+     * Shrinks the source frame by the given factor. The source frame is left untouched and still
+     * has to be released by the caller.
+     *
+     * @return the scaled frame, or null if the factor is below two, the frame is too small to be
+     * scaled or no pooled buffer is available
+     */
+    @Nullable
+    synchronized Frame downscale(@NonNull Frame source, int factor) {
+        int width = (source.getWidth() / factor) & ~1;
+        int height = (source.getHeight() / factor) & ~1;
+        if (factor < 2 || width == 0 || height == 0) {
+            return null;
+        }
+
+        Frame frame;
+        synchronized (freeFrames) {
+            frame = freeFrames.poll();
+        }
+        if (frame == null) {
+            if (createdFrames.get() >= poolSize) {
+                return null;
+            }
+            createdFrames.incrementAndGet();
+            frame = new Frame(recycler);
+        }
+
+        int lumaSize = width * height;
+        ByteBuffer buffer = frame.getNv21Buffer();
+        if (buffer == null || buffer.capacity() < lumaSize * 3 / 2) {
+            buffer = ByteBuffer.wrap(new byte[lumaSize * 3 / 2]);
+        }
+        byte[] out = buffer.array();
+
+        scaleLuma(source, factor, width, height, out);
+        subsampleChroma(source, factor, width / 2, height / 2, out, lumaSize);
+
+        FrameMetadata sourceMetadata = source.getMetadata();
+        float scale = sourceMetadata.getScale() / factor;
+        FrameMetadata metadata = lastMetadata;
+        if (metadata == null || !metadata.matches(width, height, sourceMetadata.getRotation(),
+                sourceMetadata.getOffsetX(), sourceMetadata.getOffsetY(), scale)) {
+            metadata = new FrameMetadata(width, height, sourceMetadata.getRotation(),
+                    sourceMetadata.getOffsetX(), sourceMetadata.getOffsetY(), scale);
+            lastMetadata = metadata;
+        }
+        frame.setNv21(buffer, metadata);
+        return frame;
+    }
+
+    private void scaleLuma(Frame source, int factor, int width, int height, byte[] out) {
+        if (rowSums.length < width) {
+            rowSums = new int[width];
+        }
+        int[] sums = rowSums;
+        ByteBuffer yBuffer = source.getYBuffer();
+        byte[] array = yBuffer.hasArray() ? yBuffer.array() : null;
+        int base = source.getYOffset() + (array != null ? yBuffer.arrayOffset() : 0);
+        int rowStride = source.getYRowStride();
+        int area = factor * factor;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sums[x] = 0;
+            }
+            for (int row = 0; row < factor; row++) {
+                int index = base + (y * factor + row) * rowStride;
+                for (int x = 0; x < width; x++) {
+                    int sum = 0;
+                    if (array != null) {
+                        for (int column = 0; column < factor; column++) {
+                            sum += array[index++] & 0xff;
+                        }
+                    } else {
+                        for (int column = 0; column < factor; column++) {
+                            sum += yBuffer.get(index++) & 0xff;
+                        }
+                    }
+                    sums[x] += sum;
+                }
+            }
+            int outIndex = y * width;
+            for (int x = 0; x < width; x++) {
+                out[outIndex + x] = (byte) (sums[x] / area);
+            }
+        }
+    }
+
+    /**
+     * Writes every factor-th chroma sample as interleaved V and U, the NV21 layout.
+     */
+    private static void subsampleChroma(Frame source, int factor, int chromaWidth,
+                                        int chromaHeight, byte[] out, int outOffset) {
+        ByteBuffer vBuffer = source.getVBuffer();
+        ByteBuffer uBuffer = source.getUBuffer();
+        int rowStride = source.getUvRowStride();
+        int pixelStride = source.getUvPixelStride();
+        int vOffset = source.getVOffset();
+        int uOffset = source.getUOffset();
+
+        int index = outOffset;
+        for (int y = 0; y < chromaHeight; y++) {
+            int row = y * factor * rowStride;
+            for (int x = 0; x < chromaWidth; x++) {
+                int column = x * factor * pixelStride;
+                out[index++] = vBuffer.get(vOffset + row + column);
+                out[index++] = uBuffer.get(uOffset + row + column);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import android.view.SurfaceHolder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+
+/**
+ * A producer of preview frames, usually backed by a camera device. {@link CameraSource} drives a
+ * frame source and feeds the frames it delivers to the frame processor.
+ */
+public interface FrameSource {
+
+    /**
+     * Number of preview buffers used unless configured otherwise:
+     *
+     * <ul>
+     *   <li>one for the frame that is currently being executed upon in doing detection
+     *   <li>one for the next pending frame to process immediately upon completing detection
+     *   <li>two for the frames that the camera uses to populate future preview images
+     * </ul>
+     *
+     * <p>Through trial and error it appears that two free buffers, in addition to the two buffers
+     * used by the pipeline, are needed for the camera to work properly. Perhaps the camera has one
+     * thread for acquiring images, and another thread for calling into user code. If only three
+     * buffers are used, then the camera will spew thousands of warning messages when detection
+     * takes a non-trivial amount of time.
+     */
+    int DEFAULT_PREVIEW_BUFFER_COUNT = 4;
+
+    /**
+     * Receives frames from a {@link FrameSource}. The listener takes ownership of every frame it is
+     * given and must eventually call {@link Frame#release()} on it.
+     */
+    interface FrameListener {
+        void onFrame(@NonNull Frame frame);
+    }
+
+    void setFrameListener(@Nullable FrameListener listener);
+
+    /**
+     * Receives a still picture taken with {@link #capturePicture}.
+     */
+    interface PictureListener {
+        void onPicture(@NonNull byte[] jpeg);
+    }
+
+    /**
+     * Opens the underlying device and starts delivering frames to the listener. The supplied
+     * surface holder is used to display the preview.
+     *
+     * @throws IOException if the device cannot be opened or the preview cannot be displayed
+     */
+    void start(@NonNull SurfaceHolder surfaceHolder) throws IOException;
+
+    /**
+     * Stops delivering frames and closes the underlying device. The source may be started again.
+     */
+    void stop();
+
+    /**
+     * Changes the facing of the camera; one of {@link CameraSource#CAMERA_FACING_BACK} or
+     * {@link CameraSource#CAMERA_FACING_FRONT}. Takes effect on the next {@link #start}.
+     */
+    void setFacing(int facing);
+
+    int getCameraFacing();
+
+    /**
+     * Returns the size of the delivered frames, or null if the source has not been started yet.
+     */
+    @Nullable
+    Size getPreviewSize();
+
+    /**
+     * Returns the rotation of the delivered frames relative to the display, in degrees.
+     */
+    int getRotationDegrees();
+
+    /**
+     * Sets how many preview buffers the source keeps in flight. With equal counts the pool has a
+     * fixed depth; otherwise the source may adapt its depth within the range, if it supports doing
+     * so, and uses the largest count if it doesn't.
+     *
+     * @throws IllegalArgumentException if a count is below one or minCount exceeds maxCount
+     */
+    void setPreviewBufferCount(int minCount, int maxCount);
+
+    /**
+     * Returns the current occupancy of the preview buffer pool.
+     */
+    @NonNull
+    PreviewBufferStats getPreviewBufferStats();
+
+    /**
+     * Takes a full resolution JPEG picture at the picture size selected for the preview. The
+     * preview resumes once the picture is taken.
+     *
+     * @return false if the source isn't running or can't take pictures
+     */
+    default boolean capturePicture(@NonNull PictureListener listener) {
+        return false;
+    }
+
+    /**
+     * Applies one of the {@code android.hardware.Camera.Parameters} flash modes.
+     */
+    void updateFlashMode(@NonNull String flashMode);
+}
@@ -13,16 +13,29 @@ import com.google.android.gms.common.images.Size;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-
+import java.util.Arrays;
+
+/**
+ * A view drawing graphics over the camera preview.
+ *
+ * <p>The graphics are kept in an array that is never modified once published: writers build a new
+ * array and swap it in, and {@link #onDraw(Canvas)} draws whichever array is current without
+ * locking. A slow draw never blocks a detection thread adding graphics, and {@link
+ * #set(Graphic...)} swaps in a whole set of graphics at once, so a half-updated set is never
+ * drawn.
+ */
 public final class GraphicOverlay extends View {
+    private static final Graphic[] NO_GRAPHICS = new Graphic[0];
+
+    // Only serialises writers, so no update is lost between two copies.
     private final Object lock = new Object();
 
     private int previewWidth = 0;
-    private float widthScaleFactor = 1.0f;
+    // Written by draws and read by detection threads translating results.
+    private volatile float widthScaleFactor = 1.0f;
     private int previewHeight = 0;
-    private float heightScaleFactor = 1.0f;
-    private final ArrayList<Graphic> graphics = new ArrayList<>();
+    private volatile float heightScaleFactor = 1.0f;
+    private volatile Graphic[] graphics = NO_GRAPHICS;
 
     public GraphicOverlay(@NotNull Context context, @NotNull AttributeSet attrs) {
         super(context, attrs);
@@ -38,12 +51,25 @@ public final class GraphicOverlay extends View {
         protected final Context context;
         @NotNull
         protected final GraphicOverlay overlay;
+        private volatile boolean visible = true;
 
         protected Graphic(@NotNull GraphicOverlay overlay) {
             this.overlay = overlay;
             context = overlay.getContext();
         }
 
+        /**
+         * Shows or hides the graphic while it stays on the overlay, so a retained graphic can be
+         * switched on and off instead of being removed and created again.
+         */
+        public void setVisible(boolean visible) {
+            this.visible = visible;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
         /**
          * Draws the graphic on the supplied canvas.
          */
@@ -55,7 +81,7 @@ public final class GraphicOverlay extends View {
      */
     public void clear() {
         synchronized (lock) {
-            graphics.clear();
+            graphics = NO_GRAPHICS;
         }
         postInvalidate();
     }
@@ -65,10 +91,37 @@ public final class GraphicOverlay extends View {
      */
     public void add(@NotNull GraphicOverlay.Graphic graphic) {
         synchronized (lock) {
-            graphics.add(graphic);
+            Graphic[] current = graphics;
+            Graphic[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = graphic;
+            graphics = updated;
         }
     }
 
+    /**
+     * Replaces all graphics on the overlay with the given ones in a single step, e.g. the whole
+     * set drawn for one detection result.
+     */
+    public void set(@NotNull GraphicOverlay.Graphic... graphics) {
+        Graphic[] updated = graphics.length > 0
+                ? Arrays.copyOf(graphics, graphics.length) : NO_GRAPHICS;
+        synchronized (lock) {
+            this.graphics = updated;
+        }
+    }
+
+    /**
+     * Returns whether the graphic is on the overlay, visible or not.
+     */
+    public boolean contains(@NotNull GraphicOverlay.Graphic graphic) {
+        for (Graphic current : graphics) {
+            if (current == graphic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Sets the camera attributes for size and facing direction, which informs how to transform image
      * coordinates later.
@@ -111,6 +164,34 @@ public final class GraphicOverlay extends View {
         );
     }
 
+    /**
+     * Adjusts the `rect`'s coordinate from the coordinate system of the given frame, which may be a
+     * crop or a downscaled copy of the preview, to the view coordinate system.
+     */
+    @NotNull
+    public RectF translateRect(@NotNull Rect rect, @NotNull FrameMetadata frameMetadata) {
+        RectF out = new RectF();
+        translateRect(rect, frameMetadata, out);
+        return out;
+    }
+
+    /**
+     * Like {@link #translateRect(Rect, FrameMetadata)}, but writes the result to {@code out}, so
+     * the per-frame path doesn't allocate.
+     */
+    public void translateRect(@NotNull Rect rect, @NotNull FrameMetadata frameMetadata,
+                              @NotNull RectF out) {
+        int offsetX = frameMetadata.getOffsetX();
+        int offsetY = frameMetadata.getOffsetY();
+        float scale = frameMetadata.getScale();
+        out.set(
+                translateX(rect.left / scale + offsetX),
+                translateY(rect.top / scale + offsetY),
+                translateX(rect.right / scale + offsetX),
+                translateY(rect.bottom / scale + offsetY)
+        );
+    }
+
     /**
      * Draws the overlay with its associated graphic objects.
      */
@@ -123,8 +204,9 @@ public final class GraphicOverlay extends View {
             heightScaleFactor = (float) getHeight() / previewHeight;
         }
 
-        synchronized (lock) {
-            for (Graphic graphic : graphics) {
+        // The snapshot isn't modified by writers, so it is drawn without holding the lock.
+        for (Graphic graphic : graphics) {
+            if (graphic.isVisible()) {
                 graphic.draw(canvas);
             }
         }
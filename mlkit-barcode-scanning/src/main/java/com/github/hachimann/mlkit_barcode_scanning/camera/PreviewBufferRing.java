@@ -0,0 +1,352 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring of NV21 preview buffers shared with the camera through
+ * {@code Camera#addCallbackBuffer}.
+ *
+ * <p>Every slot knows its own index, the camera session (generation) it was last handed to and
+ * whether it is currently owned by the camera, pending in the pipeline or being processed. The
+ * slot index is also written into a small trailer behind the frame data, so a buffer coming back
+ * from the camera is mapped to its slot without any hashing. Buffers that don't belong to the ring
+ * and buffers that arrive in an unexpected state are counted instead of silently dropped.
+ *
+ * <p>The ring survives {@link #detach()} / {@link #attach(BufferSink)} cycles and only reallocates
+ * its buffers when the frame size changes. Its capacity can be changed at any time, either directly
+ * or by an {@link AdaptiveBufferPolicy}. Growing hands the new buffers to the camera right away;
+ * shrinking retires the buffers at the end of the ring as they come back from the pipeline.
+ */
+final class PreviewBufferRing {
+
+    static final int STATE_FREE = 0;
+    static final int STATE_CAMERA_OWNED = 1;
+    static final int STATE_PENDING = 2;
+    static final int STATE_PROCESSING = 3;
+
+    /**
+     * Receives the buffers that are handed to the camera.
+     */
+    interface BufferSink {
+        void addBuffer(@NonNull byte[] buffer);
+    }
+
+    private static final int TRAILER_SIZE = 4;
+    private static final int TRAILER_MAGIC = 0x5242;
+
+    private volatile Slot[] slots = new Slot[0];
+    private volatile int capacity;
+    private int frameSize = -1;
+    private FrameMetadata metadata;
+
+    @Nullable
+    private volatile BufferSink sink;
+    private volatile int generation;
+
+    @Nullable
+    private volatile AdaptiveBufferPolicy policy;
+
+    private final AtomicLong unknownBuffers = new AtomicLong();
+    private final AtomicLong staleBuffers = new AtomicLong();
+    private final AtomicLong staleReleases = new AtomicLong();
+    private final AtomicLong starvedFrames = new AtomicLong();
+    private final AtomicLong backlogFrames = new AtomicLong();
+    private final AtomicInteger resizes = new AtomicInteger();
+
+    PreviewBufferRing(int capacity) {
+        checkCapacity(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Makes sure every slot holds a buffer large enough for frames described by the metadata. The
+     * existing buffers are kept when the frame size is unchanged. Must be called while detached.
+     */
+    synchronized void prepare(@NonNull FrameMetadata metadata, int frameSize) {
+        this.metadata = metadata;
+        if (frameSize == this.frameSize) {
+            return;
+        }
+        this.frameSize = frameSize;
+        // Slots still held by the pipeline keep their old buffers; they are recognised as stale
+        // when released because they are no longer part of the new array.
+        Slot[] newSlots = new Slot[capacity];
+        for (int i = 0; i < newSlots.length; i++) {
+            newSlots[i] = new Slot(i, createBuffer(frameSize, i));
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Changes the number of buffers in the ring. New buffers are handed to the camera immediately;
+     * surplus buffers are dropped once they are free.
+     */
+    synchronized void setCapacity(int capacity) {
+        checkCapacity(capacity);
+        this.capacity = capacity;
+        Slot[] current = slots;
+        if (frameSize >= 0 && capacity > current.length) {
+            Slot[] grown = Arrays.copyOf(current, capacity);
+            for (int i = current.length; i < capacity; i++) {
+                grown[i] = new Slot(i, createBuffer(frameSize, i));
+            }
+            slots = grown;
+        }
+        rebalance();
+    }
+
+    /**
+     * Lets the policy resize the ring as frames are delivered, or keeps the current capacity if the
+     * policy is null.
+     */
+    void setPolicy(@Nullable AdaptiveBufferPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Starts a new camera session and hands every slot that isn't held by the pipeline to the sink.
+     * Slots that are still held are handed over as soon as they are released.
+     */
+    synchronized void attach(@NonNull BufferSink sink) {
+        generation++;
+        this.sink = sink;
+        for (Slot slot : slots) {
+            // No camera owns anything before attaching, so camera-owned slots left over from the
+            // previous session are free as well.
+            if (slot.state.compareAndSet(STATE_CAMERA_OWNED, STATE_FREE)
+                    || slot.state.get() == STATE_FREE) {
+                handToCamera(slot, sink);
+            }
+        }
+    }
+
+    /**
+     * Ends the camera session. Buffers that the camera still owned become free.
+     */
+    synchronized void detach() {
+        sink = null;
+        for (Slot slot : slots) {
+            slot.state.compareAndSet(STATE_CAMERA_OWNED, STATE_FREE);
+        }
+        rebalance();
+    }
+
+    /**
+     * Maps a buffer delivered by the camera back to its frame and marks it as pending.
+     *
+     * @return the frame, or null if the buffer is unknown or was not owned by the camera
+     */
+    @Nullable
+    Frame onPreviewFrame(@NonNull byte[] data) {
+        Slot slot = findSlot(data);
+        if (slot == null) {
+            unknownBuffers.incrementAndGet();
+            return null;
+        }
+        if (slot.generation != generation
+                || !slot.state.compareAndSet(STATE_CAMERA_OWNED, STATE_PENDING)) {
+            staleBuffers.incrementAndGet();
+            return null;
+        }
+
+        int cameraOwned = getStateCount(STATE_CAMERA_OWNED);
+        int backlog = getStateCount(STATE_PENDING) - 1;
+        if (backlog > 0) {
+            backlogFrames.incrementAndGet();
+        } else if (cameraOwned == 0) {
+            starvedFrames.incrementAndGet();
+        }
+        AdaptiveBufferPolicy currentPolicy = policy;
+        if (currentPolicy != null) {
+            int target = currentPolicy.onFrameDelivered(capacity, cameraOwned, backlog);
+            if (target != capacity) {
+                setCapacity(target);
+                resizes.incrementAndGet();
+            }
+        }
+        return slot.frame;
+    }
+
+    /**
+     * Returns the number of buffers the ring is meant to hold. Right after shrinking, buffers that
+     * are still held by the pipeline may briefly exceed it.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the number of slots currently in the given state.
+     */
+    int getStateCount(int state) {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.state.get() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @NonNull
+    PreviewBufferStats getStats() {
+        return new PreviewBufferStats(capacity, getStateCount(STATE_CAMERA_OWNED),
+                getStateCount(STATE_PENDING), getStateCount(STATE_PROCESSING),
+                starvedFrames.get(), backlogFrames.get(), resizes.get());
+    }
+
+    /**
+     * Returns the number of buffers received from the camera that don't belong to this ring.
+     */
+    long getUnknownBufferCount() {
+        return unknownBuffers.get();
+    }
+
+    /**
+     * Returns the number of buffers received from the camera that the camera wasn't supposed to
+     * own, either because of their state or because they were handed to an earlier session.
+     */
+    long getStaleBufferCount() {
+        return staleBuffers.get();
+    }
+
+    /**
+     * Returns the number of frames released more than once, or released after their buffer was
+     * dropped from the ring.
+     */
+    long getStaleReleaseCount() {
+        return staleReleases.get();
+    }
+
+    @Nullable
+    private Slot findSlot(@NonNull byte[] data) {
+        Slot[] current = slots;
+        if (data.length >= TRAILER_SIZE) {
+            int trailer = data.length - TRAILER_SIZE;
+            int magic = ((data[trailer] & 0xff) << 8) | (data[trailer + 1] & 0xff);
+            int index = ((data[trailer + 2] & 0xff) << 8) | (data[trailer + 3] & 0xff);
+            if (magic == TRAILER_MAGIC && index < current.length
+                    && current[index].buffer == data) {
+                return current[index];
+            }
+        }
+        return null;
+    }
+
+    private void recycle(@NonNull Slot slot) {
+        Slot[] current = slots;
+        if (slot.index >= current.length || current[slot.index] != slot) {
+            staleReleases.incrementAndGet();
+            return;
+        }
+        int state = slot.state.get();
+        if ((state != STATE_PENDING && state != STATE_PROCESSING)
+                || !slot.state.compareAndSet(state, STATE_FREE)) {
+            staleReleases.incrementAndGet();
+            return;
+        }
+        BufferSink currentSink = sink;
+        if (currentSink != null) {
+            handToCamera(slot, currentSink);
+        }
+    }
+
+    /**
+     * Drops free slots beyond the capacity from the end of the ring and hands free slots within the
+     * capacity to the camera.
+     */
+    private synchronized void rebalance() {
+        Slot[] current = slots;
+        int length = current.length;
+        while (length > capacity && current[length - 1].state.get() == STATE_FREE) {
+            length--;
+        }
+        if (length != current.length) {
+            current = Arrays.copyOf(current, length);
+            slots = current;
+        }
+        BufferSink currentSink = sink;
+        if (currentSink != null) {
+            for (Slot slot : current) {
+                if (slot.index < capacity && slot.state.get() == STATE_FREE) {
+                    handToCamera(slot, currentSink);
+                }
+            }
+        }
+    }
+
+    private void handToCamera(@NonNull Slot slot, @NonNull BufferSink sink) {
+        if (slot.index >= capacity) {
+            // The slot has been retired by a shrink.
+            rebalance();
+            return;
+        }
+        if (!slot.state.compareAndSet(STATE_FREE, STATE_CAMERA_OWNED)) {
+            return;
+        }
+        slot.generation = generation;
+        slot.frame.setNv21(slot.byteBuffer, metadata);
+        try {
+            sink.addBuffer(slot.buffer);
+        } catch (RuntimeException e) {
+            // The camera has been released concurrently; the next attach hands the slot over.
+            slot.state.set(STATE_FREE);
+        }
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid buffer count: " + capacity);
+        }
+    }
+
+    private static byte[] createBuffer(int frameSize, int index) {
+        byte[] buffer = new byte[frameSize + TRAILER_SIZE];
+        buffer[frameSize] = (byte) (TRAILER_MAGIC >> 8);
+        buffer[frameSize + 1] = (byte) TRAILER_MAGIC;
+        buffer[frameSize + 2] = (byte) (index >> 8);
+        buffer[frameSize + 3] = (byte) index;
+        return buffer;
+    }
+
+    /**
+     * One buffer of the ring together with the frame that wraps it.
+     */
+    final class Slot implements Frame.Recycler {
+        final int index;
+        final byte[] buffer;
+        final ByteBuffer byteBuffer;
+        final Frame frame;
+        final AtomicInteger state = new AtomicInteger(STATE_FREE);
+        volatile int generation;
+
+        Slot(int index, byte[] buffer) {
+            this.index = index;
+            this.buffer = buffer;
+            // Wrapping the array, as opposed to using .allocate(), guarantees that there will be an
+            // array to hand back to the camera.
+            this.byteBuffer = ByteBuffer.wrap(buffer);
+            this.frame = new Frame(this);
+        }
+
+        @Override
+        public void recycle(@NonNull Frame frame) {
+            PreviewBufferRing.this.recycle(this);
+        }
+
+        @Override
+        public void onProcessingStarted(@NonNull Frame frame) {
+            state.compareAndSet(STATE_PENDING, STATE_PROCESSING);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of the occupancy of a {@link FrameSource}'s preview buffer pool.
+ */
+public final class PreviewBufferStats {
+
+    private final int capacity;
+    private final int cameraOwned;
+    private final int pending;
+    private final int processing;
+    private final long starvedFrames;
+    private final long backlogFrames;
+    private final int resizeCount;
+
+    public PreviewBufferStats(int capacity, int cameraOwned, int pending, int processing,
+                              long starvedFrames, long backlogFrames, int resizeCount) {
+        this.capacity = capacity;
+        this.cameraOwned = cameraOwned;
+        this.pending = pending;
+        this.processing = processing;
+        this.starvedFrames = starvedFrames;
+        this.backlogFrames = backlogFrames;
+        this.resizeCount = resizeCount;
+    }
+
+    /**
+     * Returns the number of buffers in the pool.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of buffers the camera can currently fill.
+     */
+    public int getCameraOwned() {
+        return cameraOwned;
+    }
+
+    /**
+     * Returns the number of filled buffers waiting for detection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of buffers detection is currently running on.
+     */
+    public int getProcessing() {
+        return processing;
+    }
+
+    /**
+     * Returns the number of frames after which the camera was left without a free buffer while
+     * the detector was waiting for work, i.e. frames were lost to starvation.
+     */
+    public long getStarvedFrames() {
+        return starvedFrames;
+    }
+
+    /**
+     * Returns the number of frames that arrived while an earlier frame was still waiting for the
+     * detector.
+     */
+    public long getBacklogFrames() {
+        return backlogFrames;
+    }
+
+    /**
+     * Returns how often the pool has been grown or shrunk by the adaptive mode.
+     */
+    public int getResizeCount() {
+        return resizeCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PreviewBufferStats{capacity=" + capacity
+                + ", cameraOwned=" + cameraOwned
+                + ", pending=" + pending
+                + ", processing=" + processing
+                + ", starvedFrames=" + starvedFrames
+                + ", backlogFrames=" + backlogFrames
+                + ", resizeCount=" + resizeCount + "}";
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs commands one after another on a thread of its own, in the order they were submitted.
+ *
+ * <p>Commands wait in a fixed ring and the thread waits on the monitor of the executor. A thread
+ * pool over a blocking queue allocates a queue node or a condition node every time its thread goes
+ * idle, which with one callback per frame adds up to an allocation per frame.
+ */
+final class SerialResultExecutor implements Executor {
+
+    private final Runnable[] ring;
+    private final Thread thread;
+
+    @GuardedBy("this")
+    private int head;
+    @GuardedBy("this")
+    private int count;
+    @GuardedBy("this")
+    private boolean isShutdown;
+
+    SerialResultExecutor(int capacity, @NonNull String threadName) {
+        ring = new Runnable[capacity];
+        thread = new Thread(this::runLoop, threadName);
+        thread.start();
+    }
+
+    /**
+     * Queues the command. Commands submitted after {@link #shutdown()} are dropped.
+     *
+     * @throws RejectedExecutionException if the ring is full
+     */
+    @Override
+    public synchronized void execute(@NonNull Runnable command) {
+        if (isShutdown) {
+            return;
+        }
+        if (count == ring.length) {
+            throw new RejectedExecutionException("Result queue is full");
+        }
+        ring[(head + count) % ring.length] = command;
+        count++;
+        if (count == 1) {
+            notify();
+        }
+    }
+
+    /**
+     * Lets the thread finish once the commands already queued have run.
+     */
+    synchronized void shutdown() {
+        isShutdown = true;
+        notify();
+    }
+
+    private void runLoop() {
+        while (true) {
+            Runnable command;
+            synchronized (this) {
+                while (count == 0 && !isShutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (count == 0) {
+                    return;
+                }
+                command = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count--;
+            }
+            command.run();
+        }
+    }
+}
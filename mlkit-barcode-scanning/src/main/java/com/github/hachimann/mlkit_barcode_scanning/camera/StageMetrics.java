@@ -0,0 +1,75 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+/**
+ * Latency and occupancy of one stage of the frame pipeline.
+ *
+ * <p>Occupancy is the share of time the stage was working, averaged over the frames it can work
+ * on at once: a detection stage of depth two with one frame in flight all the time is half
+ * occupied. A stage close to fully occupied is the one holding the pipeline back.
+ */
+public final class StageMetrics {
+
+    private final int capacity;
+    private final long startNanos;
+
+    private int activeCount;
+    private long lastChangeNanos;
+    // Time integral of the active count.
+    private long busyNanos;
+
+    private long completedCount;
+    private long totalLatencyNanos;
+
+    StageMetrics(int capacity, long nowNanos) {
+        this.capacity = capacity;
+        startNanos = nowNanos;
+        lastChangeNanos = nowNanos;
+    }
+
+    synchronized void enter(long nowNanos) {
+        accumulate(nowNanos);
+        activeCount++;
+    }
+
+    synchronized void exit(long enteredNanos, long nowNanos) {
+        accumulate(nowNanos);
+        activeCount--;
+        completedCount++;
+        totalLatencyNanos += nowNanos - enteredNanos;
+    }
+
+    private void accumulate(long nowNanos) {
+        busyNanos += activeCount * (nowNanos - lastChangeNanos);
+        lastChangeNanos = nowNanos;
+    }
+
+    /**
+     * Returns the number of frames that went through the stage.
+     */
+    public synchronized long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Returns the average time a frame spent in the stage.
+     */
+    public synchronized float getAverageLatencyMillis() {
+        return completedCount > 0 ? totalLatencyNanos / 1e6f / completedCount : 0f;
+    }
+
+    /**
+     * Returns the share of time, from 0 to 1, the stage was working since it was created.
+     */
+    public float getOccupancy() {
+        return getOccupancy(System.nanoTime());
+    }
+
+    synchronized float getOccupancy(long nowNanos) {
+        long elapsed = nowNanos - startNanos;
+        if (elapsed <= 0) {
+            return 0f;
+        }
+        long busy = busyNanos + activeCount * (nowNanos - lastChangeNanos);
+        return (float) busy / elapsed / capacity;
+    }
+}
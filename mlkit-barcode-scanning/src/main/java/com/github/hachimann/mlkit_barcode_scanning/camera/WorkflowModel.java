@@ -6,23 +6,36 @@ import androidx.annotation.MainThread;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MutableLiveData;
 
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.TrackedBarcode;
 import com.google.mlkit.vision.barcode.common.Barcode;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 public class WorkflowModel extends AndroidViewModel {
 
     private final MutableLiveData<WorkflowState> workflowState;
     private final MutableLiveData<Barcode> detectedBarcode;
-    private boolean isCameraLive;
+    private final MutableLiveData<List<TrackedBarcode>> detectedBarcodes;
+    private final MutableLiveData<DecodedBarcode> fastPathBarcode;
+    private volatile boolean isCameraLive;
+    // Counts the times the camera went live, so results can be told apart by session.
+    private volatile int liveSession;
 
     public WorkflowModel(@NotNull Application application) {
         super(application);
         this.workflowState = new MutableLiveData<>();
         this.detectedBarcode = new MutableLiveData<>();
+        this.detectedBarcodes = new MutableLiveData<>();
+        this.fastPathBarcode = new MutableLiveData<>();
     }
 
     public final void markCameraLive() {
+        if (!this.isCameraLive) {
+            this.liveSession++;
+        }
         this.isCameraLive = true;
     }
 
@@ -39,6 +52,14 @@ public class WorkflowModel extends AndroidViewModel {
         return this.isCameraLive;
     }
 
+    /**
+     * Returns the number of the current live session, which changes every time the camera goes
+     * live after being frozen, e.g. once a result sheet is dismissed.
+     */
+    public final int getLiveSession() {
+        return this.liveSession;
+    }
+
     @NotNull
     public final MutableLiveData<WorkflowState> getWorkflowState() {
         return this.workflowState;
@@ -49,6 +70,20 @@ public class WorkflowModel extends AndroidViewModel {
         return this.detectedBarcode;
     }
 
+    @NotNull
+    public final MutableLiveData<List<TrackedBarcode>> getDetectedBarcodes() {
+        return this.detectedBarcodes;
+    }
+
+    /**
+     * Returns the barcodes read by the fast-path decoder, which don't come from ML Kit and so
+     * aren't published as a {@link Barcode}.
+     */
+    @NotNull
+    public final MutableLiveData<DecodedBarcode> getFastPathBarcode() {
+        return this.fastPathBarcode;
+    }
+
     public enum WorkflowState {
         NOT_STARTED,
         DETECTING,
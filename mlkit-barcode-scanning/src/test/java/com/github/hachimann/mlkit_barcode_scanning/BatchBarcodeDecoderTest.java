@@ -0,0 +1,214 @@
+package com.github.hachimann.mlkit_barcode_scanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.DecodedBarcode;
+import com.github.hachimann.mlkit_barcode_scanning.barcodedetection.TileDetector;
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchBarcodeDecoderTest {
+
+    private static final int SIZE = 100;
+
+    /**
+     * Reads the first luma byte as the value and takes a fixed time, like a detector that is
+     * bound by latency rather than CPU.
+     */
+    private static class FakeDetector implements TileDetector {
+        private final long delayMillis;
+        private final CountDownLatch gate;
+
+        FakeDetector(long delayMillis, CountDownLatch gate) {
+            this.delayMillis = delayMillis;
+            this.gate = gate;
+        }
+
+        @NonNull
+        @Override
+        public List<DecodedBarcode> detect(@NonNull byte[] nv21, int width, int height)
+                throws Exception {
+            gate.await();
+            Thread.sleep(delayMillis);
+            return Collections.singletonList(new DecodedBarcode(Integer.toString(nv21[0]),
+                    Barcode.FORMAT_QR_CODE, 0, 0, width, height, null));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Results implements BatchBarcodeDecoder.BatchListener {
+        final String[] values;
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Results(int count) {
+            values = new String[count];
+        }
+
+        @Override
+        public void onImageDecoded(int index, @NonNull List<DecodedBarcode> barcodes) {
+            values[index] = barcodes.get(0).getRawValue();
+        }
+
+        @Override
+        public void onImageFailed(int index, @NonNull Exception e) {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void onBatchFinished(boolean cancelled) {
+            this.cancelled.set(cancelled);
+        }
+    }
+
+    @Test
+    public void decode_streamsResultOfEveryImage() throws Exception {
+        BatchBarcodeDecoder decoder = new BatchBarcodeDecoder(3, Long.MAX_VALUE,
+                () -> new FakeDetector(0, new CountDownLatch(0)));
+        Results results = new Results(20);
+        try {
+            BatchBarcodeDecoder.Batch batch = decoder.decode(images(20), results);
+            batch.await();
+
+            assertTrue(batch.isDone());
+            for (int i = 0; i < 20; i++) {
+                assertEquals(Integer.toString(i), results.values[i]);
+            }
+            assertEquals(0, results.failures.get());
+            assertFalse(results.cancelled.get());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void cancel_skipsImagesNotStartedYet() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        BatchBarcodeDecoder decoder = new BatchBarcodeDecoder(2, Long.MAX_VALUE,
+                () -> new FakeDetector(0, gate));
+        Results results = new Results(20);
+        try {
+            BatchBarcodeDecoder.Batch batch = decoder.decode(images(20), results);
+            batch.cancel();
+            gate.countDown();
+            batch.await();
+
+            int decoded = 0;
+            for (String value : results.values) {
+                decoded += value != null ? 1 : 0;
+            }
+            assertTrue(decoded <= 2);
+            assertTrue(results.cancelled.get());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void decode_keepsImagesInFlightWithinMemoryBudget() throws Exception {
+        long imageBytes = SIZE * SIZE * 3 / 2;
+        final BatchBarcodeDecoder[] holder = new BatchBarcodeDecoder[1];
+        final AtomicInteger exceeded = new AtomicInteger();
+        // Room for two images at a time, with four workers.
+        BatchBarcodeDecoder decoder = new BatchBarcodeDecoder(4, 2 * imageBytes, () ->
+                new FakeDetector(5, new CountDownLatch(0)) {
+                    @NonNull
+                    @Override
+                    public List<DecodedBarcode> detect(@NonNull byte[] nv21, int width,
+                                                       int height) throws Exception {
+                        if (holder[0].getBytesInFlight() > 2 * imageBytes) {
+                            exceeded.incrementAndGet();
+                        }
+                        return super.detect(nv21, width, height);
+                    }
+                });
+        holder[0] = decoder;
+        try {
+            decoder.decode(images(16), new Results(16)).await();
+
+            assertEquals(0, exceeded.get());
+            assertEquals(0, decoder.getBytesInFlight());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void decode_dropsBuffersBeyondShareOfMemoryBudget() throws Exception {
+        final List<byte[]> buffers = Collections.synchronizedList(new ArrayList<>());
+        // One worker, whose share of the budget fits exactly one SIZE x SIZE image.
+        BatchBarcodeDecoder decoder = new BatchBarcodeDecoder(1, SIZE * SIZE * 3 / 2, () ->
+                new FakeDetector(0, new CountDownLatch(0)) {
+                    @NonNull
+                    @Override
+                    public List<DecodedBarcode> detect(@NonNull byte[] nv21, int width,
+                                                       int height) throws Exception {
+                        buffers.add(nv21);
+                        return super.detect(nv21, width, height);
+                    }
+                });
+        try {
+            decoder.decode(Arrays.asList(image(0, SIZE), image(1, SIZE), image(2, 2 * SIZE),
+                    image(3, 2 * SIZE)), new Results(4)).await();
+
+            assertSame(buffers.get(0), buffers.get(1));
+            assertNotSame(buffers.get(2), buffers.get(3));
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void decode_scalesWithWorkersWhenDetectionIsLatencyBound() throws Exception {
+        long serial = timeBatch(1);
+        long parallel = timeBatch(4);
+
+        assertTrue("1 worker: " + serial + " ms, 4 workers: " + parallel + " ms",
+                parallel * 2 < serial);
+    }
+
+    private static long timeBatch(int parallelism) throws Exception {
+        BatchBarcodeDecoder decoder = new BatchBarcodeDecoder(parallelism, Long.MAX_VALUE,
+                () -> new FakeDetector(10, new CountDownLatch(0)));
+        try {
+            long start = System.nanoTime();
+            decoder.decode(images(24), new Results(24)).await();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            decoder.close();
+        }
+    }
+
+    private static List<BatchBarcodeDecoder.ImageSource> images(int count) {
+        List<BatchBarcodeDecoder.ImageSource> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            images.add(image(i, SIZE));
+        }
+        return images;
+    }
+
+    private static BatchBarcodeDecoder.ImageSource image(int value, int size) {
+        byte[] nv21 = new byte[size * size * 3 / 2];
+        nv21[0] = (byte) value;
+        return BatchBarcodeDecoder.fromNv21(nv21, size, size);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+public class BarcodeConsensusTest {
+
+    private static final long FRAME_NANOS = 33_000_000L;
+
+    private long now;
+
+    @Test
+    public void onFrame_acceptsValueSeenInEnoughRecentFrames() {
+        BarcodeConsensus consensus = new BarcodeConsensus(3, 5, false);
+
+        assertFalse(read(consensus, "A1"));
+        assertFalse(read(consensus, null));
+        assertFalse(read(consensus, "B2"));
+        assertFalse(read(consensus, "A1"));
+        assertTrue(read(consensus, "A1"));
+
+        assertEquals(1, consensus.getAcceptedCount());
+        // From the first of the three agreeing frames to the last.
+        assertEquals(4 * FRAME_NANOS / 1e6f, consensus.getLastLatencyMillis(), 1e-3f);
+    }
+
+    @Test
+    public void onFrame_forgetsReadsThatLeftTheWindow() {
+        BarcodeConsensus consensus = new BarcodeConsensus(2, 3, false);
+
+        assertFalse(read(consensus, "A1"));
+        assertFalse(read(consensus, null));
+        assertFalse(read(consensus, null));
+        assertFalse(read(consensus, "A1"));
+        assertTrue(read(consensus, "A1"));
+    }
+
+    @Test
+    public void onFrame_acceptsCheckedFormatAfterSingleReadIfEnabled() {
+        BarcodeConsensus consensus = new BarcodeConsensus(3, 5, true);
+
+        assertTrue(consensus.onFrame("4006381333931", Barcode.FORMAT_EAN_13, now));
+        assertFalse(consensus.onFrame("CODE39", Barcode.FORMAT_CODE_39, now));
+        assertEquals(0f, consensus.getLastLatencyMillis(), 0f);
+    }
+
+    @Test
+    public void reset_forgetsRecentReads() {
+        BarcodeConsensus consensus = new BarcodeConsensus(2, 4, false);
+        read(consensus, "A1");
+
+        consensus.reset();
+
+        assertFalse(read(consensus, "A1"));
+        assertTrue(read(consensus, "A1"));
+    }
+
+    private boolean read(BarcodeConsensus consensus, String value) {
+        now += FRAME_NANOS;
+        return consensus.onFrame(value, Barcode.FORMAT_CODE_39, now);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+public class BarcodeIdAssignerTest {
+
+    private static final int CODE_128 = Barcode.FORMAT_CODE_128;
+
+    @Test
+    public void assign_keepsIdsOfMovingBarcodes() {
+        BarcodeIdAssigner assigner = new BarcodeIdAssigner();
+
+        assigner.beginUpdate();
+        int first = assigner.assign("A1", CODE_128, 0.1f, 0.1f, 0.2f, 0.15f);
+        int second = assigner.assign("B2", CODE_128, 0.5f, 0.1f, 0.6f, 0.15f);
+        assigner.endUpdate();
+
+        for (int frame = 1; frame <= 10; frame++) {
+            float dy = frame * 0.01f;
+            assigner.beginUpdate();
+            // Listed in a different order than before.
+            assertEquals(second, assigner.assign("B2", CODE_128, 0.5f, 0.1f + dy, 0.6f,
+                    0.15f + dy));
+            assertEquals(first, assigner.assign("A1", CODE_128, 0.1f, 0.1f + dy, 0.2f,
+                    0.15f + dy));
+            assigner.endUpdate();
+        }
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void assign_keepsLabelsWithSameValueApart() {
+        BarcodeIdAssigner assigner = new BarcodeIdAssigner();
+
+        assigner.beginUpdate();
+        int left = assigner.assign("A1", CODE_128, 0.1f, 0.4f, 0.2f, 0.5f);
+        int right = assigner.assign("A1", CODE_128, 0.7f, 0.4f, 0.8f, 0.5f);
+        assigner.endUpdate();
+        assigner.beginUpdate();
+        int rightAgain = assigner.assign("A1", CODE_128, 0.71f, 0.4f, 0.81f, 0.5f);
+        int leftAgain = assigner.assign("A1", CODE_128, 0.11f, 0.4f, 0.21f, 0.5f);
+        assigner.endUpdate();
+
+        assertNotEquals(left, right);
+        assertEquals(left, leftAgain);
+        assertEquals(right, rightAgain);
+    }
+
+    @Test
+    public void endUpdate_forgetsBarcodesMissingForTooLong() {
+        BarcodeIdAssigner assigner = new BarcodeIdAssigner();
+        assigner.beginUpdate();
+        int id = assigner.assign("A1", CODE_128, 0.1f, 0.1f, 0.2f, 0.2f);
+        assigner.endUpdate();
+
+        for (int i = 0; i < BarcodeIdAssigner.MAX_MISSES; i++) {
+            assigner.beginUpdate();
+            assigner.endUpdate();
+        }
+        assigner.beginUpdate();
+        assertEquals(id, assigner.assign("A1", CODE_128, 0.1f, 0.1f, 0.2f, 0.2f));
+        assigner.endUpdate();
+
+        for (int i = 0; i <= BarcodeIdAssigner.MAX_MISSES; i++) {
+            assigner.beginUpdate();
+            assigner.endUpdate();
+        }
+        assertEquals(0, assigner.getEntryCount());
+        assigner.beginUpdate();
+        assertNotEquals(id, assigner.assign("A1", CODE_128, 0.1f, 0.1f, 0.2f, 0.2f));
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+public class BarcodeTrackerTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private final BarcodeTracker tracker = new BarcodeTracker(2);
+
+    @Test
+    public void observe_followsBarcodeAndEstimatesVelocity() {
+        for (int i = 0; i < 4; i++) {
+            update("123", 0.2f + 0.1f * i, 0.4f);
+        }
+
+        assertEquals(1, tracker.getTrackCount());
+        BarcodeTracker.Track track = tracker.getTrack(0);
+        assertEquals("123", track.getRawValue());
+        assertEquals(4, track.getAge());
+        assertEquals(0.5f, track.getLeft(), DELTA);
+        // Blended halfway towards 0.1 three times.
+        assertEquals(0.0875f, track.getVelocityX(), DELTA);
+        assertEquals(0f, track.getVelocityY(), DELTA);
+    }
+
+    @Test
+    public void predictRegion_waitsForConfidentTrack() {
+        float[] region = new float[4];
+        for (int i = 1; i < BarcodeTracker.CONFIDENT_AGE; i++) {
+            update("123", 0.4f, 0.4f);
+            assertFalse(tracker.predictRegion(region));
+        }
+
+        update("123", 0.4f, 0.4f);
+
+        assertTrue(tracker.predictRegion(region));
+        // A 0.2 x 0.1 box with half its size added on every side.
+        assertArrayEquals(new float[]{0.3f, 0.35f, 0.7f, 0.55f}, region, DELTA);
+    }
+
+    @Test
+    public void endUpdate_coastsMissingTrackAndExpiresIt() {
+        for (int i = 0; i < 4; i++) {
+            update("123", 0.2f + 0.1f * i, 0.4f);
+        }
+        float velocity = tracker.getTrack(0).getVelocityX();
+
+        update(null, 0f, 0f);
+        assertEquals(1, tracker.getTrackCount());
+        assertEquals(0.5f + velocity, tracker.getTrack(0).getLeft(), DELTA);
+        assertTrue(tracker.isCoasting(0.7f, 0.45f));
+
+        update(null, 0f, 0f);
+        assertEquals(1, tracker.getTrackCount());
+        update(null, 0f, 0f);
+        assertEquals(0, tracker.getTrackCount());
+        assertFalse(tracker.isCoasting(0.7f, 0.45f));
+    }
+
+    @Test
+    public void observe_keepsSeparateTracksPerValue() {
+        tracker.beginUpdate();
+        tracker.observe("123", Barcode.FORMAT_EAN_13, 0.1f, 0.1f, 0.3f, 0.2f);
+        tracker.observe("456", Barcode.FORMAT_EAN_13, 0.6f, 0.6f, 0.8f, 0.7f);
+        tracker.endUpdate();
+        update("456", 0.6f, 0.6f);
+
+        assertEquals(2, tracker.getTrackCount());
+        assertEquals(1, tracker.getTrack(0).getMisses());
+        assertEquals(2, tracker.getTrack(1).getAge());
+    }
+
+    /**
+     * Applies a detection holding a 0.2 x 0.1 barcode at the given position, or nothing if the
+     * value is null.
+     */
+    private void update(String rawValue, float left, float top) {
+        tracker.beginUpdate();
+        if (rawValue != null) {
+            tracker.observe(rawValue, Barcode.FORMAT_EAN_13, left, top, left + 0.2f, top + 0.1f);
+        }
+        tracker.endUpdate();
+    }
+}
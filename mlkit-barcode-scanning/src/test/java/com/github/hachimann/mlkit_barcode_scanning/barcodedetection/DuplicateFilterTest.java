@@ -0,0 +1,48 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void accept_deliversValueOnceWhileItKeepsBeingSeen() {
+        DuplicateFilter filter = new DuplicateFilter(100, 8);
+
+        assertTrue(filter.accept("A1", 0));
+        for (long t = 50; t <= 500; t += 50) {
+            assertFalse(filter.accept("A1", t * MILLIS));
+        }
+        assertEquals(10, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void accept_deliversValueAgainAfterTimeToLive() {
+        DuplicateFilter filter = new DuplicateFilter(100, 8);
+
+        assertTrue(filter.accept("A1", 0));
+        assertTrue(filter.accept("B2", 10 * MILLIS));
+        assertTrue(filter.accept("A1", 100 * MILLIS));
+        assertFalse(filter.accept("B2", 50 * MILLIS));
+    }
+
+    @Test
+    public void accept_forgetsLeastRecentlySeenValueBeyondCapacity() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 2);
+        filter.accept("A1", 0);
+        filter.accept("B2", MILLIS);
+        // Seeing A1 again makes B2 the least recently seen value.
+        filter.accept("A1", 2 * MILLIS);
+
+        assertTrue(filter.accept("C3", 3 * MILLIS));
+
+        assertEquals(2, filter.size());
+        assertFalse(filter.accept("A1", 4 * MILLIS));
+        assertTrue(filter.accept("B2", 5 * MILLIS));
+    }
+}
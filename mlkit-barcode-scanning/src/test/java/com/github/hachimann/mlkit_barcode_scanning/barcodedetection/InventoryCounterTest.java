@@ -0,0 +1,92 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+public class InventoryCounterTest {
+
+    private static final long FRAME_NANOS = 33_000_000L;
+    private static final int EAN_13 = Barcode.FORMAT_EAN_13;
+
+    @Test
+    public void record_countsLabelHeldInViewOnce() {
+        InventoryCounter counter = new InventoryCounter(true);
+
+        // The label drifts a little between frames as the camera moves.
+        for (int frame = 0; frame < 30; frame++) {
+            float x = 0.3f + frame * 0.005f;
+            counter.record("4006381333931", EAN_13, x, 0.4f, x + 0.2f, 0.5f, frame * FRAME_NANOS);
+        }
+
+        assertEquals(1, counter.getCount("4006381333931", EAN_13));
+    }
+
+    @Test
+    public void record_countsSameValueOnSeparateLabels() {
+        InventoryCounter counter = new InventoryCounter(true);
+
+        assertTrue(counter.record("4006381333931", EAN_13, 0.1f, 0.4f, 0.3f, 0.5f, 0));
+        assertTrue(counter.record("4006381333931", EAN_13, 0.6f, 0.4f, 0.8f, 0.5f, 0));
+        // Seen again where it was after the hold time has passed.
+        long later = (InventoryCounter.HOLD_MILLIS + 1) * 1_000_000L;
+        assertTrue(counter.record("4006381333931", EAN_13, 0.1f, 0.4f, 0.3f, 0.5f, later));
+
+        assertEquals(3, counter.getCount("4006381333931", EAN_13));
+    }
+
+    @Test
+    public void record_keysCountsByValueAndFormat() {
+        InventoryCounter counter = new InventoryCounter(false);
+
+        counter.record("123", Barcode.FORMAT_CODE_128, 0, 0, 1, 1, 0);
+        counter.record("123", Barcode.FORMAT_CODE_128, 0, 0, 1, 1, 0);
+        counter.record("123", Barcode.FORMAT_QR_CODE, 0, 0, 1, 1, 0);
+
+        assertEquals(2, counter.getCount("123", Barcode.FORMAT_CODE_128));
+        assertEquals(1, counter.getCount("123", Barcode.FORMAT_QR_CODE));
+        assertEquals(2, counter.getDistinctCount());
+    }
+
+    @Test
+    public void snapshot_isConsistentWhileCountsAreRecorded() throws InterruptedException {
+        final InventoryCounter counter = new InventoryCounter(false);
+        final int values = 100_000;
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < values; i++) {
+                    counter.record(Integer.toString(i), EAN_13, 0, 0, 1, 1, 0);
+                }
+            }
+        });
+        writer.start();
+
+        long lastTotal = 0;
+        while (writer.isAlive()) {
+            // Values are recorded in rounds, so at any point in time no two counts differ by
+            // more than one; a copy taken while counts change would break that.
+            InventoryCounter.Snapshot snapshot = counter.snapshot();
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                min = Math.min(min, snapshot.getCount(i));
+                max = Math.max(max, snapshot.getCount(i));
+            }
+            if (snapshot.size() == values) {
+                assertTrue(max - min <= 1);
+            }
+            assertTrue(snapshot.getTotal() >= lastTotal);
+            lastTotal = snapshot.getTotal();
+        }
+        writer.join();
+
+        InventoryCounter.Snapshot snapshot = counter.snapshot();
+        assertEquals(values, snapshot.size());
+        assertEquals(3L * values, snapshot.getTotal());
+        assertFalse(snapshot.getRawValue(0).isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Feeds the detection results of two barcodes in view through the analysis the processor runs on
+ * every frame, and checks that it doesn't allocate once warmed up.
+ */
+public class ResultPathAllocationTest {
+
+    private static final long FRAME_NANOS = 33_000_000L;
+    private static final int WARM_UP_FRAMES = 5000;
+    private static final int FRAMES = 1000;
+    private static final String[] VALUES = {"4006381333931", "9780201379624"};
+    private static final int EAN_13 = Barcode.FORMAT_EAN_13;
+
+    private final BarcodeTracker tracker = new BarcodeTracker(3);
+    private final BarcodeConsensus consensus = new BarcodeConsensus(3, 5, false);
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter(2000, 16);
+    private final BarcodeIdAssigner idAssigner = new BarcodeIdAssigner();
+    private final InventoryCounter counter = new InventoryCounter(false);
+
+    private final float[] region = new float[4];
+    private int frame;
+
+    @Test
+    public void steadyStateResults_allocateNothing() {
+        com.sun.management.ThreadMXBean threads = getThreadBean();
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            analyseFrame();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < FRAMES; i++) {
+            analyseFrame();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Any object is more than a byte, so this only holds if frames allocate nothing.
+        assertTrue(allocated + " bytes allocated over " + FRAMES + " frames", allocated < FRAMES);
+        assertEquals(2, tracker.getTrackCount());
+        assertEquals(2, idAssigner.getEntryCount());
+        assertEquals(WARM_UP_FRAMES + FRAMES, counter.getCount(VALUES[0], EAN_13));
+    }
+
+    private void analyseFrame() {
+        long timestamp = frame * FRAME_NANOS;
+        // Both labels drift back and forth as the camera moves.
+        float drift = (frame % 20) * 0.005f;
+        frame++;
+
+        tracker.beginUpdate();
+        idAssigner.beginUpdate();
+        for (int i = 0; i < VALUES.length; i++) {
+            float left = 0.1f + i * 0.5f + drift;
+            float top = 0.4f;
+            float right = left + 0.3f;
+            float bottom = 0.5f;
+            tracker.observe(VALUES[i], EAN_13, left, top, right, bottom);
+            idAssigner.assign(VALUES[i], EAN_13, left, top, right, bottom);
+            duplicateFilter.accept(VALUES[i], timestamp);
+            counter.record(VALUES[i], EAN_13, left, top, right, bottom, timestamp);
+        }
+        tracker.endUpdate();
+        idAssigner.endUpdate();
+        tracker.predictRegion(region);
+        consensus.onFrame(VALUES[0], EAN_13, timestamp);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        return allocations;
+    }
+}
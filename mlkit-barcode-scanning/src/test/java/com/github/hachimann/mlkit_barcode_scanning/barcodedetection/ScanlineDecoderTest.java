@@ -0,0 +1,249 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.hachimann.mlkit_barcode_scanning.camera.Frame;
+import com.github.hachimann.mlkit_barcode_scanning.camera.FrameMetadata;
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class ScanlineDecoderTest {
+
+    private static final int[][] EAN_L = {
+            {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+            {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2}};
+    private static final int[] EAN_PARITIES = {
+            0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A};
+
+    private final ScanlineDecoder decoder = new ScanlineDecoder();
+    private final Random random = new Random(7);
+
+    @Test
+    public void code128Patterns_areElevenModulesWithAnEvenBarWidth() {
+        Set<String> patterns = new HashSet<>();
+        for (int[] pattern : ScanlineDecoder.CODE128_PATTERNS) {
+            assertEquals(11, pattern[0] + pattern[1] + pattern[2] + pattern[3] + pattern[4]
+                    + pattern[5]);
+            assertEquals(0, (pattern[0] + pattern[2] + pattern[4]) % 2);
+            assertTrue(patterns.add(Arrays.toString(pattern)));
+        }
+        assertEquals(106, patterns.size());
+    }
+
+    @Test
+    public void decodeLine_readsEan13() {
+        int[] line = render(encodeEan13("4006381333931"), 3);
+
+        assertTrue(decoder.decodeLine(line, line.length));
+        assertEquals("4006381333931", decoder.getLineValue());
+        assertEquals(Barcode.FORMAT_EAN_13, decoder.getLineFormat());
+        // Blurred edges may shift by a pixel.
+        assertEquals(40, decoder.getLineStart(), 1);
+        assertEquals(40 + 95 * 3, decoder.getLineEnd(), 1);
+    }
+
+    @Test
+    public void decodeLine_readsUpcAUpsideDown() {
+        List<Integer> widths = encodeEan13("0036000291452");
+        Collections.reverse(widths);
+        int[] line = render(widths, 2);
+
+        assertTrue(decoder.decodeLine(line, line.length));
+        assertEquals("036000291452", decoder.getLineValue());
+        assertEquals(Barcode.FORMAT_UPC_A, decoder.getLineFormat());
+    }
+
+    @Test
+    public void decodeLine_rejectsWrongCheckDigit() {
+        int[] line = render(encodeEan13("4006381333932"), 3);
+
+        assertFalse(decoder.decodeLine(line, line.length));
+    }
+
+    @Test
+    public void decodeLine_readsCode128AcrossCodeSets() {
+        // Code set B "AB-", then code set C "1234".
+        int[] values = {33, 34, 13, 99, 12, 34};
+        int[] line = render(encodeCode128(ScanlineDecoder.CODE128_START_B, values), 3);
+
+        assertTrue(decoder.decodeLine(line, line.length));
+        assertEquals("AB-1234", decoder.getLineValue());
+        assertEquals(Barcode.FORMAT_CODE_128, decoder.getLineFormat());
+    }
+
+    @Test
+    public void decodeLine_rejectsCode128WithBrokenChecksum() {
+        List<Integer> widths = encodeCode128(ScanlineDecoder.CODE128_START_C, new int[]{12, 34});
+        // Swap the two data symbols, which keeps every symbol valid but not the checksum.
+        List<Integer> swapped = new ArrayList<>(widths.subList(0, 6));
+        swapped.addAll(widths.subList(12, 18));
+        swapped.addAll(widths.subList(6, 12));
+        swapped.addAll(widths.subList(18, widths.size()));
+        int[] line = render(swapped, 3);
+
+        assertFalse(decoder.decodeLine(line, line.length));
+    }
+
+    @Test
+    public void decodeLine_rejectsCode128LongerThanMaxLengthAtFnc1() {
+        // Code set C digits filling the whole text, followed by an FNC1 separator.
+        int[] values = new int[ScanlineDecoder.MAX_LENGTH / 2 + 1];
+        Arrays.fill(values, 12);
+        values[values.length - 1] = 102;
+        int[] line = render(encodeCode128(ScanlineDecoder.CODE128_START_C, values), 3);
+
+        assertFalse(decoder.decodeLine(line, line.length));
+    }
+
+    @Test
+    public void decodeLine_findsNothingOnText() {
+        int[] line = new int[400];
+        for (int x = 0; x < line.length; x++) {
+            line[x] = random.nextInt(6) == 0 ? 30 : 220;
+        }
+
+        assertFalse(decoder.decodeLine(line, line.length));
+    }
+
+    @Test
+    public void decodeLine_allocatesNothingOnceWarmedUp() {
+        int[] line = render(encodeEan13("4006381333932"), 3);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 1000; i++) {
+            decoder.decodeLine(line, line.length);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            decoder.decodeLine(line, line.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Leaves room for the measurement itself, not for a buffer per scanline.
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1000);
+    }
+
+    @Test
+    public void decode_readsScanlinesThroughCentreOfRotatedFrame() {
+        // The bars run across the upright frame, which the sensor delivers rotated by 90 degrees.
+        int[] row = render(encodeEan13("5901234123457"), 3);
+        int uprightWidth = row.length;
+        int uprightHeight = 240;
+        int width = uprightHeight;
+        int height = uprightWidth;
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int u = 0; u < uprightWidth; u++) {
+            for (int v = 0; v < uprightHeight; v++) {
+                int value = v >= 80 && v < 160 ? row[u] : 220;
+                // Upright (u, v) sits at sensor (v, height - 1 - u).
+                data[(height - 1 - u) * width + v] = (byte) value;
+            }
+        }
+        Frame frame = Frame.fromNv21(ByteBuffer.wrap(data), new FrameMetadata(width, height, 90));
+
+        assertTrue(decoder.decode(frame));
+        assertEquals("5901234123457", decoder.getRawValue());
+        assertEquals(Barcode.FORMAT_EAN_13, decoder.getFormat());
+        int[] bounds = new int[4];
+        decoder.getBounds(bounds);
+        assertEquals(40, bounds[0], 1);
+        assertEquals(40 + 95 * 3, bounds[2], 1);
+        assertTrue(bounds[1] >= 80 - 15 && bounds[1] < 120);
+        assertTrue(bounds[3] > 120 && bounds[3] <= 160 + 15);
+        assertEquals(1, decoder.getDecodedFrameCount());
+    }
+
+    /**
+     * Returns the widths of alternating bars and spaces in modules, starting with a bar.
+     */
+    private static List<Integer> encodeEan13(String digits) {
+        List<Integer> widths = new ArrayList<>();
+        add(widths, 1, 1, 1);
+        int parities = EAN_PARITIES[digits.charAt(0) - '0'];
+        for (int i = 1; i <= 6; i++) {
+            int[] pattern = EAN_L[digits.charAt(i) - '0'];
+            boolean even = (parities & (1 << (6 - i))) != 0;
+            for (int j = 0; j < 4; j++) {
+                widths.add(even ? pattern[3 - j] : pattern[j]);
+            }
+        }
+        add(widths, 1, 1, 1, 1, 1);
+        for (int i = 7; i <= 12; i++) {
+            for (int width : EAN_L[digits.charAt(i) - '0']) {
+                widths.add(width);
+            }
+        }
+        add(widths, 1, 1, 1);
+        return widths;
+    }
+
+    private static List<Integer> encodeCode128(int startCode, int[] values) {
+        List<Integer> widths = new ArrayList<>();
+        int checksum = startCode;
+        addCode128(widths, startCode);
+        for (int i = 0; i < values.length; i++) {
+            addCode128(widths, values[i]);
+            checksum += (i + 1) * values[i];
+        }
+        addCode128(widths, checksum % 103);
+        for (int width : ScanlineDecoder.CODE128_STOP) {
+            widths.add(width);
+        }
+        return widths;
+    }
+
+    private static void addCode128(List<Integer> widths, int code) {
+        for (int width : ScanlineDecoder.CODE128_PATTERNS[code]) {
+            widths.add(width);
+        }
+    }
+
+    private static void add(List<Integer> widths, int... values) {
+        for (int value : values) {
+            widths.add(value);
+        }
+    }
+
+    /**
+     * Renders the widths with a quiet zone of 40 pixels on either side, slightly blurred and with
+     * a little noise, the way a camera sees printed bars.
+     */
+    private int[] render(List<Integer> widths, int module) {
+        int total = 0;
+        for (int width : widths) {
+            total += width * module;
+        }
+        int[] sharp = new int[total + 80];
+        Arrays.fill(sharp, 210);
+        int x = 40;
+        boolean bar = true;
+        for (int width : widths) {
+            for (int i = 0; i < width * module; i++) {
+                sharp[x++] = bar ? 40 : 210;
+            }
+            bar = !bar;
+        }
+        int[] line = new int[sharp.length];
+        for (int i = 0; i < line.length; i++) {
+            int left = sharp[Math.max(0, i - 1)];
+            int right = sharp[Math.min(line.length - 1, i + 1)];
+            line[i] = (left + 2 * sharp[i] + right) / 4 + random.nextInt(7) - 3;
+        }
+        return line;
+    }
+}
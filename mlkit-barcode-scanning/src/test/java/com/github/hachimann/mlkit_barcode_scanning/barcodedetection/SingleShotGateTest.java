@@ -0,0 +1,33 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SingleShotGateTest {
+
+    @Test
+    public void close_ignoresLaterResultsOfTheSession() {
+        SingleShotGate gate = new SingleShotGate();
+        assertTrue(gate.isOpen(1));
+
+        gate.close(1);
+
+        assertFalse(gate.isOpen(1));
+    }
+
+    @Test
+    public void isOpen_detectsAgainAfterResultIsDismissed() {
+        SingleShotGate gate = new SingleShotGate();
+        // Detect: the barcode is handed over and the camera frozen for the result sheet.
+        gate.close(1);
+        assertFalse(gate.isOpen(1));
+
+        // Dismissing the sheet brings the camera live again in a new session.
+        assertTrue(gate.isOpen(2));
+        gate.close(2);
+        assertFalse(gate.isOpen(2));
+        assertTrue(gate.isOpen(3));
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.hachimann.mlkit_barcode_scanning.barcodedetection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TiledDecoderTest {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 600;
+
+    /**
+     * Reads dark squares as barcodes whose value is their luma, like a detector that can only read
+     * codes that are whole in the tile.
+     */
+    private static final class FakeDetector implements TileDetector {
+        static final AtomicInteger active = new AtomicInteger();
+        static final AtomicInteger maxActive = new AtomicInteger();
+        static final Set<byte[]> buffers = Collections.synchronizedSet(new HashSet<>());
+
+        @NonNull
+        @Override
+        public List<DecodedBarcode> detect(@NonNull byte[] nv21, int width, int height) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            buffers.add(nv21);
+            try {
+                int[] left = new int[256];
+                int[] top = new int[256];
+                int[] right = new int[256];
+                int[] bottom = new int[256];
+                Arrays.fill(left, Integer.MAX_VALUE);
+                Arrays.fill(top, Integer.MAX_VALUE);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int luma = nv21[y * width + x] & 0xff;
+                        if (luma >= 128) {
+                            continue;
+                        }
+                        left[luma] = Math.min(left[luma], x);
+                        top[luma] = Math.min(top[luma], y);
+                        right[luma] = Math.max(right[luma], x + 1);
+                        bottom[luma] = Math.max(bottom[luma], y + 1);
+                    }
+                }
+                List<DecodedBarcode> results = new ArrayList<>();
+                for (int luma = 0; luma < 128; luma++) {
+                    if (left[luma] == Integer.MAX_VALUE || left[luma] == 0 || top[luma] == 0
+                            || right[luma] == width || bottom[luma] == height) {
+                        // Not there, or cut off by the tile edge.
+                        continue;
+                    }
+                    results.add(new DecodedBarcode(Integer.toString(luma),
+                            Barcode.FORMAT_QR_CODE, left[luma], top[luma], right[luma],
+                            bottom[luma], null));
+                }
+                return results;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void tileStarts_coversLengthWithOverlap() {
+        assertArrayEquals(new int[]{0}, TiledDecoder.tileStarts(300, 400, 100));
+        assertArrayEquals(new int[]{0, 300, 600}, TiledDecoder.tileStarts(1000, 400, 100));
+        assertArrayEquals(new int[]{0, 200}, TiledDecoder.tileStarts(600, 400, 100));
+    }
+
+    @Test
+    public void decode_findsCodesAcrossTileBordersOnce() throws Exception {
+        byte[] image = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(image, (byte) 255);
+        // Within one tile, across a vertical border, and in the overlap of four tiles.
+        fill(image, 10, 50, 50, 60, 60);
+        fill(image, 20, 380, 100, 440, 160);
+        fill(image, 30, 330, 330, 370, 370);
+
+        TiledDecoder decoder = new TiledDecoder(400, 100, 3, FakeDetector::new);
+        try {
+            List<DecodedBarcode> barcodes = decoder.decode(image, WIDTH, HEIGHT);
+
+            assertEquals(3, barcodes.size());
+            DecodedBarcode overlapping = find(barcodes, "30");
+            assertEquals(330, overlapping.getLeft());
+            assertEquals(330, overlapping.getTop());
+            assertEquals(370, overlapping.getRight());
+            assertEquals(370, overlapping.getBottom());
+            assertEquals(380, find(barcodes, "20").getLeft());
+            assertEquals(50, find(barcodes, "10").getTop());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void decode_boundsBuffersByWorkerCount() throws Exception {
+        FakeDetector.buffers.clear();
+        FakeDetector.maxActive.set(0);
+        byte[] image = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(image, (byte) 255);
+
+        TiledDecoder decoder = new TiledDecoder(200, 50, 2, FakeDetector::new);
+        try {
+            for (int i = 0; i < 3; i++) {
+                decoder.decode(image, WIDTH, HEIGHT);
+            }
+        } finally {
+            decoder.close();
+        }
+
+        assertTrue(FakeDetector.maxActive.get() <= 2);
+        assertTrue(FakeDetector.buffers.size() <= 2);
+    }
+
+    @Test
+    public void merge_keepsSameValueOnSeparateLabels() {
+        List<DecodedBarcode> barcodes = new ArrayList<>();
+        barcodes.add(new DecodedBarcode("A", Barcode.FORMAT_QR_CODE, 0, 0, 10, 10, null));
+        barcodes.add(new DecodedBarcode("A", Barcode.FORMAT_QR_CODE, 100, 0, 110, 10, null));
+        barcodes.add(new DecodedBarcode("A", Barcode.FORMAT_QR_CODE, 2, 1, 12, 11, null));
+
+        List<DecodedBarcode> merged = TiledDecoder.merge(barcodes);
+
+        assertEquals(2, merged.size());
+        assertEquals(12, merged.get(0).getRight());
+        assertEquals(11, merged.get(0).getBottom());
+    }
+
+    private static void fill(byte[] image, int luma, int left, int top, int right, int bottom) {
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(image, y * WIDTH + left, y * WIDTH + right, (byte) luma);
+        }
+    }
+
+    private static DecodedBarcode find(List<DecodedBarcode> barcodes, String value) {
+        for (DecodedBarcode barcode : barcodes) {
+            if (barcode.getRawValue().equals(value)) {
+                return barcode;
+            }
+        }
+        throw new AssertionError("Not found: " + value);
+    }
+}
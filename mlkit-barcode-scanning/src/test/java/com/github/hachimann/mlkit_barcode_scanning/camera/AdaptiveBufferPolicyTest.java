@@ -0,0 +1,53 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveBufferPolicyTest {
+
+    private final AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(3, 6);
+
+    @Test
+    public void grows_whenCameraStarvesWithIdleDetector() {
+        assertEquals(5, runWindow(4, 0, 0));
+    }
+
+    @Test
+    public void keepsCapacity_whenStarvationIsHiddenByBacklog() {
+        // The camera ran dry only while a frame was already waiting, and never had spare buffers.
+        int capacity = 4;
+        for (int i = 0; i < AdaptiveBufferPolicy.WINDOW_FRAMES; i++) {
+            capacity = policy.onFrameDelivered(capacity, i % 3 == 0 ? 0 : 1, i % 3 == 0 ? 1 : 0);
+        }
+        assertEquals(4, capacity);
+    }
+
+    @Test
+    public void shrinks_whenBuffersStayUnused() {
+        assertEquals(3, runWindow(4, 3, 0));
+    }
+
+    @Test
+    public void shrinks_whenDetectorIsBacklogged() {
+        assertEquals(3, runWindow(4, 1, 1));
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        assertEquals(6, runWindow(6, 0, 0));
+        assertEquals(3, runWindow(3, 3, 0));
+        assertEquals(6, policy.onFrameDelivered(9, 2, 0));
+    }
+
+    private int runWindow(int capacity, int cameraOwned, int backlog) {
+        int result = capacity;
+        for (int i = 0; i < AdaptiveBufferPolicy.WINDOW_FRAMES; i++) {
+            result = policy.onFrameDelivered(capacity, cameraOwned, backlog);
+            if (i < AdaptiveBufferPolicy.WINDOW_FRAMES - 1) {
+                assertEquals(capacity, result);
+            }
+        }
+        return result;
+    }
+}
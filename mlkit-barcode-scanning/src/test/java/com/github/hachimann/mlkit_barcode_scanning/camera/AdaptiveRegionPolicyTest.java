@@ -0,0 +1,63 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveRegionPolicyTest {
+
+    private final AdaptiveRegionPolicy policy = new AdaptiveRegionPolicy(2);
+    private final float[] region = new float[4];
+
+    @Before
+    public void setUp() {
+        policy.setBaseRegion(0.2f, 0.4f, 0.8f, 0.6f);
+    }
+
+    @Test
+    public void getRegion_spreadsLevelsBetweenBaseAndWholeFrame() {
+        assertTrue(policy.getRegion(0, region));
+        assertArrayEquals(new float[]{0.2f, 0.4f, 0.8f, 0.6f}, region, 1e-6f);
+        assertTrue(policy.getRegion(1, region));
+        assertArrayEquals(new float[]{0.1f, 0.2f, 0.9f, 0.8f}, region, 1e-6f);
+        assertFalse(policy.getRegion(2, region));
+        assertArrayEquals(new float[]{0f, 0f, 1f, 1f}, region, 1e-6f);
+    }
+
+    @Test
+    public void onResult_widensAfterConsecutiveMisses() {
+        policy.onResult(0, null);
+        assertEquals(0, policy.getLevel());
+        policy.onResult(0, null);
+        assertEquals(1, policy.getLevel());
+        policy.onResult(1, null);
+        policy.onResult(1, null);
+        assertEquals(2, policy.getLevel());
+        policy.onResult(2, null);
+        policy.onResult(2, null);
+        assertEquals(2, policy.getLevel());
+    }
+
+    @Test
+    public void onResult_snapsBackToSmallestRegionContainingTheHit() {
+        for (int i = 0; i < 4; i++) {
+            policy.onResult(policy.getLevel(), null);
+        }
+        assertEquals(2, policy.getLevel());
+
+        // Off centre: only the middle level contains it.
+        policy.onResult(2, new float[]{0.15f, 0.3f, 0.4f, 0.5f});
+        assertEquals(1, policy.getLevel());
+
+        policy.onResult(1, new float[]{0.4f, 0.45f, 0.6f, 0.55f});
+        assertEquals(0, policy.getLevel());
+
+        assertEquals(0f, policy.getHitRate(0), 0f);
+        assertEquals(1f / 3, policy.getHitRate(1), 1e-6f);
+        assertEquals(1f, policy.getHitRate(2), 1e-6f);
+    }
+}
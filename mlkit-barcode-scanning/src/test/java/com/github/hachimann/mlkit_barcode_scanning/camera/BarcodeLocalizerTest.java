@@ -0,0 +1,133 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class BarcodeLocalizerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private final BarcodeLocalizer localizer = new BarcodeLocalizer();
+    private final Random random = new Random(42);
+
+    @Test
+    public void locate_findsNothingOnNoisyGradient() {
+        byte[] data = createBackground();
+
+        assertEquals(0, localizer.locate(toFrame(data)));
+        assertEquals(1, localizer.getEmptyFrameCount());
+    }
+
+    @Test
+    public void locate_findsLinearCandidateAroundBars() {
+        byte[] data = createBackground();
+        // EAN-like bars of one to four modules, four pixels per module.
+        int x = 200;
+        boolean dark = true;
+        while (x < 440) {
+            int width = (1 + random.nextInt(4)) * 4;
+            fill(data, x, 200, Math.min(440, x + width), 280, dark ? 20 : 230);
+            x += width;
+            dark = !dark;
+        }
+
+        assertEquals(1, localizer.locate(toFrame(data)));
+        assertEquals(BarcodeLocalizer.TYPE_LINEAR, localizer.getCandidateType(0));
+        assertContains(200, 200, 440, 280);
+    }
+
+    @Test
+    public void locate_findsMatrixCandidateAroundFinderPatterns() {
+        byte[] data = createBackground();
+        // A 25 x 25 module symbol, eight pixels per module, with finder patterns in three corners.
+        int left = 220;
+        int top = 140;
+        int module = 8;
+        for (int row = 0; row < 25; row++) {
+            for (int column = 0; column < 25; column++) {
+                Boolean finder = isFinderModule(row, column);
+                boolean dark = finder != null ? finder : random.nextBoolean();
+                fill(data, left + column * module, top + row * module,
+                        left + (column + 1) * module, top + (row + 1) * module, dark ? 20 : 230);
+            }
+        }
+
+        assertEquals(1, localizer.locate(toFrame(data)));
+        assertEquals(BarcodeLocalizer.TYPE_MATRIX, localizer.getCandidateType(0));
+        assertContains(left, top, left + 25 * module, top + 25 * module);
+    }
+
+    @Test
+    public void locate_separatesDistantCandidates() {
+        byte[] data = createBackground();
+        for (int x = 40; x < 160; x += 8) {
+            fill(data, x, 40, x + 4, 120, 20);
+        }
+        for (int x = 440; x < 600; x += 8) {
+            fill(data, x, 360, x + 4, 440, 20);
+        }
+
+        assertEquals(2, localizer.locate(toFrame(data)));
+        int[] bounds = new int[4];
+        localizer.getUnionBounds(bounds);
+        assertTrue(bounds[0] <= 40 && bounds[1] <= 40 && bounds[2] >= 600 && bounds[3] >= 440);
+    }
+
+    private void assertContains(int left, int top, int right, int bottom) {
+        int[] bounds = new int[4];
+        localizer.getCandidateBounds(0, bounds);
+        assertTrue(bounds[0] <= left && bounds[1] <= top);
+        assertTrue(bounds[2] >= right && bounds[3] >= bottom);
+        // The margin is a single cell, so the candidate stays close to the symbol.
+        int margin = 2 * BarcodeLocalizer.CELL * (WIDTH / BarcodeLocalizer.TARGET_SIZE);
+        assertTrue(bounds[0] >= left - margin && bounds[1] >= top - margin);
+        assertTrue(bounds[2] <= right + margin && bounds[3] <= bottom + margin);
+    }
+
+    /**
+     * Returns whether the module is dark if it belongs to a finder pattern, or null otherwise.
+     */
+    private static Boolean isFinderModule(int row, int column) {
+        int r = row < 8 ? row : row - 17;
+        int c = column < 8 ? column : column - 17;
+        if (r < 0 || c < 0 || (row >= 8 && column >= 8)) {
+            return null;
+        }
+        if (r == 7 || c == 7) {
+            return false;
+        }
+        int ring = Math.min(Math.min(r, c), Math.min(6 - r, 6 - c));
+        return ring != 1;
+    }
+
+    /**
+     * Creates a dim, noisy horizontal gradient of the kind an empty shelf gives.
+     */
+    private byte[] createBackground() {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[y * WIDTH + x] = (byte) (80 + x * 60 / WIDTH + random.nextInt(5));
+            }
+        }
+        return data;
+    }
+
+    private static void fill(byte[] data, int left, int top, int right, int bottom, int value) {
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                data[y * WIDTH + x] = (byte) value;
+            }
+        }
+    }
+
+    private static Frame toFrame(byte[] data) {
+        return Frame.fromNv21(ByteBuffer.wrap(data), new FrameMetadata(WIDTH, HEIGHT, 0));
+    }
+}
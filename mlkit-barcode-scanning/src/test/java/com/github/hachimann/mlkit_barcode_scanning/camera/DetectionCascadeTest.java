@@ -0,0 +1,46 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DetectionCascadeTest {
+
+    private final DetectionCascade cascade = new DetectionCascade(3);
+
+    @Test
+    public void getFactor_halvesResolutionPerLevel() {
+        assertEquals(4, cascade.getFactor(0));
+        assertEquals(2, cascade.getFactor(1));
+        assertEquals(1, cascade.getFactor(2));
+    }
+
+    @Test
+    public void onDetected_startsAtTheLevelThatSucceededLast() {
+        cascade.onDetected(0, 1_000_000, false);
+        cascade.onDetected(1, 3_000_000, false);
+        cascade.onDetected(2, 8_000_000, true);
+        assertEquals(2, cascade.getStartLevel());
+
+        cascade.onDetected(2, 4_000_000, false);
+        assertEquals(2, cascade.getStartLevel());
+
+        assertEquals(1, cascade.getAttempts(0));
+        assertEquals(0, cascade.getSuccesses(0));
+        assertEquals(2, cascade.getAttempts(2));
+        assertEquals(1, cascade.getSuccesses(2));
+        assertEquals(6f, cascade.getAverageLatencyMillis(2), 1e-3f);
+        assertEquals(0f, new DetectionCascade(2).getAverageLatencyMillis(0), 0f);
+    }
+
+    @Test
+    public void onDetected_probesLowerLevelAfterRunOfSuccesses() {
+        cascade.onDetected(1, 0, true);
+        for (int i = 0; i < DetectionCascade.PROBE_INTERVAL - 1; i++) {
+            cascade.onDetected(1, 0, true);
+        }
+        assertEquals(1, cascade.getStartLevel());
+        cascade.onDetected(1, 0, true);
+        assertEquals(0, cascade.getStartLevel());
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import android.view.SurfaceHolder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * {@link FrameSource} for JVM tests. Frames are pushed by the test with {@link #deliver(byte[])}
+ * and are backed by a fixed pool of NV21 buffers, like the Camera1 source.
+ */
+public class FakeFrameSource implements FrameSource {
+
+    private final FrameMetadata metadata;
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>();
+    private final int bufferCount;
+
+    @Nullable
+    private FrameListener frameListener;
+    private boolean started;
+    private int facing = CameraSource.CAMERA_FACING_BACK;
+    private String flashMode = "off";
+
+    private int deliveredCount;
+    private int droppedCount;
+    private int releasedCount;
+
+    public FakeFrameSource(int width, int height, int rotation, int bufferCount) {
+        this.metadata = new FrameMetadata(width, height, rotation);
+        this.bufferCount = bufferCount;
+        Frame.Recycler recycler = this::recycle;
+        for (int i = 0; i < bufferCount; i++) {
+            Frame frame = new Frame(recycler);
+            frame.setNv21(ByteBuffer.wrap(new byte[width * height * 3 / 2]), metadata);
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Copies the given NV21 content into a free buffer and delivers it to the listener.
+     *
+     * @return false if the source is stopped or every buffer is still held downstream
+     */
+    public boolean deliver(byte[] nv21) {
+        Frame frame;
+        FrameListener listener;
+        synchronized (this) {
+            frame = started ? freeFrames.poll() : null;
+            if (frame == null) {
+                droppedCount++;
+                return false;
+            }
+            deliveredCount++;
+            listener = frameListener;
+        }
+        ByteBuffer buffer = frame.getNv21Buffer();
+        System.arraycopy(nv21, 0, buffer.array(), 0, Math.min(nv21.length, buffer.capacity()));
+        if (listener != null) {
+            listener.onFrame(frame);
+        } else {
+            frame.release();
+        }
+        return true;
+    }
+
+    private synchronized void recycle(@NonNull Frame frame) {
+        releasedCount++;
+        freeFrames.add(frame);
+    }
+
+    public synchronized int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized int getReleasedCount() {
+        return releasedCount;
+    }
+
+    public synchronized int getFreeBufferCount() {
+        return freeFrames.size();
+    }
+
+    public int getBufferCount() {
+        return bufferCount;
+    }
+
+    public synchronized String getFlashMode() {
+        return flashMode;
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public synchronized void setFrameListener(@Nullable FrameListener listener) {
+        frameListener = listener;
+    }
+
+    @Override
+    public synchronized void start(@NonNull SurfaceHolder surfaceHolder) {
+        started = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        started = false;
+    }
+
+    @Override
+    public synchronized void setFacing(int facing) {
+        this.facing = facing;
+    }
+
+    @Override
+    public synchronized int getCameraFacing() {
+        return facing;
+    }
+
+    @Nullable
+    @Override
+    public Size getPreviewSize() {
+        return new Size(metadata.getWidth(), metadata.getHeight());
+    }
+
+    @Override
+    public int getRotationDegrees() {
+        return metadata.getRotation();
+    }
+
+    /**
+     * The pool of a fake source has a fixed size, so the counts are ignored.
+     */
+    @Override
+    public void setPreviewBufferCount(int minCount, int maxCount) {
+    }
+
+    @NonNull
+    @Override
+    public synchronized PreviewBufferStats getPreviewBufferStats() {
+        int free = freeFrames.size();
+        return new PreviewBufferStats(bufferCount, free, bufferCount - free, 0, droppedCount, 0, 0);
+    }
+
+    @Override
+    public synchronized void updateFlashMode(@NonNull String flashMode) {
+        this.flashMode = flashMode;
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FrameChangeGateTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 64;
+
+    private final FrameChangeGate gate = new FrameChangeGate();
+
+    @Test
+    public void computeSignature_averagesBlocks() {
+        byte[] data = createFrame(50);
+        // Brighten the top left 4x2 block only.
+        for (int y = 0; y < 2; y++) {
+            Arrays.fill(data, y * WIDTH, y * WIDTH + 4, (byte) 150);
+        }
+        int[] signature = new int[FrameChangeGate.GRID * FrameChangeGate.GRID];
+
+        assertTrue(FrameChangeGate.computeSignature(toFrame(data), signature));
+
+        assertEquals(150, signature[0]);
+        assertEquals(50, signature[1]);
+        assertFalse(FrameChangeGate.computeSignature(
+                Frame.fromNv21(ByteBuffer.wrap(new byte[24]), new FrameMetadata(4, 4, 0)),
+                signature));
+    }
+
+    @Test
+    public void shouldSkip_onlyUnchangedFramesAfterEmptyDetection() {
+        assertFalse(gate.shouldSkip(toFrame(createFrame(50))));
+        // The last detection found something, so the scene is analysed again.
+        assertFalse(gate.shouldSkip(toFrame(createFrame(50))));
+
+        gate.onResult(false);
+        assertTrue(gate.shouldSkip(toFrame(createFrame(50))));
+        assertTrue(gate.shouldSkip(toFrame(createFrame(50 + FrameChangeGate.TOLERANCE))));
+        assertFalse(gate.shouldSkip(toFrame(createFrame(80))));
+        assertEquals(2, gate.getSkippedFrameCount());
+    }
+
+    @Test
+    public void shouldSkip_forcesPeriodicRefresh() {
+        gate.onResult(false);
+        assertFalse(gate.shouldSkip(toFrame(createFrame(50))));
+        for (int i = 0; i < FrameChangeGate.REFRESH_INTERVAL; i++) {
+            assertTrue(gate.shouldSkip(toFrame(createFrame(50))));
+        }
+        assertFalse(gate.shouldSkip(toFrame(createFrame(50))));
+        assertTrue(gate.shouldSkip(toFrame(createFrame(50))));
+    }
+
+    private static byte[] createFrame(int luma) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, 0, WIDTH * HEIGHT, (byte) luma);
+        return data;
+    }
+
+    private static Frame toFrame(byte[] data) {
+        return Frame.fromNv21(ByteBuffer.wrap(data), new FrameMetadata(WIDTH, HEIGHT, 0));
+    }
+}
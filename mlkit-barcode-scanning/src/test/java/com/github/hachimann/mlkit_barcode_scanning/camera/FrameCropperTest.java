@@ -0,0 +1,102 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FrameCropperTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    private final FrameCropper cropper = new FrameCropper();
+
+    @Test
+    public void crop_copiesLumaAndInterleavedChromaOfTheRegion() {
+        Frame frame = cropper.crop(createFrame(0, false), 0.25f, 0.5f, 0.75f, 1f);
+
+        assertNotNull(frame);
+        assertEquals(4, frame.getWidth());
+        assertEquals(2, frame.getHeight());
+        assertEquals(2, frame.getMetadata().getOffsetX());
+        assertEquals(2, frame.getMetadata().getOffsetY());
+        assertArrayEquals(new byte[]{
+                        18, 19, 20, 21,
+                        26, 27, 28, 29,
+                        (byte) 105, (byte) 205, (byte) 106, (byte) 206},
+                Arrays.copyOf(frame.getNv21Buffer().array(), 12));
+    }
+
+    @Test
+    public void crop_mapsUprightRegionOntoRotatedFrame() {
+        // Upright, the frame is 4 pixels wide and 8 high; take its top left quarter.
+        Frame frame = cropper.crop(createFrame(90, true), 0f, 0f, 0.5f, 0.5f);
+
+        assertNotNull(frame);
+        assertEquals(4, frame.getWidth());
+        assertEquals(2, frame.getHeight());
+        assertEquals(0, frame.getMetadata().getOffsetX());
+        assertEquals(0, frame.getMetadata().getOffsetY());
+        assertArrayEquals(new byte[]{16, 17, 18, 19, 24, 25, 26, 27},
+                Arrays.copyOf(frame.getNv21Buffer().array(), 8));
+
+        frame = cropper.crop(createFrame(270, true), 0f, 0f, 0.5f, 0.5f);
+        assertNotNull(frame);
+        assertEquals(0, frame.getMetadata().getOffsetX());
+        assertEquals(0, frame.getMetadata().getOffsetY());
+        assertArrayEquals(new byte[]{4, 5, 6, 7, 12, 13, 14, 15},
+                Arrays.copyOf(frame.getNv21Buffer().array(), 8));
+    }
+
+    @Test
+    public void crop_returnsNullForTheWholeFrame() {
+        assertNull(cropper.crop(createFrame(0, false), 0f, 0f, 1f, 1f));
+        assertNull(cropper.crop(createFrame(0, false), -0.5f, 0f, 1.5f, 1f));
+    }
+
+    @Test
+    public void crop_reusesPooledBuffers() {
+        Frame first = cropper.crop(createFrame(0, false), 0f, 0f, 0.5f, 0.5f);
+        Frame second = cropper.crop(createFrame(0, false), 0f, 0f, 0.5f, 0.5f);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertSame(first.getMetadata(), second.getMetadata());
+        assertNull(cropper.crop(createFrame(0, false), 0f, 0f, 0.5f, 0.5f));
+
+        ByteBuffer buffer = first.getNv21Buffer();
+        first.release();
+        Frame third = cropper.crop(createFrame(0, false), 0f, 0f, 0.5f, 0.5f);
+        assertSame(first, third);
+        assertSame(buffer, third.getNv21Buffer());
+    }
+
+    /**
+     * Luma holds the pixel index; V and U hold 100 and 200 plus the chroma sample index.
+     */
+    private static Frame createFrame(int rotation, boolean direct) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data[i] = (byte) i;
+        }
+        for (int i = 0; i < WIDTH * HEIGHT / 4; i++) {
+            data[WIDTH * HEIGHT + 2 * i] = (byte) (100 + i);
+            data[WIDTH * HEIGHT + 2 * i + 1] = (byte) (200 + i);
+        }
+        ByteBuffer buffer;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data);
+            buffer.rewind();
+        } else {
+            buffer = ByteBuffer.wrap(data);
+        }
+        return Frame.fromNv21(buffer, new FrameMetadata(WIDTH, HEIGHT, rotation));
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FrameMailboxTest {
+
+    private final AtomicInteger released = new AtomicInteger();
+
+    private Frame newFrame() {
+        return new Frame(frame -> released.incrementAndGet());
+    }
+
+    @Test
+    public void offer_replacesPendingFrameAndReleasesIt() {
+        FrameMailbox mailbox = new FrameMailbox();
+        mailbox.open(Thread.currentThread());
+        Frame first = newFrame();
+        Frame second = newFrame();
+
+        mailbox.offer(first);
+        mailbox.offer(second);
+
+        assertEquals(1, released.get());
+        assertEquals(1, mailbox.getOverwrittenFrameCount());
+        assertEquals(2, mailbox.getOfferedFrameCount());
+        assertSame(second, mailbox.take());
+    }
+
+    @Test
+    public void take_parksUntilFrameIsOffered() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox();
+        AtomicReference<Frame> taken = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            taken.set(mailbox.take());
+            done.countDown();
+        });
+        mailbox.open(consumer);
+        consumer.start();
+
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        Frame frame = newFrame();
+        mailbox.offer(frame);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(frame, taken.get());
+        assertEquals(0, mailbox.getOverwrittenFrameCount());
+    }
+
+    @Test
+    public void close_wakesConsumerAndReleasesPendingFrame() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Frame> taken = new AtomicReference<>(newFrame());
+        Thread consumer = new Thread(() -> {
+            Frame frame;
+            while ((frame = mailbox.take()) != null) {
+                frame.release();
+            }
+            taken.set(null);
+            done.countDown();
+        });
+        mailbox.open(consumer);
+        consumer.start();
+
+        mailbox.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(taken.get());
+
+        // Frames arriving after close go straight back to their source.
+        mailbox.offer(newFrame());
+        assertEquals(1, released.get());
+        assertNull(mailbox.take());
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.github.hachimann.mlkit_barcode_scanning.ScopedExecutor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs frames through the steady-state path of the camera package, from the Camera1 preview buffer
+ * to the detection results delivered on the result executor, and checks that it doesn't allocate
+ * once warmed up.
+ */
+public class FramePathAllocationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int WARM_UP_FRAMES = 2000;
+    private static final int FRAMES = 1000;
+    private static final int BUFFER_COUNT = 3;
+
+    private final ArrayDeque<byte[]> camera = new ArrayDeque<>();
+    private final PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT);
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final FrameQualityGate qualityGate = new FrameQualityGate();
+    private final FrameChangeGate changeGate = new FrameChangeGate();
+    private final AdaptiveRegionPolicy regionPolicy = new AdaptiveRegionPolicy(3);
+    private final FrameCropper cropper = new FrameCropper();
+    private final FrameScaler scaler = new FrameScaler();
+    private final BarcodeLocalizer localizer = new BarcodeLocalizer();
+    private final FramePipeline pipeline = new FramePipeline(2);
+    private final StageMetrics metrics = new StageMetrics(2, System.nanoTime());
+    // Results are delivered like the processor delivers them, through the scoped executor of its
+    // pipeline slots; the result thread is replaced by running them in place.
+    private final Executor resultExecutor = new ScopedExecutor(Runnable::run).withoutWrapping();
+    private final Runnable deliverResult = this::deliverResult;
+
+    private final float[] region = new float[4];
+    private final int[] candidate = new int[4];
+    private final float[] hit = new float[4];
+    private int detectedCount;
+
+    // The detection waiting to be delivered.
+    private int pendingSlot;
+    private int pendingLevel;
+    private boolean pendingFound;
+
+    @Test
+    public void steadyStateFrame_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads = getThreadBean();
+        byte[] image = createImage();
+        ring.prepare(new FrameMetadata(WIDTH, HEIGHT, 90), image.length);
+        ring.attach(camera::add);
+        mailbox.open(Thread.currentThread());
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            processFrame(image);
+        }
+        long threadId = Thread.currentThread().getId();
+        int detectedBefore = detectedCount;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < FRAMES; i++) {
+            processFrame(image);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(FRAMES, detectedCount - detectedBefore);
+        // Any object is more than a byte, so this only holds if frames allocate nothing.
+        assertTrue(allocated + " bytes allocated over " + FRAMES + " frames", allocated < FRAMES);
+        assertEquals(BUFFER_COUNT, ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED));
+    }
+
+    private void processFrame(byte[] image) {
+        // The camera fills the oldest buffer it owns.
+        byte[] buffer = camera.poll();
+        System.arraycopy(image, 0, buffer, 0, image.length);
+        mailbox.offer(ring.onPreviewFrame(buffer));
+        Frame frame = mailbox.take();
+        if (qualityGate.shouldDrop(frame) || changeGate.shouldSkip(frame)) {
+            frame.release();
+            return;
+        }
+        frame.markProcessing();
+        regionPolicy.setBaseRegion(0.1f, 0.1f, 0.9f, 0.9f);
+        int level = regionPolicy.getLevel();
+        Frame input = frame;
+        if (regionPolicy.getRegion(level, region)) {
+            Frame cropped = cropper.crop(frame, region[0], region[1], region[2], region[3]);
+            if (cropped != null) {
+                frame.release();
+                input = cropped;
+            }
+        }
+        Frame scaled = scaler.downscale(input, 2);
+        if (scaled != null) {
+            input.release();
+            input = scaled;
+        }
+
+        long now = System.nanoTime();
+        pendingSlot = pipeline.acquire(now);
+        pendingLevel = level;
+        metrics.enter(now);
+        pendingFound = detect(input);
+        input.release();
+        resultExecutor.execute(deliverResult);
+    }
+
+    private void deliverResult() {
+        long now = System.nanoTime();
+        metrics.exit(pipeline.getStartNanos(pendingSlot), now);
+        if (pipeline.complete(pendingSlot, true, now)) {
+            detectedCount++;
+        }
+        changeGate.onResult(pendingFound);
+        regionPolicy.onResult(pendingLevel, pendingFound ? hit : null);
+    }
+
+    /**
+     * Stands in for the detector: reports the localiser's candidates as the barcode.
+     */
+    private boolean detect(Frame frame) {
+        if (localizer.locate(frame) == 0) {
+            return false;
+        }
+        localizer.getUnionBounds(candidate);
+        hit[0] = (float) candidate[0] / frame.getWidth();
+        hit[1] = (float) candidate[1] / frame.getHeight();
+        hit[2] = (float) candidate[2] / frame.getWidth();
+        hit[3] = (float) candidate[3] / frame.getHeight();
+        return true;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        return allocations;
+    }
+
+    /**
+     * Returns a noisy grey NV21 image with bars in the middle.
+     */
+    private static byte[] createImage() {
+        Random random = new Random(7);
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data[i] = (byte) (110 + random.nextInt(20));
+        }
+        for (int i = WIDTH * HEIGHT; i < data.length; i++) {
+            data[i] = (byte) 128;
+        }
+        int x = 200;
+        boolean dark = true;
+        while (x < 440) {
+            int width = (1 + random.nextInt(4)) * 4;
+            for (int y = 200; y < 280; y++) {
+                for (int column = x; column < Math.min(440, x + width); column++) {
+                    data[y * WIDTH + column] = (byte) (dark ? 20 : 230);
+                }
+            }
+            x += width;
+            dark = !dark;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class FramePipelineTest {
+
+    @Test
+    public void acquire_failsWhileAllSlotsAreInFlight() {
+        FramePipeline pipeline = new FramePipeline(2);
+
+        int first = pipeline.acquire(0);
+        int second = pipeline.acquire(0);
+
+        assertEquals(-1, pipeline.acquire(0));
+        assertFalse(pipeline.hasFreeSlot());
+        pipeline.complete(first, true, 0);
+        assertEquals(first, pipeline.acquire(0));
+        assertTrue(pipeline.isInFlight(second, pipeline.getSequence(second)));
+    }
+
+    @Test
+    public void complete_dropsResultsOlderThanPublishedOnes() {
+        FramePipeline pipeline = new FramePipeline(3);
+        int first = pipeline.acquire(0);
+        int second = pipeline.acquire(0);
+        int third = pipeline.acquire(0);
+
+        assertTrue(pipeline.complete(second, true, 0));
+        assertFalse(pipeline.complete(first, true, 0));
+        assertTrue(pipeline.complete(third, true, 0));
+
+        assertEquals(2, pipeline.getPublishedCount());
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    @Test
+    public void complete_failedFrameIsNeitherPublishedNorDropped() {
+        FramePipeline pipeline = new FramePipeline(1);
+        int slot = pipeline.acquire(0);
+        long sequence = pipeline.getSequence(slot);
+
+        assertFalse(pipeline.complete(slot, false, 0));
+
+        assertFalse(pipeline.isInFlight(slot, sequence));
+        assertEquals(0, pipeline.getPublishedCount());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertFalse(pipeline.complete(slot, true, 0));
+    }
+
+    @Test
+    public void pipeline_publishesMoreFramesInOrderWhenDeeper() throws Exception {
+        Run[] runs = new Run[4];
+        for (int depth = 1; depth <= 4; depth++) {
+            runs[depth - 1] = run(depth);
+        }
+
+        for (Run run : runs) {
+            for (int i = 1; i < run.published.size(); i++) {
+                assertTrue(run.published.get(i) > run.published.get(i - 1));
+            }
+        }
+        String summary = summary(runs);
+        assertEquals(summary, 0, runs[0].pipeline.getDroppedCount());
+        assertTrue(summary, runs[3].pipeline.getPublishedCount()
+                > 2 * runs[0].pipeline.getPublishedCount());
+    }
+
+    private static final class Run {
+        final FramePipeline pipeline;
+        final List<Long> published = new ArrayList<>();
+
+        Run(int depth) {
+            pipeline = new FramePipeline(depth);
+        }
+    }
+
+    /**
+     * Feeds frames faster than a detector with 10 to 20 ms of latency can take them, for 300 ms.
+     */
+    private static Run run(int depth) throws Exception {
+        final Run run = new Run(depth);
+        final Random random = new Random(depth);
+        ExecutorService detector = Executors.newCachedThreadPool();
+        try {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+            while (System.nanoTime() < end) {
+                final int slot = run.pipeline.acquire(System.nanoTime());
+                if (slot < 0) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                final long sequence = run.pipeline.getSequence(slot);
+                final long latencyMillis = 10 + random.nextInt(11);
+                detector.execute(() -> {
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    synchronized (run) {
+                        if (run.pipeline.complete(slot, true, System.nanoTime())) {
+                            run.published.add(sequence);
+                        }
+                    }
+                });
+            }
+        } finally {
+            detector.shutdown();
+            detector.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        return run;
+    }
+
+    private static String summary(Run[] runs) {
+        StringBuilder summary = new StringBuilder();
+        for (Run run : runs) {
+            summary.append(String.format("depth %d: %d published, %d dropped, %.1f ms; ",
+                    run.pipeline.getDepth(), run.pipeline.getPublishedCount(),
+                    run.pipeline.getDroppedCount(), run.pipeline.getAverageLatencyMillis()));
+        }
+        return summary.toString();
+    }
+}
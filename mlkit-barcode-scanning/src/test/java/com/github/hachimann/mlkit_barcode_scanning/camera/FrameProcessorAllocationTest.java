@@ -0,0 +1,303 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Activity;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.vision.common.InputImage;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs frames through a real {@link FrameProcessorBase}, with a fake detector, from the Camera1
+ * preview buffer through preparation, the hand-off, the pipeline slots and the result thread to
+ * the UI update, and checks that neither the processing thread nor the result thread allocates
+ * once warmed up.
+ */
+public class FrameProcessorAllocationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // Enough for the compiler to settle; a late compilation shows up as a one-off allocation.
+    private static final int WARM_UP_FRAMES = 5000;
+    private static final int FRAMES = 1000;
+    private static final int BUFFER_COUNT = 3;
+    private static final int PIPELINE_DEPTH = 2;
+    private static final Object RESULTS = new Object();
+
+    private final ArrayDeque<byte[]> camera = new ArrayDeque<>();
+    private final PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT);
+
+    @Test
+    public void steadyStateFrame_allocatesNothing() throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = getThreadBean();
+        byte[] image = createImage();
+        ring.prepare(new FrameMetadata(WIDTH, HEIGHT, 90), image.length);
+        ring.attach(camera::add);
+        // The UI work runs in place on the result thread.
+        TestProcessor processor = new TestProcessor(Runnable::run);
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            processFrame(processor, image);
+        }
+        long processingThreadId = Thread.currentThread().getId();
+        long resultThreadId = processor.resultThread.getId();
+        int updatesBefore = processor.updates;
+        long processingBefore = threads.getThreadAllocatedBytes(processingThreadId);
+        long resultBefore = threads.getThreadAllocatedBytes(resultThreadId);
+        for (int i = 0; i < FRAMES; i++) {
+            processFrame(processor, image);
+        }
+        long processingAllocated =
+                threads.getThreadAllocatedBytes(processingThreadId) - processingBefore;
+        long resultAllocated = threads.getThreadAllocatedBytes(resultThreadId) - resultBefore;
+        processor.stop();
+
+        assertNull(processor.failure);
+        assertEquals(FRAMES, processor.updates - updatesBefore);
+        // Any object is more than a byte, so this only holds if frames allocate nothing.
+        assertTrue(processingAllocated + " bytes allocated on the processing thread over "
+                + FRAMES + " frames", processingAllocated < FRAMES);
+        assertTrue(resultAllocated + " bytes allocated on the result thread over " + FRAMES
+                + " frames", resultAllocated < FRAMES);
+    }
+
+    @Test
+    public void stop_dropsUiUpdatesPostedBefore() {
+        ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        TestProcessor processor = new TestProcessor(mainThread::add);
+        processor.postUpdate();
+
+        processor.stop();
+        mainThread.poll().run();
+
+        assertEquals(0, processor.updates);
+    }
+
+    /**
+     * Hands a preview buffer to the processor and waits until the UI update of its frame ran.
+     */
+    private void processFrame(TestProcessor processor, byte[] image) {
+        byte[] buffer = camera.poll();
+        System.arraycopy(image, 0, buffer, 0, image.length);
+        int expected = processor.updates + 1;
+        processor.processFrame(ring.onPreviewFrame(buffer), null);
+        while (processor.updates < expected && processor.failure == null) {
+            Thread.yield();
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        return allocations;
+    }
+
+    /**
+     * Returns a noisy grey NV21 image with bars in the middle.
+     */
+    private static byte[] createImage() {
+        Random random = new Random(7);
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data[i] = (byte) (110 + random.nextInt(20));
+        }
+        for (int i = WIDTH * HEIGHT; i < data.length; i++) {
+            data[i] = (byte) 128;
+        }
+        int x = 200;
+        boolean dark = true;
+        while (x < 440) {
+            int width = (1 + random.nextInt(4)) * 4;
+            for (int y = 200; y < 280; y++) {
+                for (int column = x; column < Math.min(440, x + width); column++) {
+                    data[y * WIDTH + column] = (byte) (dark ? 20 : 230);
+                }
+            }
+            x += width;
+            dark = !dark;
+        }
+        return data;
+    }
+
+    /**
+     * Crops to a region of interest, detects at half the preview resolution around what the
+     * localiser finds, and posts a UI update for every frame, like the barcode processor.
+     */
+    private static final class TestProcessor extends FrameProcessorBase<Object> {
+        private final RectF region = new RectF();
+        private final FakeTask[] tasks = new FakeTask[PIPELINE_DEPTH];
+        private final Runnable applyUpdate = this::applyUpdate;
+
+        volatile Thread resultThread;
+        volatile int updates;
+        @Nullable
+        volatile Exception failure;
+
+        TestProcessor(Executor mainThread) {
+            super(mainThread);
+            // Set field by field, the constructors of android.graphics are stubs in unit tests.
+            region.left = 0.1f;
+            region.top = 0.1f;
+            region.right = 0.9f;
+            region.bottom = 0.9f;
+            for (int slot = 0; slot < tasks.length; slot++) {
+                tasks[slot] = new FakeTask();
+            }
+            setPipelineDepth(PIPELINE_DEPTH);
+            setDetectionResolution(WIDTH / 2, HEIGHT / 2);
+            setLocalizeBarcodes(true);
+        }
+
+        @Nullable
+        @Override
+        protected RectF getRegionOfInterest(@NonNull GraphicOverlay graphicOverlay) {
+            return region;
+        }
+
+        @Nullable
+        @Override
+        protected Object getEmptyResults() {
+            return RESULTS;
+        }
+
+        @Override
+        protected Task<Object> detectInImage(InputImage image) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        Task<Object> detectInFrame(@NonNull Frame frame, int slot) {
+            return tasks[slot];
+        }
+
+        @Override
+        protected void onSuccess(@NonNull Object results, @NonNull FrameMetadata frameMetadata,
+                                 @NonNull GraphicOverlay graphicOverlay) {
+            if (resultThread == null) {
+                resultThread = Thread.currentThread();
+            }
+            postUpdate();
+        }
+
+        @Override
+        protected void onFailure(@NonNull Exception e) {
+            failure = e;
+        }
+
+        void postUpdate() {
+            runOnMainThread(applyUpdate);
+        }
+
+        private void applyUpdate() {
+            if (isStopped()) {
+                return;
+            }
+            updates++;
+        }
+    }
+
+    /**
+     * Stands in for a detection, succeeding with the same results on the executor it is given.
+     * One is kept per slot and reused, so the fake detector doesn't allocate either.
+     */
+    private static final class FakeTask extends Task<Object> implements Runnable {
+        private OnSuccessListener<? super Object> listener;
+
+        @NonNull
+        @Override
+        public Task<Object> addOnSuccessListener(@NonNull Executor executor,
+                                                 @NonNull OnSuccessListener<? super Object> l) {
+            listener = l;
+            executor.execute(this);
+            return this;
+        }
+
+        @Override
+        public void run() {
+            listener.onSuccess(RESULTS);
+        }
+
+        @NonNull
+        @Override
+        public Task<Object> addOnFailureListener(@NonNull Executor executor,
+                                                 @NonNull OnFailureListener l) {
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Task<Object> addOnSuccessListener(@NonNull OnSuccessListener<? super Object> l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        public Task<Object> addOnSuccessListener(@NonNull Activity activity,
+                                                 @NonNull OnSuccessListener<? super Object> l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        public Task<Object> addOnFailureListener(@NonNull OnFailureListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        public Task<Object> addOnFailureListener(@NonNull Activity activity,
+                                                 @NonNull OnFailureListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public Object getResult() {
+            return RESULTS;
+        }
+
+        @Override
+        public <X extends Throwable> Object getResult(@NonNull Class<X> exceptionType) {
+            return RESULTS;
+        }
+
+        @Nullable
+        @Override
+        public Exception getException() {
+            return null;
+        }
+    }
+}
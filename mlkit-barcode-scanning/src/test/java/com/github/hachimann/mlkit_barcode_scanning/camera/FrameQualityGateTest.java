@@ -0,0 +1,74 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FrameQualityGateTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    private final FrameQualityGate gate = new FrameQualityGate();
+
+    @Test
+    public void shouldDrop_letsSharpWellExposedFramesThrough() {
+        assertFalse(gate.shouldDrop(createFrame(60, 180)));
+        assertTrue(gate.getLastSharpness() >= FrameQualityGate.MIN_SHARPNESS);
+    }
+
+    @Test
+    public void shouldDrop_countsEveryReason() {
+        assertTrue(gate.shouldDrop(createFrame(120, 124)));
+        assertTrue(gate.shouldDrop(createFrame(5, 30)));
+        assertTrue(gate.shouldDrop(createFrame(255, 255)));
+
+        assertEquals(1, gate.getDroppedFrameCount(FrameQualityGate.REASON_BLURRY));
+        assertEquals(1, gate.getDroppedFrameCount(FrameQualityGate.REASON_TOO_DARK));
+        assertEquals(1, gate.getDroppedFrameCount(FrameQualityGate.REASON_OVEREXPOSED));
+    }
+
+    @Test
+    public void shouldDrop_letsOneFrameThroughAfterRunOfDrops() {
+        for (int i = 0; i < FrameQualityGate.MAX_CONSECUTIVE_DROPS; i++) {
+            assertTrue(gate.shouldDrop(createFrame(120, 120)));
+        }
+        assertFalse(gate.shouldDrop(createFrame(120, 120)));
+        assertTrue(gate.shouldDrop(createFrame(120, 120)));
+    }
+
+    @Test
+    public void shouldDrop_reportsSustainedUnderexposureOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        gate.setUnderexposureListener(calls::incrementAndGet);
+
+        for (int i = 0; i < FrameQualityGate.UNDEREXPOSED_FRAMES * 2; i++) {
+            gate.shouldDrop(createFrame(0, 20));
+        }
+        assertEquals(1, calls.get());
+
+        gate.shouldDrop(createFrame(60, 180));
+        for (int i = 0; i < FrameQualityGate.UNDEREXPOSED_FRAMES; i++) {
+            gate.shouldDrop(createFrame(0, 20));
+        }
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * Creates a frame of vertical stripes, two pixels wide, alternating between the given levels.
+     */
+    private static Frame createFrame(int dark, int light) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[y * WIDTH + x] = (byte) ((x / 2) % 2 == 0 ? dark : light);
+            }
+        }
+        return Frame.fromNv21(ByteBuffer.wrap(data), new FrameMetadata(WIDTH, HEIGHT, 0));
+    }
+}
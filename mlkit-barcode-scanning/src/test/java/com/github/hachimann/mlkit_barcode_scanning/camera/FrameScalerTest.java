@@ -0,0 +1,64 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FrameScalerTest {
+
+    private final FrameScaler scaler = new FrameScaler();
+
+    @Test
+    public void getFactor_keepsFrameAtOrAboveResolution() {
+        assertEquals(2, FrameScaler.getFactor(1280, 720, 640, 360));
+        assertEquals(1, FrameScaler.getFactor(1280, 720, 1280, 720));
+        assertEquals(2, FrameScaler.getFactor(1920, 1080, 800, 480));
+        // Portrait resolution against a landscape sensor frame.
+        assertEquals(3, FrameScaler.getFactor(1920, 1080, 360, 640));
+        assertEquals(1, FrameScaler.getFactor(1280, 720, 0, 0));
+    }
+
+    @Test
+    public void downscale_averagesLumaAndSubsamplesChroma() {
+        byte[] data = new byte[8 * 4 * 3 / 2];
+        for (int i = 0; i < 32; i++) {
+            data[i] = (byte) (i * 4);
+        }
+        for (int i = 0; i < 8; i++) {
+            data[32 + 2 * i] = (byte) (100 + i);
+            data[33 + 2 * i] = (byte) (200 + i);
+        }
+        Frame source = Frame.fromNv21(ByteBuffer.wrap(data),
+                new FrameMetadata(8, 4, 90, 10, 20, 1f));
+
+        Frame frame = scaler.downscale(source, 2);
+
+        assertNotNull(frame);
+        assertEquals(4, frame.getWidth());
+        assertEquals(2, frame.getHeight());
+        assertEquals(90, frame.getRotation());
+        assertEquals(0.5f, frame.getMetadata().getScale(), 0f);
+        assertEquals(10, frame.getMetadata().getOffsetX());
+        assertEquals(20, frame.getMetadata().getOffsetY());
+        // The first block holds 0, 4, 32 and 36.
+        assertArrayEquals(new byte[]{
+                        18, 26, 34, 42,
+                        82, 90, 98, 106,
+                        (byte) 100, (byte) 200, (byte) 102, (byte) 202},
+                Arrays.copyOf(frame.getNv21Buffer().array(), 12));
+    }
+
+    @Test
+    public void downscale_returnsNullBelowFactorTwo() {
+        Frame source = Frame.fromNv21(ByteBuffer.wrap(new byte[8 * 4 * 3 / 2]),
+                new FrameMetadata(8, 4, 0));
+        assertNull(scaler.downscale(source, 1));
+        assertNull(scaler.downscale(source, 8));
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameTest {
+
+    @Test
+    public void nv21Frame_describesInterleavedChromaPlanes() {
+        ByteBuffer data = ByteBuffer.wrap(new byte[8 * 4 * 3 / 2]);
+        Frame frame = Frame.fromNv21(data, new FrameMetadata(8, 4, 90));
+
+        assertSame(data, frame.getNv21Buffer());
+        assertNull(frame.getImage());
+        assertEquals(0, frame.getYOffset());
+        assertEquals(8, frame.getYRowStride());
+        assertEquals(32, frame.getVOffset());
+        assertEquals(33, frame.getUOffset());
+        assertEquals(8, frame.getUvRowStride());
+        assertEquals(2, frame.getUvPixelStride());
+        assertEquals(90, frame.getRotation());
+    }
+
+    @Test
+    public void fakeSource_deliversFramesAndTakesThemBackOnRelease() {
+        FakeFrameSource source = new FakeFrameSource(8, 4, 0, 2);
+        List<Frame> received = new ArrayList<>();
+        source.setFrameListener(received::add);
+        source.start(null);
+
+        byte[] content = new byte[8 * 4 * 3 / 2];
+        content[0] = 42;
+        assertTrue(source.deliver(content));
+        assertTrue(source.deliver(content));
+        // Both buffers are held downstream, so the camera is starved.
+        assertFalse(source.deliver(content));
+
+        assertEquals(2, received.size());
+        assertEquals(42, received.get(0).getYBuffer().get(0));
+        assertEquals(1, source.getDroppedCount());
+
+        received.get(0).release();
+        assertEquals(1, source.getFreeBufferCount());
+        assertTrue(source.deliver(content));
+        assertEquals(3, source.getDeliveredCount());
+    }
+
+    @Test
+    public void fakeSource_dropsFramesWhileStopped() {
+        FakeFrameSource source = new FakeFrameSource(8, 4, 0, 1);
+        source.setFrameListener(Frame::release);
+
+        assertFalse(source.deliver(new byte[48]));
+
+        source.start(null);
+        assertTrue(source.deliver(new byte[48]));
+        assertEquals(1, source.getReleasedCount());
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PreviewBufferRingTest {
+
+    private static final FrameMetadata METADATA = new FrameMetadata(4, 2, 0);
+    private static final int FRAME_SIZE = 4 * 2 * 3 / 2;
+
+    private final List<byte[]> camera = new ArrayList<>();
+    private PreviewBufferRing ring;
+
+    @Before
+    public void setUp() {
+        ring = new PreviewBufferRing(3);
+        ring.prepare(METADATA, FRAME_SIZE);
+        ring.attach(camera::add);
+    }
+
+    @Test
+    public void attach_handsEveryBufferToTheCamera() {
+        assertEquals(3, camera.size());
+        assertEquals(3, ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED));
+    }
+
+    @Test
+    public void onPreviewFrame_mapsBufferToItsFrame() {
+        byte[] data = camera.get(1);
+
+        Frame frame = ring.onPreviewFrame(data);
+
+        assertNotNull(frame);
+        assertSame(data, frame.getNv21Buffer().array());
+        assertEquals(1, ring.getStateCount(PreviewBufferRing.STATE_PENDING));
+
+        frame.markProcessing();
+        assertEquals(1, ring.getStateCount(PreviewBufferRing.STATE_PROCESSING));
+
+        frame.release();
+        assertEquals(3, ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED));
+        assertSame(data, camera.get(3));
+    }
+
+    @Test
+    public void onPreviewFrame_countsUnknownAndStaleBuffers() {
+        assertNull(ring.onPreviewFrame(new byte[FRAME_SIZE + 4]));
+        assertEquals(1, ring.getUnknownBufferCount());
+
+        byte[] data = camera.get(0);
+        Frame frame = ring.onPreviewFrame(data);
+        assertNotNull(frame);
+        // The camera can't deliver a buffer it doesn't own.
+        assertNull(ring.onPreviewFrame(data));
+        assertEquals(1, ring.getStaleBufferCount());
+
+        frame.release();
+        frame.release();
+        assertEquals(1, ring.getStaleReleaseCount());
+    }
+
+    @Test
+    public void restart_reusesBuffersAndHandsHeldOnesOverOnRelease() {
+        Frame held = ring.onPreviewFrame(camera.get(0));
+        byte[] heldBuffer = camera.get(0);
+        List<byte[]> firstSession = new ArrayList<>(camera);
+
+        ring.detach();
+        camera.clear();
+        ring.prepare(METADATA, FRAME_SIZE);
+        ring.attach(camera::add);
+
+        assertEquals(2, camera.size());
+        assertSame(firstSession.get(1), camera.get(0));
+        assertSame(firstSession.get(2), camera.get(1));
+
+        held.release();
+        assertEquals(3, camera.size());
+        assertSame(heldBuffer, camera.get(2));
+        assertEquals(0, ring.getStaleReleaseCount());
+    }
+
+    @Test
+    public void prepare_withNewFrameSizeDropsOldBuffers() {
+        Frame held = ring.onPreviewFrame(camera.get(0));
+        ring.detach();
+        camera.clear();
+
+        ring.prepare(new FrameMetadata(8, 4, 0), 8 * 4 * 3 / 2);
+        ring.attach(camera::add);
+        assertEquals(3, camera.size());
+
+        held.release();
+        assertEquals(3, camera.size());
+        assertEquals(1, ring.getStaleReleaseCount());
+    }
+
+    @Test
+    public void setCapacity_growsImmediatelyAndShrinksOnRelease() {
+        ring.setCapacity(4);
+        assertEquals(4, camera.size());
+        assertEquals(4, ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED));
+
+        Frame last = ring.onPreviewFrame(camera.get(3));
+        ring.setCapacity(2);
+        // The last two buffers are retired; the one still owned by the camera comes back first.
+        Frame retired = ring.onPreviewFrame(camera.get(2));
+        assertNotNull(retired);
+        retired.release();
+        last.release();
+
+        assertEquals(2, ring.getCapacity());
+        assertEquals(2, ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED));
+        assertEquals(4, camera.size());
+        assertEquals(0, ring.getStaleReleaseCount());
+    }
+
+    @Test
+    public void policy_growsRingWhenCameraStarves() {
+        ring.setPolicy(new AdaptiveBufferPolicy(3, 5));
+        int next = 0;
+        while (next < AdaptiveBufferPolicy.WINDOW_FRAMES) {
+            // Detection holds every buffer long enough for the camera to run dry.
+            List<Frame> held = new ArrayList<>();
+            while (next < AdaptiveBufferPolicy.WINDOW_FRAMES
+                    && ring.getStateCount(PreviewBufferRing.STATE_CAMERA_OWNED) > 0) {
+                Frame frame = ring.onPreviewFrame(camera.get(next++));
+                frame.markProcessing();
+                held.add(frame);
+            }
+            for (Frame frame : held) {
+                frame.release();
+            }
+        }
+
+        assertEquals(4, ring.getCapacity());
+        PreviewBufferStats stats = ring.getStats();
+        assertEquals(4, stats.getCapacity());
+        assertEquals(4, stats.getCameraOwned());
+        assertEquals(1, stats.getResizeCount());
+        assertEquals(AdaptiveBufferPolicy.WINDOW_FRAMES / 3, stats.getStarvedFrames());
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SerialResultExecutorTest {
+
+    @Test
+    public void execute_runsCommandsInOrder() throws InterruptedException {
+        SerialResultExecutor executor = new SerialResultExecutor(4, "Test");
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            executor.execute(() -> order.add(index));
+        }
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2), order);
+        executor.shutdown();
+    }
+
+    @Test
+    public void execute_afterShutdown_dropsCommand() throws InterruptedException {
+        SerialResultExecutor executor = new SerialResultExecutor(4, "Test");
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.shutdown();
+
+        executor.execute(ran::countDown);
+
+        assertFalse(ran.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void execute_whenFull_rejects() throws InterruptedException {
+        SerialResultExecutor executor = new SerialResultExecutor(1, "Test");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        try {
+            executor.execute(() -> { });
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
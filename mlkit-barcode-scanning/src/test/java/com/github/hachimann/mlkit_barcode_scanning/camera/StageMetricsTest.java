@@ -0,0 +1,55 @@
+package com.github.hachimann.mlkit_barcode_scanning.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StageMetricsTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void exit_averagesLatencyOverCompletedFrames() {
+        StageMetrics metrics = new StageMetrics(1, 0);
+
+        metrics.enter(0);
+        metrics.exit(0, 4 * MS);
+        metrics.enter(10 * MS);
+        metrics.exit(10 * MS, 18 * MS);
+
+        assertEquals(2, metrics.getCompletedCount());
+        assertEquals(6f, metrics.getAverageLatencyMillis(), 1e-3f);
+    }
+
+    @Test
+    public void getOccupancy_isShareOfTimeBusy() {
+        StageMetrics metrics = new StageMetrics(1, 0);
+
+        metrics.enter(0);
+        metrics.exit(0, 25 * MS);
+
+        assertEquals(0.25f, metrics.getOccupancy(100 * MS), 1e-3f);
+    }
+
+    @Test
+    public void getOccupancy_countsFramesStillInStage() {
+        StageMetrics metrics = new StageMetrics(1, 0);
+
+        metrics.enter(50 * MS);
+
+        assertEquals(0.5f, metrics.getOccupancy(100 * MS), 1e-3f);
+        assertEquals(0, metrics.getCompletedCount());
+    }
+
+    @Test
+    public void getOccupancy_dividesByCapacity() {
+        StageMetrics metrics = new StageMetrics(2, 0);
+
+        // One frame in flight all the time, a second one for half of it.
+        metrics.enter(0);
+        metrics.enter(0);
+        metrics.exit(0, 50 * MS);
+
+        assertEquals(0.75f, metrics.getOccupancy(100 * MS), 1e-3f);
+    }
+}